@@ -35,7 +35,7 @@ public class BuildServlet extends HttpServlet {
     private static Logger log = Log.getRootLogger();
 
     /** The thread-safe data structure to use for storing messages. */
-    private final ThreadedInvertedIndex index;
+    private final ThreadSafeInvertedIndex index;
 
     /**
      * The webcrawler ued to build the index
@@ -52,10 +52,21 @@ public class BuildServlet extends HttpServlet {
      * 
      * @throws IOException if unable to read template
      */
-    public BuildServlet(ThreadedInvertedIndex index, WorkQueue queue, int limit) throws IOException {
+    public BuildServlet(ThreadSafeInvertedIndex index, WorkQueue queue, int limit) throws IOException {
+        this(index, new WebCrawler(index, queue, limit));
+    }
+
+    /**
+     * Initializes the servlet with a crawler whose crawls may also be reported by
+     * a {@link CrawlServlet}
+     * 
+     * @param index      the InvertedIndex the crawler builds
+     * @param webCrawler the crawler used to build the index
+     */
+    public BuildServlet(ThreadSafeInvertedIndex index, WebCrawler webCrawler) {
         super();
         this.index = index;
-        webCrawler = new WebCrawler(index, queue, limit);
+        this.webCrawler = webCrawler;
     }
 
     @Override
@@ -70,7 +81,8 @@ public class BuildServlet extends HttpServlet {
         // avoid xss attacks using apache commons text
         // comment out if you don't have this library installed
         url = StringEscapeUtils.escapeHtml4(url);
-        webCrawler.crawlWeb(url);
+        // crawl in the background, pages become searchable as they are added
+        CrawlJob job = webCrawler.submit(url);
         PrintWriter out = response.getWriter();
         out.printf("<html>%n");
 
@@ -85,7 +97,12 @@ public class BuildServlet extends HttpServlet {
         out.printf("</header>%n");
 
         out.printf("<body>%n");
-        out.printf("<h1>Added to index from URL: %s</h1>%n", url);
+        if (job != null) {
+            out.printf("<h1>Crawling from URL: %s</h1>%n", url);
+            out.printf("<p><a href=\"/crawl?id=%d\">Progress of crawl %d</a></p>%n", job.getId(), job.getId());
+        } else {
+            out.printf("<h1>Unable to crawl URL: %s</h1>%n", url);
+        }
         out.printf("<form action=\"/home\" method=\"GET\">%n");
         out.printf("<input type=\"submit\" name=\"submit\" id=\"submit\" value=\"New Search\"/>");
         out.printf("</form>");
@@ -119,7 +136,8 @@ public class BuildServlet extends HttpServlet {
         // comment out if you don't have this library installed
         url = StringEscapeUtils.escapeHtml4(url);
 
-        webCrawler.crawlWeb(url);
+        // crawl in the background, pages become searchable as they are added
+        CrawlJob job = webCrawler.submit(url);
 
         PrintWriter out = response.getWriter();
         out.printf("<html>%n");
@@ -135,6 +153,9 @@ public class BuildServlet extends HttpServlet {
         out.printf("</header>%n");
 
         out.printf("<body>%n");
+        if (job != null) {
+            out.printf("<p><a href=\"/crawl?id=%d\">Progress of crawl %d</a></p>%n", job.getId(), job.getId());
+        }
         out.printf("<form action=\"/search\" method=\"GET\">%n");
         out.printf("<label for=\"build\">What would you like to search?</label>");
         out.printf("<br><input type=\"text\" name=\"queries\" id=\"queries\" required/>");
@@ -0,0 +1,540 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A Thread Safe InvertedIndex that splits its words across several shards, each
+ * protected by its own lock, instead of guarding everything with one lock.
+ * Writers adding different words proceed in parallel, and readers only wait on
+ * writers touching the same shard. All shards share one {@link DocumentTable},
+ * which is append-only: its lock is only taken to add a new location, and by
+ * {@link #save(Path)} for a consistent segment. Word counts are updated
+ * atomically without the lock, so writers adding words to different shards
+ * never wait on each other. Searches and lookups read the table without any
+ * lock, so they never wait on merges and merges never wait on them.
+ *
+ * Locks are never nested in a way that could deadlock: the document lock may be
+ * held while a shard lock is taken, but never the other way around.
+ *
+ * @author stewartpowell
+ */
+public class ConcurrentInvertedIndex extends ThreadSafeInvertedIndex {
+
+    /** The default number of shards to use when not specified. */
+    public static final int DEFAULT = 16;
+
+    /** The shards holding the words of the index */
+    private final InvertedIndex[] shards;
+
+    /** The lock protecting each shard */
+    private final SimpleReadWriteLock[] locks;
+
+    /** The table of documents shared by every shard */
+    private final DocumentTable documents;
+
+    /** The lock serializing changes to the shared document table */
+    private final SimpleReadWriteLock documentLock;
+
+    /**
+     * Instantiates the index with the default number of shards
+     *
+     * @see #ConcurrentInvertedIndex(int)
+     */
+    public ConcurrentInvertedIndex() {
+        this(DEFAULT);
+    }
+
+    /**
+     * Instantiates the index with the given number of shards
+     *
+     * @param shards the number of shards; should be at least 1
+     */
+    public ConcurrentInvertedIndex(int shards) {
+        this(new DocumentTable(), shards);
+    }
+
+    /**
+     * Instantiates the index with the given number of shards, sharing the
+     * document table with the shards and with the inherited methods that read it
+     *
+     * @param documents the empty document table
+     * @param shards    the number of shards; should be at least 1
+     */
+    private ConcurrentInvertedIndex(DocumentTable documents, int shards) {
+        super(documents);
+        this.documents = documents;
+        this.documentLock = new SimpleReadWriteLock();
+        this.shards = new InvertedIndex[shards];
+        this.locks = new SimpleReadWriteLock[shards];
+        for (int i = 0; i < shards; i++) {
+            this.shards[i] = new InvertedIndex(documents);
+            this.locks[i] = new SimpleReadWriteLock();
+        }
+    }
+
+    /**
+     * Returns the shard responsible for the word
+     *
+     * @param word the word to look up
+     * @return the index of the shard
+     */
+    private int shard(String word) {
+        int hash = word.hashCode();
+        return ((hash ^ (hash >>> 16)) & 0x7FFFFFFF) % shards.length;
+    }
+
+    @Override
+    public boolean add(String word, String path, int position) {
+        return add(word, addDocument(path), position);
+    }
+
+    @Override
+    public int addDocument(String location) {
+        int id = documents.getId(location);
+        if (id >= 0) {
+            return id;
+        }
+
+        documentLock.writeLock().lock();
+        try {
+            return documents.add(location);
+        } finally {
+            documentLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the word, document, and position to the index. The document's word
+     * count is raised before the posting becomes visible and lowered again if the
+     * posting already existed, so a concurrent search never divides by a count
+     * that is too small.
+     * 
+     * @param word     the word to be added
+     * @param document the document id returned by {@link #addDocument(String)}
+     * @param position the position in the file the word was found in
+     * 
+     * @return boolean if the Index was changed
+     */
+    @Override
+    public boolean add(String word, int document, int position) {
+        documents.addLength(document, 1);
+
+        int shard = shard(word);
+        boolean changed;
+        locks[shard].writeLock().lock();
+        try {
+            changed = shards[shard].addPosting(word, document, position);
+        } finally {
+            locks[shard].writeLock().unlock();
+        }
+
+        if (changed) {
+            modified();
+        } else {
+            documents.addLength(document, -1);
+        }
+        return changed;
+    }
+
+    /**
+     * Adds every word of the other index. The other index's documents are added
+     * first, and then each shard is locked once to merge all of its words, so
+     * searches on other shards are never blocked by the merge.
+     *
+     * @param otherIndex the index we are adding
+     */
+    @Override
+    public void addAll(InvertedIndex otherIndex) {
+        // the postings are read first, so every document they refer to is remapped
+        Map<String, PostingList> postings = otherIndex.getPostings();
+        int[] remap;
+        documentLock.writeLock().lock();
+        try {
+            remap = addDocuments(otherIndex);
+        } finally {
+            documentLock.writeLock().unlock();
+        }
+
+        // group the words by shard so each shard lock is only taken once
+        List<List<Map.Entry<String, PostingList>>> grouped = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            grouped.add(new ArrayList<>());
+        }
+        for (Map.Entry<String, PostingList> entry : postings.entrySet()) {
+            grouped.get(shard(entry.getKey())).add(entry);
+        }
+
+        for (int shard = 0; shard < shards.length; shard++) {
+            if (grouped.get(shard).isEmpty()) {
+                continue;
+            }
+            locks[shard].writeLock().lock();
+            try {
+                for (Map.Entry<String, PostingList> entry : grouped.get(shard)) {
+                    shards[shard].addPostings(entry.getKey(), entry.getValue(), remap);
+                }
+            } finally {
+                locks[shard].writeLock().unlock();
+            }
+        }
+        modified();
+    }
+
+    /**
+     * Adds every word of each of the other indexes. Each index takes the shard
+     * locks on its own, so searches can run between them.
+     * 
+     * @param otherIndexes the indexes we are adding
+     */
+    @Override
+    public void addAll(Collection<? extends InvertedIndex> otherIndexes) {
+        for (InvertedIndex otherIndex : otherIndexes) {
+            addAll(otherIndex);
+        }
+    }
+
+    /**
+     * Returns an unmodifiable snapshot of the postings of every word, merged from
+     * the shards in sorted order. Each posting list is copied under its shard's
+     * lock, so the snapshot can be read while words are still being added. Used
+     * when this index is added to another index.
+     *
+     * @return the map of word to copied postings
+     */
+    @Override
+    Map<String, PostingList> getPostings() {
+        TreeMap<String, PostingList> postings = new TreeMap<>();
+        for (int shard = 0; shard < shards.length; shard++) {
+            locks[shard].readLock().lock();
+            try {
+                for (Map.Entry<String, PostingList> entry : shards[shard].getPostings().entrySet()) {
+                    postings.put(entry.getKey(), new PostingList(entry.getValue()));
+                }
+            } finally {
+                locks[shard].readLock().unlock();
+            }
+        }
+        return Collections.unmodifiableMap(postings);
+    }
+
+    /**
+     * Returns a copy of the postings of a word, made under its shard's lock
+     *
+     * @param word the word to look up
+     * @return the copied postings of the word, or {@code null} if it is not found
+     */
+    @Override
+    PostingList getPostings(String word) {
+        int shard = shard(word);
+        locks[shard].readLock().lock();
+        try {
+            PostingList postings = shards[shard].getPostings(word);
+            return postings != null ? new PostingList(postings) : null;
+        } finally {
+            locks[shard].readLock().unlock();
+        }
+    }
+
+    /**
+     * returns an unmodifiable snapshot of the words of the Index in sorted order
+     *
+     * @return Collection<String>
+     */
+    @Override
+    public Collection<String> getWords() {
+        TreeSet<String> words = new TreeSet<>();
+        for (int shard = 0; shard < shards.length; shard++) {
+            locks[shard].readLock().lock();
+            try {
+                words.addAll(shards[shard].getPostings().keySet());
+            } finally {
+                locks[shard].readLock().unlock();
+            }
+        }
+        return Collections.unmodifiableSet(words);
+    }
+
+    @Override
+    public Set<String> getLocations(String word) {
+        int shard = shard(word);
+        locks[shard].readLock().lock();
+        try {
+            return shards[shard].getLocations(word);
+        } finally {
+            locks[shard].readLock().unlock();
+        }
+    }
+
+    @Override
+    public Set<Integer> getPositions(String word, String location) {
+        int shard = shard(word);
+        locks[shard].readLock().lock();
+        try {
+            return shards[shard].getPositions(word, location);
+        } finally {
+            locks[shard].readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean containsWord(String word) {
+        int shard = shard(word);
+        long stamp = locks[shard].tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                boolean found = shards[shard].containsWord(word);
+                if (locks[shard].validate(stamp)) {
+                    return found;
+                }
+            } catch (RuntimeException e) {
+                // a concurrent write was in progress; retry under the read lock
+            }
+        }
+
+        locks[shard].readLock().lock();
+        try {
+            return shards[shard].containsWord(word);
+        } finally {
+            locks[shard].readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean containsLocation(String word, String location) {
+        int shard = shard(word);
+        locks[shard].readLock().lock();
+        try {
+            return shards[shard].containsLocation(word, location);
+        } finally {
+            locks[shard].readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean containsPosition(String word, String location, Integer position) {
+        int shard = shard(word);
+        locks[shard].readLock().lock();
+        try {
+            return shards[shard].containsPosition(word, location, position);
+        } finally {
+            locks[shard].readLock().unlock();
+        }
+    }
+
+    @Override
+    public int numWords() {
+        int words = 0;
+        for (int shard = 0; shard < shards.length; shard++) {
+            locks[shard].readLock().lock();
+            try {
+                words += shards[shard].numWords();
+            } finally {
+                locks[shard].readLock().unlock();
+            }
+        }
+        return words;
+    }
+
+    @Override
+    public int numLocations(String word) {
+        int shard = shard(word);
+        long stamp = locks[shard].tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                int locations = shards[shard].numLocations(word);
+                if (locks[shard].validate(stamp)) {
+                    return locations;
+                }
+            } catch (RuntimeException e) {
+                // a concurrent write was in progress; retry under the read lock
+            }
+        }
+
+        locks[shard].readLock().lock();
+        try {
+            return shards[shard].numLocations(word);
+        } finally {
+            locks[shard].readLock().unlock();
+        }
+    }
+
+    @Override
+    public int numPositions(String word, String location) {
+        int shard = shard(word);
+        locks[shard].readLock().lock();
+        try {
+            return shards[shard].numPositions(word, location);
+        } finally {
+            locks[shard].readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the pretty or compact Json format of the Index. Each word is written
+     * to the buffer under its own shard's lock, and the buffer is flushed to the
+     * file with no lock held, so the output is not blocked on, and does not block,
+     * the whole index.
+     *
+     * @param path   the path to output the Json Index
+     * @param pretty whether to output pretty or compact Json
+     * @throws IOException throws IOException
+     */
+    @Override
+    public void getIndex(Path path, boolean pretty) throws IOException {
+        try (JsonStreamWriter json = JsonStreamWriter.open(path, pretty)) {
+            json.beginObject();
+            for (String word : getWords()) {
+                int shard = shard(word);
+                locks[shard].readLock().lock();
+                try {
+                    PostingList postings = shards[shard].getPostings(word);
+                    if (postings != null) {
+                        json.writeWord(word, postings, documents);
+                    }
+                } finally {
+                    locks[shard].readLock().unlock();
+                }
+                if (json.isFull()) {
+                    json.flush();
+                }
+            }
+            json.endObject();
+        }
+    }
+
+    /**
+     * Saves the Index to a binary segment file. Every lock is held for reading
+     * while the segment is written, so the saved segment is consistent.
+     * 
+     * @param path the path to save the segment to
+     * @throws IOException throws IOException
+     */
+    @Override
+    public void save(Path path) throws IOException {
+        documentLock.readLock().lock();
+        for (int shard = 0; shard < shards.length; shard++) {
+            locks[shard].readLock().lock();
+        }
+        try {
+            // the segment needs every word in sorted order, not grouped by shard
+            TreeMap<String, PostingList> merged = new TreeMap<>();
+            for (InvertedIndex shard : shards) {
+                merged.putAll(shard.getPostings());
+            }
+            IndexSegment.write(merged, documents, path);
+        } finally {
+            for (int shard = shards.length - 1; shard >= 0; shard--) {
+                locks[shard].readLock().unlock();
+            }
+            documentLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns an iterator over a snapshot of the words of the index, decoding the
+     * postings of each word when it is reached
+     *
+     * @return the iterator of decoded entries
+     */
+    private Iterator<Map.Entry<String, TreeMap<String, TreeSet<Integer>>>> entries() {
+        Iterator<String> words = getWords().iterator();
+        return new Iterator<Map.Entry<String, TreeMap<String, TreeSet<Integer>>>>() {
+            @Override
+            public boolean hasNext() {
+                return words.hasNext();
+            }
+
+            @Override
+            public Map.Entry<String, TreeMap<String, TreeSet<Integer>>> next() {
+                String word = words.next();
+                int shard = shard(word);
+                locks[shard].readLock().lock();
+                try {
+                    return Map.entry(word, shards[shard].decode(word));
+                } finally {
+                    locks[shard].readLock().unlock();
+                }
+            }
+        };
+    }
+
+    @Override
+    public Map<String, Integer> getCounter() {
+        return Collections.unmodifiableMap(documents.getCounts());
+    }
+
+    /**
+     * Finds and scores the matching locations, holding each shard's read lock
+     * only while its postings are scanned. No lock is held on the document table:
+     * documents added after the search started are ignored, and every document
+     * found in postings has its word count raised before the posting is visible.
+     */
+    @Override
+    List<SearchResult> collect(Collection<String> queries, boolean exact, int k) {
+        ScoreAccumulator scores = ScoreAccumulator.get(documents.size());
+        try {
+            for (String query : queries) {
+                if (exact) {
+                    int shard = shard(query);
+                    locks[shard].readLock().lock();
+                    try {
+                        shards[shard].searchWord(query, scores);
+                    } finally {
+                        locks[shard].readLock().unlock();
+                    }
+                    continue;
+                }
+
+                // words sharing a prefix are spread across every shard
+                for (int shard = 0; shard < shards.length; shard++) {
+                    locks[shard].readLock().lock();
+                    try {
+                        shards[shard].searchPrefix(query, scores);
+                    } finally {
+                        locks[shard].readLock().unlock();
+                    }
+                }
+            }
+            return scores.results(this, k);
+        } finally {
+            scores.release();
+        }
+    }
+
+    /**
+     * Returns the contention statistics of the document lock and of each shard
+     * lock
+     * 
+     * @return a summary of lock acquisitions and wait times per lock mode
+     */
+    @Override
+    public String getLockStatistics() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("documents: ").append(documentLock);
+        for (int shard = 0; shard < shards.length; shard++) {
+            builder.append(String.format("%nshard %d: %s", shard, locks[shard]));
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        Iterator<Map.Entry<String, TreeMap<String, TreeSet<Integer>>>> iterator = entries();
+        while (iterator.hasNext()) {
+            builder.append(iterator.next());
+            if (iterator.hasNext()) {
+                builder.append(", ");
+            }
+        }
+        return builder.append("}").toString();
+    }
+}
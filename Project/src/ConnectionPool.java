@@ -0,0 +1,328 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of open HTTP/1.1 keep-alive connections, so fetching many pages from
+ * one host does not pay for a new TCP connection and TLS handshake every time.
+ * Connections are kept per host, most recently used first, and are closed once
+ * they have been idle for too long or if the host already has as many idle
+ * connections as allowed.
+ *
+ * The number of connections in use at once to one host is bounded by whoever
+ * fetches the pages, such as the {@link CrawlFrontier}.
+ *
+ * @author stewartpowell
+ */
+public class ConnectionPool implements Closeable {
+
+    /** The default number of idle connections kept per host */
+    public static final int DEFAULT_IDLE = 4;
+
+    /** The default time a connection may stay idle, in milliseconds */
+    public static final long DEFAULT_TIMEOUT = 30_000;
+
+    /** The time to wait for a response before giving up, in milliseconds */
+    private static final int READ_TIMEOUT = 30_000;
+
+    /** The pool used by {@link HtmlFetcher} */
+    public static final ConnectionPool SHARED = new ConnectionPool(DEFAULT_IDLE, DEFAULT_TIMEOUT);
+
+    /** The number of idle connections kept per host */
+    private final int idlePerHost;
+
+    /** The time a connection may stay idle, in nanoseconds */
+    private final long timeout;
+
+    /** The idle connections of each host, most recently used first */
+    private final Map<String, ArrayDeque<Connection>> idle;
+
+    /** The last time every host was checked for expired connections */
+    private long swept;
+
+    /** The number of connections opened */
+    private final LongAdder opened;
+
+    /** The number of times an idle connection was used again */
+    private final LongAdder reused;
+
+    /** The number of idle connections closed */
+    private final LongAdder evicted;
+
+    /**
+     * Creates an empty pool
+     *
+     * @param idlePerHost the number of idle connections kept per host
+     * @param timeout     the time a connection may stay idle, in milliseconds
+     */
+    public ConnectionPool(int idlePerHost, long timeout) {
+        this.idlePerHost = Math.max(idlePerHost, 0);
+        this.timeout = TimeUnit.MILLISECONDS.toNanos(timeout);
+        this.idle = new HashMap<>();
+        this.swept = System.nanoTime();
+        this.opened = new LongAdder();
+        this.reused = new LongAdder();
+        this.evicted = new LongAdder();
+    }
+
+    /**
+     * Returns an idle connection to the host of the URL, or opens a new one
+     *
+     * @param url the url to connect to
+     * @return the connection, which must be given back with
+     *         {@link #release(Connection, boolean)}
+     * @throws IOException if unable to open a connection
+     */
+    Connection acquire(URL url) throws IOException {
+        String key = key(url);
+        synchronized (this) {
+            ArrayDeque<Connection> connections = idle.get(key);
+            if (connections != null) {
+                expire(connections, System.nanoTime());
+                Connection connection = connections.pollFirst();
+                if (connections.isEmpty()) {
+                    idle.remove(key);
+                }
+                if (connection != null) {
+                    reused.increment();
+                    connection.uses++;
+                    return connection;
+                }
+            }
+        }
+
+        return open(url);
+    }
+
+    /**
+     * Opens a new connection to the host of the URL, without using an idle one
+     *
+     * @param url the url to connect to
+     * @return the connection, which must be given back with
+     *         {@link #release(Connection, boolean)}
+     * @throws IOException if unable to open a connection
+     */
+    Connection open(URL url) throws IOException {
+        Socket socket = HttpsFetcher.openConnection(url);
+        socket.setSoTimeout(READ_TIMEOUT);
+        socket.setTcpNoDelay(true);
+        opened.increment();
+        return new Connection(key(url), socket);
+    }
+
+    /**
+     * Gives back a connection, keeping it open for the next request to its host
+     * if it can be used again
+     *
+     * @param connection the connection
+     * @param reusable   whether the last response was read completely and the
+     *                   server did not ask to close the connection
+     */
+    void release(Connection connection, boolean reusable) {
+        long now = System.nanoTime();
+        synchronized (this) {
+            if (reusable && !connection.socket.isClosed()) {
+                ArrayDeque<Connection> connections = idle.get(connection.key);
+                if (connections == null) {
+                    connections = new ArrayDeque<>();
+                    idle.put(connection.key, connections);
+                }
+                if (connections.size() < idlePerHost) {
+                    connection.idleSince = now;
+                    connections.addFirst(connection);
+                    connection = null;
+                }
+            }
+
+            // hosts that are no longer crawled would otherwise keep their connections
+            if (now - swept > timeout / 2) {
+                swept = now;
+                Iterator<ArrayDeque<Connection>> hosts = idle.values().iterator();
+                while (hosts.hasNext()) {
+                    ArrayDeque<Connection> connections = hosts.next();
+                    expire(connections, now);
+                    if (connections.isEmpty()) {
+                        hosts.remove();
+                    }
+                }
+            }
+        }
+        if (connection != null) {
+            close(connection);
+        }
+    }
+
+    /**
+     * Closes the connections of a host that have been idle too long. Must hold
+     * the lock.
+     *
+     * @param connections the idle connections of the host, most recently used
+     *                    first
+     * @param now         the current time, in nanoseconds
+     */
+    private void expire(ArrayDeque<Connection> connections, long now) {
+        while (!connections.isEmpty() && now - connections.peekLast().idleSince > timeout) {
+            evicted.increment();
+            close(connections.pollLast());
+        }
+    }
+
+    /**
+     * Closes every idle connection
+     */
+    @Override
+    public synchronized void close() {
+        for (ArrayDeque<Connection> connections : idle.values()) {
+            for (Connection connection : connections) {
+                evicted.increment();
+                close(connection);
+            }
+        }
+        idle.clear();
+    }
+
+    /**
+     * Closes a connection, ignoring any error
+     *
+     * @param connection the connection
+     */
+    private static void close(Connection connection) {
+        try {
+            connection.socket.close();
+        } catch (IOException e) {
+            // nothing more to do with a broken connection
+        }
+    }
+
+    /**
+     * Returns the number of connections opened
+     *
+     * @return the number of connections
+     */
+    public long opened() {
+        return opened.sum();
+    }
+
+    /**
+     * Returns the number of times an idle connection was used again
+     *
+     * @return the number of reuses
+     */
+    public long reused() {
+        return reused.sum();
+    }
+
+    /**
+     * Returns the number of idle connections closed
+     *
+     * @return the number of connections
+     */
+    public long evicted() {
+        return evicted.sum();
+    }
+
+    /**
+     * Returns the number of idle connections
+     *
+     * @return the number of connections
+     */
+    public synchronized int size() {
+        int size = 0;
+        for (ArrayDeque<Connection> connections : idle.values()) {
+            size += connections.size();
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Connection pool: %d opened, %d reused, %d evicted, %d idle", opened(), reused(),
+                evicted(), size());
+    }
+
+    /**
+     * Returns the host of a url, including its protocol and port
+     *
+     * @param url the url
+     * @return the host
+     */
+    private static String key(URL url) {
+        int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+        return url.getProtocol().toLowerCase() + "://" + url.getHost().toLowerCase() + ":" + port;
+    }
+
+    /**
+     * An open connection to a host. Its input is buffered, so it must only be
+     * read through {@link #input()}.
+     */
+    static class Connection {
+
+        /** The host, including its protocol and port */
+        private final String key;
+
+        /** The socket */
+        private final Socket socket;
+
+        /** The buffered input of the socket */
+        private final InputStream input;
+
+        /** The number of requests sent before the current one */
+        private int uses;
+
+        /** When the connection was last given back, in nanoseconds */
+        private long idleSince;
+
+        /**
+         * Wraps a newly opened socket
+         *
+         * @param key    the host, including its protocol and port
+         * @param socket the socket
+         * @throws IOException if unable to get the input of the socket
+         */
+        private Connection(String key, Socket socket) throws IOException {
+            this.key = key;
+            this.socket = socket;
+            this.input = new BufferedInputStream(socket.getInputStream());
+            this.uses = 0;
+        }
+
+        /**
+         * Returns the buffered input of the connection
+         *
+         * @return the input
+         */
+        InputStream input() {
+            return input;
+        }
+
+        /**
+         * Returns the output of the connection
+         *
+         * @return the output
+         * @throws IOException if the socket is closed
+         */
+        OutputStream output() throws IOException {
+            return socket.getOutputStream();
+        }
+
+        /**
+         * Returns whether the connection was used for an earlier request, in which
+         * case the server may have closed it in the meantime
+         *
+         * @return {@code true} if the connection was reused
+         */
+        boolean isReused() {
+            return uses > 0;
+        }
+    }
+}
@@ -3,6 +3,7 @@ import java.io.PrintWriter;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Map;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -35,7 +36,7 @@ public class CounterServlet extends HttpServlet {
     private static Logger log = Log.getRootLogger();
 
     /** The thread-safe data structure to use for storing messages. */
-    private final ThreadedInvertedIndex index;
+    private final ThreadSafeInvertedIndex index;
 
     /**
      * Initializes this message board. Each message board has its own collection of
@@ -45,7 +46,7 @@ public class CounterServlet extends HttpServlet {
      * 
      * @throws IOException if unable to read template
      */
-    public CounterServlet(ThreadedInvertedIndex index) throws IOException {
+    public CounterServlet(ThreadSafeInvertedIndex index) throws IOException {
         super();
         this.index = index;
     }
@@ -74,8 +75,8 @@ public class CounterServlet extends HttpServlet {
         out.printf("</form>");
         out.printf("<h2>Index: </h2>%n");
         out.printf("<ul>%n");
-        for (String location : index.getCounter().keySet()) {
-            out.printf("<li><a href=%s>%s: %d</a></li>", location, location, index.getCounter().get(location));
+        for (Map.Entry<String, Integer> entry : index.getCounter().entrySet()) {
+            out.printf("<li><a href=%s>%s: %d</a></li>", entry.getKey(), entry.getKey(), entry.getValue());
         }
         out.printf("</ul>%n");
 
@@ -0,0 +1,535 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The links waiting to be crawled by a {@link WebCrawler}, scheduled politely
+ * per host. Every host has its own queue of links, ordered breadth first by
+ * their depth from the seed of their crawl. Hosts take turns, so a crawl across
+ * many hosts makes progress on all of them, and no host is sent more than a
+ * fixed number of requests at once or a new request sooner than a fixed delay
+ * after the last one started.
+ *
+ * Links are only handed to the work queue once their host may be sent a
+ * request, so the work queue never fills up with links to one slow host. The
+ * number of links kept in memory is bounded; further links are written to a
+ * temporary file and read back once the frontier has drained.
+ *
+ * @author stewartpowell
+ */
+public class CrawlFrontier {
+
+    /** The default number of requests sent to one host at once */
+    public static final int DEFAULT_CONNECTIONS = 4;
+
+    /** The default number of links kept in memory */
+    public static final int DEFAULT_MEMORY = 1 << 16;
+
+    /**
+     * Crawls one link handed out by the frontier
+     */
+    public interface Task {
+
+        /**
+         * Crawls the link, offering any links found to the frontier with a depth
+         * one greater
+         *
+         * @param job   the crawl the link belongs to
+         * @param link  the link to crawl
+         * @param depth the number of links followed from the seed
+         */
+        public void crawl(CrawlJob job, URL link, int depth);
+    }
+
+    /** The work queue running the tasks */
+    private final WorkQueue queue;
+
+    /** Crawls each link */
+    private final Task task;
+
+    /** The number of requests sent to one host at once */
+    private final int connections;
+
+    /** The time between the starts of two requests to one host, in nanoseconds */
+    private final long delay;
+
+    /** The greatest depth of a link that is crawled */
+    private final int depth;
+
+    /** The number of links kept in memory */
+    private final int memory;
+
+    /**
+     * The queue of each host with links waiting or being crawled, or whose delay
+     * since its last request has not passed yet
+     */
+    private final Map<String, Host> hosts;
+
+    /** The hosts that may be sent a request now, in turn */
+    private final ArrayDeque<Host> ready;
+
+    /** The number of links in memory */
+    private int size;
+
+    /** The number of links offered, to keep links of the same depth in order */
+    private long sequence;
+
+    /** Wakes hosts up once their delay has passed, created when first needed */
+    private ScheduledExecutorService timer;
+
+    /** The file holding the links that did not fit in memory */
+    private Path spill;
+
+    /** Appends links to the spill file */
+    private BufferedWriter spillWriter;
+
+    /** Reads links back from the spill file, in the order they were written */
+    private BufferedReader spillReader;
+
+    /** The number of links in the spill file that have not been read back */
+    private int spilled;
+
+    /** The crawls with links in the spill file, and how many */
+    private final Map<Integer, Spilled> spilledJobs;
+
+    /**
+     * Creates a frontier
+     *
+     * @param queue       the work queue to run the tasks
+     * @param task        crawls each link
+     * @param connections the number of requests sent to one host at once
+     * @param delay       the time between the starts of two requests to one
+     *                    host, in milliseconds
+     * @param depth       the greatest depth of a link that is crawled
+     * @param memory      the number of links kept in memory
+     */
+    public CrawlFrontier(WorkQueue queue, Task task, int connections, long delay, int depth, int memory) {
+        this.queue = queue;
+        this.task = task;
+        this.connections = Math.max(connections, 1);
+        this.delay = TimeUnit.MILLISECONDS.toNanos(Math.max(delay, 0));
+        this.depth = depth;
+        this.memory = Math.max(memory, 2);
+        this.hosts = new HashMap<>();
+        this.ready = new ArrayDeque<>();
+        this.size = 0;
+        this.sequence = 0;
+        this.spilled = 0;
+        this.spilledJobs = new HashMap<>();
+    }
+
+    /**
+     * Adds a link to be crawled if it is not too deep and its crawl accepts it
+     *
+     * @param job   the crawl the link belongs to
+     * @param link  the link to crawl
+     * @param depth the number of links followed from the seed
+     * @return {@code true} if the link will be crawled
+     * @see CrawlJob#offer(URL)
+     */
+    public boolean offer(CrawlJob job, URL link, int depth) {
+        if (depth > this.depth || !job.offer(link)) {
+            return false;
+        }
+        List<Runnable> started;
+        synchronized (this) {
+            Link waiting = new Link(job, link, depth, sequence++);
+            if (size < memory || !spill(waiting)) {
+                enqueue(waiting);
+            }
+            started = dispatch();
+        }
+        start(started);
+        return true;
+    }
+
+    /**
+     * Returns the number of links waiting, in memory or on disk
+     *
+     * @return the number of links
+     */
+    public synchronized int size() {
+        return size + spilled;
+    }
+
+    /**
+     * Returns the number of hosts with links waiting or being crawled, or still
+     * waiting for their delay since their last request
+     *
+     * @return the number of hosts
+     */
+    public synchronized int hosts() {
+        return hosts.size();
+    }
+
+    /**
+     * Adds a link to the queue of its host. Must hold the lock.
+     *
+     * @param link the link to add
+     */
+    private void enqueue(Link link) {
+        String key = key(link.url);
+        Host host = hosts.get(key);
+        if (host == null) {
+            host = new Host(key);
+            hosts.put(key, host);
+        }
+        host.links.add(link);
+        size++;
+        schedule(host);
+    }
+
+    /**
+     * Makes the host ready if it has links and may be sent a request, or wakes it
+     * up later if its delay has not passed. Must hold the lock.
+     *
+     * @param host the host
+     */
+    private void schedule(Host host) {
+        if (host.scheduled || host.links.isEmpty() || host.active >= connections) {
+            return;
+        }
+        host.scheduled = true;
+        long wait = host.next - System.nanoTime();
+        if (wait <= 0) {
+            ready.add(host);
+            return;
+        }
+
+        timer().schedule(() -> wake(host), wait, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Forgets a host with no links waiting or being crawled once its delay has
+     * passed, so a frontier shared by a long-running server does not keep every
+     * host it ever crawled. A host that still has to wait is checked again when
+     * its delay has passed, since a new link to it must still wait. Must hold the
+     * lock.
+     *
+     * @param host the host
+     */
+    private void forget(Host host) {
+        if (host.scheduled || host.active > 0 || !host.links.isEmpty() || hosts.get(host.key) != host) {
+            return;
+        }
+        long wait = host.next - System.nanoTime();
+        if (wait <= 0) {
+            hosts.remove(host.key);
+            return;
+        }
+        timer().schedule(() -> {
+            synchronized (this) {
+                forget(host);
+            }
+        }, wait, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the timer that wakes hosts up, creating it when first needed. Must
+     * hold the lock.
+     *
+     * @return the timer
+     */
+    private ScheduledExecutorService timer() {
+        if (timer == null) {
+            timer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "CrawlFrontier timer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return timer;
+    }
+
+    /**
+     * Makes a host whose delay has passed ready again
+     *
+     * @param host the host
+     */
+    private void wake(Host host) {
+        List<Runnable> started;
+        synchronized (this) {
+            host.scheduled = false;
+            schedule(host);
+            started = dispatch();
+        }
+        start(started);
+    }
+
+    /**
+     * Takes the next link of every ready host in turn, until no host is ready.
+     * Must hold the lock.
+     *
+     * @return the tasks to start, once the lock is released
+     */
+    private List<Runnable> dispatch() {
+        List<Runnable> started = new ArrayList<>();
+        if (size < memory / 2 && spilled > 0) {
+            reload(started);
+        }
+
+        Host host;
+        while ((host = ready.poll()) != null) {
+            host.scheduled = false;
+            Link link = host.links.poll();
+            size--;
+            if (link.job.isCancelled()) {
+                // no request is sent, so the host does not wait for it
+                started.add(link.job::finished);
+            } else {
+                Host from = host;
+                host.active++;
+                host.next = System.nanoTime() + delay;
+                started.add(() -> run(from, link));
+            }
+            schedule(host);
+            forget(host);
+
+            if (size < memory / 2 && spilled > 0) {
+                reload(started);
+            }
+        }
+        return started;
+    }
+
+    /**
+     * Crawls a link, then lets its host be sent another request
+     *
+     * @param host the host of the link
+     * @param link the link
+     */
+    private void run(Host host, Link link) {
+        synchronized (this) {
+            // the task may have waited in the work queue since it was dispatched
+            host.next = Math.max(host.next, System.nanoTime() + delay);
+        }
+        try {
+            task.crawl(link.job, link.url, link.depth);
+        } finally {
+            List<Runnable> started;
+            synchronized (this) {
+                host.active--;
+                schedule(host);
+                forget(host);
+                started = dispatch();
+            }
+            link.job.finished();
+            start(started);
+        }
+    }
+
+    /**
+     * Adds the tasks to the work queue
+     *
+     * @param started the tasks
+     */
+    private void start(List<Runnable> started) {
+        for (Runnable r : started) {
+            queue.execute(r);
+        }
+    }
+
+    /**
+     * Writes a link to the spill file. Must hold the lock.
+     *
+     * @param link the link
+     * @return {@code true} if the link was written, or {@code false} if it has to
+     *         be kept in memory
+     */
+    private boolean spill(Link link) {
+        try {
+            if (spill == null) {
+                spill = Files.createTempFile("frontier", ".txt");
+                spill.toFile().deleteOnExit();
+                spillWriter = Files.newBufferedWriter(spill, StandardCharsets.UTF_8);
+                spillReader = Files.newBufferedReader(spill, StandardCharsets.UTF_8);
+            }
+            spillWriter.write(link.job.getId() + "\t" + link.depth + "\t" + link.url + "\n");
+        } catch (IOException e) {
+            System.out.println("Unable to write the crawl frontier to disk.");
+            return false;
+        }
+
+        Spilled count = spilledJobs.get(link.job.getId());
+        if (count == null) {
+            count = new Spilled(link.job);
+            spilledJobs.put(link.job.getId(), count);
+        }
+        count.links++;
+        spilled++;
+        return true;
+    }
+
+    /**
+     * Reads links back from the spill file until half of the memory is used.
+     * Must hold the lock.
+     *
+     * @param started the tasks to start, for crawls that can no longer be read
+     */
+    private void reload(List<Runnable> started) {
+        try {
+            spillWriter.flush();
+            while (size < memory / 2 && spilled > 0) {
+                String[] fields = spillReader.readLine().split("\t", 3);
+                Spilled count = spilledJobs.get(Integer.parseInt(fields[0]));
+                spilled--;
+                if (--count.links == 0) {
+                    spilledJobs.remove(count.job.getId());
+                }
+                enqueue(new Link(count.job, new URL(fields[2]), Integer.parseInt(fields[1]), sequence++));
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Unable to read the crawl frontier from disk.");
+            // the links are lost, so their crawls must not wait for them
+            for (Spilled count : spilledJobs.values()) {
+                for (int i = 0; i < count.links; i++) {
+                    started.add(count.job::finished);
+                }
+            }
+            spilledJobs.clear();
+            spilled = 0;
+        }
+
+        if (spilled == 0) {
+            closeSpill();
+        }
+    }
+
+    /**
+     * Closes and deletes the spill file. Must hold the lock.
+     */
+    private void closeSpill() {
+        try {
+            spillWriter.close();
+            spillReader.close();
+            Files.deleteIfExists(spill);
+        } catch (IOException e) {
+            System.out.println("Unable to delete the crawl frontier from disk: " + spill);
+        }
+        spill = null;
+        spillWriter = null;
+        spillReader = null;
+    }
+
+    /**
+     * Returns the host of a link, including its protocol and port
+     *
+     * @param url the link
+     * @return the host
+     */
+    private static String key(URL url) {
+        int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+        return url.getProtocol() + "://" + url.getHost().toLowerCase() + ":" + port;
+    }
+
+    /**
+     * A link waiting to be crawled, ordered by depth and then by when it was
+     * offered
+     */
+    private static class Link implements Comparable<Link> {
+
+        /** The crawl the link belongs to */
+        private final CrawlJob job;
+
+        /** The link */
+        private final URL url;
+
+        /** The number of links followed from the seed */
+        private final int depth;
+
+        /** When the link was offered */
+        private final long sequence;
+
+        /**
+         * Creates a link
+         *
+         * @param job      the crawl the link belongs to
+         * @param url      the link
+         * @param depth    the number of links followed from the seed
+         * @param sequence when the link was offered
+         */
+        private Link(CrawlJob job, URL url, int depth, long sequence) {
+            this.job = job;
+            this.url = url;
+            this.depth = depth;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Link other) {
+            if (depth != other.depth) {
+                return Integer.compare(depth, other.depth);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * The links of one host and the requests being sent to it
+     */
+    private static class Host {
+
+        /** The host, including its protocol and port */
+        private final String key;
+
+        /** The links waiting, shallowest first */
+        private final PriorityQueue<Link> links;
+
+        /** The number of requests being sent */
+        private int active;
+
+        /** The earliest time the next request may start, in nanoseconds */
+        private long next;
+
+        /** Whether the host is ready or waiting for its delay to pass */
+        private boolean scheduled;
+
+        /**
+         * Creates a host with no links
+         *
+         * @param key the host, including its protocol and port
+         */
+        private Host(String key) {
+            this.key = key;
+            this.links = new PriorityQueue<>();
+            this.active = 0;
+            this.next = System.nanoTime();
+            this.scheduled = false;
+        }
+    }
+
+    /**
+     * The number of links of one crawl in the spill file
+     */
+    private static class Spilled {
+
+        /** The crawl */
+        private final CrawlJob job;
+
+        /** The number of links */
+        private int links;
+
+        /**
+         * Creates a count of zero
+         *
+         * @param job the crawl
+         */
+        private Spilled(CrawlJob job) {
+            this.job = job;
+            this.links = 0;
+        }
+    }
+}
@@ -0,0 +1,316 @@
+import java.net.URL;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.text.StringEscapeUtils;
+
+/**
+ * One crawl started by a {@link WebCrawler}, running in the background on the
+ * crawler's work queue. Tracks the progress of the crawl while it runs, so it
+ * can be reported or cancelled without waiting for it.
+ *
+ * Each page is added to the index as soon as it is fetched, so pages become
+ * searchable while the crawl is still running.
+ *
+ * @author stewartpowell
+ */
+public class CrawlJob {
+
+    /** The id of the job, unique within its crawler */
+    private final int id;
+
+    /** The URL the crawl started from */
+    private final URL seed;
+
+    /** The maximum number of pages to crawl */
+    private final int limit;
+
+    /**
+     * The fingerprints of the canonical links found by this crawl, which is every
+     * page queued, or {@code null} once the crawl is done. Guarded by this job.
+     */
+    private FingerprintSet links;
+
+    /** The number of pages queued, kept after the links are released */
+    private int queued;
+
+    /** The number of pages fetched and added to the index */
+    private final AtomicInteger fetched;
+
+    /** The number of pages that could not be fetched or were not HTML */
+    private final AtomicInteger failed;
+
+    /** The number of pages queued that have not finished */
+    private final AtomicInteger pending;
+
+    /** The number of bytes of HTML fetched */
+    private final AtomicLong bytes;
+
+    /** The time the crawl started, in nanoseconds */
+    private final long start;
+
+    /** The time the crawl finished, in nanoseconds */
+    private volatile long end;
+
+    /** Whether the crawl was cancelled */
+    private volatile boolean cancelled;
+
+    /** Completed when every page queued has finished */
+    private final CompletableFuture<CrawlJob> done;
+
+    /**
+     * Creates a job that has not queued any pages. The job counts as one pending
+     * page until {@link #finished()} is called once the seed has been queued, so
+     * it cannot finish before it starts.
+     *
+     * @param id    the id of the job
+     * @param seed  the URL the crawl starts from
+     * @param limit the maximum number of pages to crawl
+     */
+    CrawlJob(int id, URL seed, int limit) {
+        this.id = id;
+        this.seed = seed;
+        this.limit = limit;
+        this.links = new FingerprintSet();
+        this.queued = 0;
+        this.fetched = new AtomicInteger();
+        this.failed = new AtomicInteger();
+        this.pending = new AtomicInteger(1);
+        this.bytes = new AtomicLong();
+        this.start = System.nanoTime();
+        this.cancelled = false;
+        this.done = new CompletableFuture<>();
+    }
+
+    /**
+     * Adds a link to the crawl if it is new, the limit has not been reached, and
+     * the crawl has not been cancelled. The link must then be queued, and
+     * {@link #finished()} called once it has run.
+     *
+     * Links are compared by the fingerprint of their text, without resolving
+     * their hosts, so the link should already be canonical.
+     *
+     * @param link the link to add
+     * @see LinkParser#canonicalize(URL)
+     * @return {@code true} if the link should be crawled
+     */
+    boolean offer(URL link) {
+        long fingerprint = FingerprintSet.fingerprint(link.toString());
+        synchronized (this) {
+            if (cancelled || links == null || queued >= limit || !links.add(fingerprint)) {
+                return false;
+            }
+            queued++;
+        }
+        pending.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Records a page that was fetched and added to the index
+     *
+     * @param length the number of bytes of HTML fetched
+     */
+    void fetched(long length) {
+        fetched.incrementAndGet();
+        bytes.addAndGet(length);
+    }
+
+    /**
+     * Records a page that could not be fetched
+     */
+    void failed() {
+        failed.incrementAndGet();
+    }
+
+    /**
+     * Records that a page queued by {@link #offer(URL)} has finished, completing
+     * the job if it was the last one. The links of a completed job are released,
+     * since only its counts are reported afterwards.
+     */
+    void finished() {
+        if (pending.decrementAndGet() == 0) {
+            synchronized (this) {
+                links = null;
+            }
+            end = System.nanoTime();
+            done.complete(this);
+        }
+    }
+
+    /**
+     * Cancels the crawl. Pages already being fetched are still added to the
+     * index, but no more pages are started.
+     */
+    public void cancel() {
+        synchronized (this) {
+            cancelled = true;
+        }
+    }
+
+    /**
+     * Waits for the crawl to finish
+     *
+     * @return this job
+     */
+    public CrawlJob await() {
+        return done.join();
+    }
+
+    /**
+     * Returns a future completed with this job when the crawl finishes
+     *
+     * @return the future
+     */
+    public CompletableFuture<CrawlJob> getFuture() {
+        return done.copy();
+    }
+
+    /**
+     * Returns the id of the job
+     *
+     * @return the id
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Returns the URL the crawl started from
+     *
+     * @return the seed URL
+     */
+    public URL getSeed() {
+        return seed;
+    }
+
+    /**
+     * Returns the number of pages fetched and added to the index
+     *
+     * @return the number of pages
+     */
+    public int getFetched() {
+        return fetched.get();
+    }
+
+    /**
+     * Returns the number of pages queued, including the seed
+     *
+     * @return the number of pages
+     */
+    public int getQueued() {
+        synchronized (this) {
+            return queued;
+        }
+    }
+
+    /**
+     * Returns the number of pages that could not be fetched or were not HTML
+     *
+     * @return the number of pages
+     */
+    public int getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Returns the number of pages queued that have not finished
+     *
+     * @return the number of pages
+     */
+    public int getPending() {
+        return pending.get();
+    }
+
+    /**
+     * Returns the number of bytes of HTML fetched
+     *
+     * @return the number of bytes
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * Returns whether every page queued has finished
+     *
+     * @return {@code true} if the crawl is done
+     */
+    public boolean isDone() {
+        return done.isDone();
+    }
+
+    /**
+     * Returns whether the crawl finished before the given time
+     *
+     * @param time the time, in nanoseconds as returned by {@link System#nanoTime()}
+     * @return {@code true} if the crawl is done and finished before the time
+     */
+    boolean finishedBefore(long time) {
+        return isDone() && end - time < 0;
+    }
+
+    /**
+     * Returns whether the crawl was cancelled
+     *
+     * @return {@code true} if the crawl was cancelled
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Returns the state of the crawl
+     *
+     * @return "running", "cancelling", "cancelled" or "done"
+     */
+    public String getState() {
+        if (isDone()) {
+            return cancelled ? "cancelled" : "done";
+        }
+        return cancelled ? "cancelling" : "running";
+    }
+
+    /**
+     * Returns the number of seconds the crawl has been running, or ran for if it
+     * is done
+     *
+     * @return the number of seconds
+     */
+    public double getSeconds() {
+        long until = isDone() ? end : System.nanoTime();
+        return (until - start) / 1e9;
+    }
+
+    /**
+     * Returns the number of pages fetched per second
+     *
+     * @return the number of pages per second
+     */
+    public double getPagesPerSecond() {
+        double seconds = getSeconds();
+        return seconds > 0 ? getFetched() / seconds : 0;
+    }
+
+    /**
+     * Returns the progress of the crawl as a JSON object
+     *
+     * @return the JSON object
+     */
+    public String toJson() {
+        return String.format(Locale.ROOT,
+                "{\"id\": %d, \"seed\": \"%s\", \"state\": \"%s\", \"fetched\": %d, \"queued\": %d, "
+                        + "\"failed\": %d, \"pending\": %d, \"bytes\": %d, \"seconds\": %.3f, "
+                        + "\"pagesPerSecond\": %.2f}",
+                id, StringEscapeUtils.escapeJson(seed.toString()), getState(), getFetched(), getQueued(), getFailed(),
+                getPending(), getBytes(), getSeconds(), getPagesPerSecond());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Crawl %d of %s: %s, %d fetched, %d queued, %d failed, %d bytes, %.2f pages/sec", id, seed,
+                getState(), getFetched(), getQueued(), getFailed(), getBytes(), getPagesPerSecond());
+    }
+}
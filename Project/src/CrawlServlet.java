@@ -0,0 +1,103 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/**
+ * The servlet reporting the progress of the crawls started by a
+ * {@link WebCrawler}, as JSON. A GET request lists every crawl, or only the
+ * crawl with the "id" parameter. A POST request cancels the crawl with the "id"
+ * parameter.
+ *
+ * @author stewartpowell
+ */
+public class CrawlServlet extends HttpServlet {
+
+    /** Class version for serialization, in [YEAR][TERM] format (unused). */
+    private static final long serialVersionUID = 202020;
+
+    /** The logger to use for this servlet. */
+    private static Logger log = Log.getRootLogger();
+
+    /** The crawler whose crawls are reported */
+    private final WebCrawler webCrawler;
+
+    /**
+     * Initializes the servlet
+     * 
+     * @param webCrawler the crawler whose crawls are reported
+     */
+    public CrawlServlet(WebCrawler webCrawler) {
+        super();
+        this.webCrawler = webCrawler;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        response.setContentType("application/json");
+        log.info("CrawlServlet ID " + this.hashCode() + " handling GET request.");
+
+        if (request.getParameter("id") != null) {
+            CrawlJob job = getJob(request, response);
+            if (job != null) {
+                response.getWriter().printf("%s%n", job.toJson());
+                response.setStatus(HttpServletResponse.SC_OK);
+            }
+            return;
+        }
+
+        PrintWriter out = response.getWriter();
+        out.printf("[");
+        String separator = "";
+        for (CrawlJob job : webCrawler.getJobs()) {
+            out.printf("%s%n  %s", separator, job.toJson());
+            separator = ",";
+        }
+        out.printf("%n]%n");
+        response.setStatus(HttpServletResponse.SC_OK);
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        response.setContentType("application/json");
+        log.info("CrawlServlet ID " + this.hashCode() + " handling POST request.");
+
+        CrawlJob job = getJob(request, response);
+        if (job != null) {
+            job.cancel();
+            response.getWriter().printf("%s%n", job.toJson());
+            response.setStatus(HttpServletResponse.SC_OK);
+        }
+    }
+
+    /**
+     * Returns the crawl with the id given by the "id" parameter, sending an error
+     * if there is none
+     * 
+     * @param request  the request
+     * @param response the response to send an error to
+     * @return the crawl, or {@code null} if an error was sent
+     * @throws IOException if unable to send the error
+     */
+    private CrawlJob getJob(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        CrawlJob job;
+        try {
+            job = webCrawler.getJob(Integer.parseInt(request.getParameter("id")));
+        } catch (NumberFormatException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return null;
+        }
+        if (job == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+        }
+        return job;
+    }
+}
@@ -0,0 +1,154 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Assigns each location (file path or URL) of an {@link InvertedIndex} a dense
+ * integer id, so postings can be keyed by id instead of repeating the full
+ * location string. Also tracks the number of words found in each document.
+ *
+ * The table is append-only: ids are never reused and a location never changes
+ * once assigned. Only one thread may add locations at a time, so
+ * {@link #add(String)} must be synchronized externally, but any number of
+ * threads may read the table while it is being changed without any lock. A
+ * reader sees every document counted by {@link #size()}, and every document
+ * whose id it found in postings that were added after the document.
+ *
+ * The word counts are kept in fixed-size chunks that are never copied, and are
+ * changed atomically, so any number of threads may call
+ * {@link #addLength(int, int)} at once without a lock, even while another
+ * thread adds a location.
+ *
+ * @author stewartpowell
+ */
+public class DocumentTable {
+
+    /** The number of bits addressing a word count within its chunk */
+    private static final int CHUNK_BITS = 10;
+
+    /** The mask selecting the position of a word count within its chunk */
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+    /** The id assigned to each location */
+    private final Map<String, Integer> ids;
+
+    /** The location of each id, replaced by a larger copy when full */
+    private volatile String[] locations;
+
+    /**
+     * The chunks of the number of words in each document. Only the array of
+     * chunks is replaced by a larger copy, so no count is lost by a copy.
+     */
+    private volatile AtomicIntegerArray[] lengths;
+
+    /** The number of ids assigned so far, published after each new location */
+    private volatile int size;
+
+    /**
+     * Instantiates an empty DocumentTable
+     */
+    public DocumentTable() {
+        this.ids = new ConcurrentHashMap<String, Integer>();
+        this.locations = new String[16];
+        this.lengths = new AtomicIntegerArray[] { new AtomicIntegerArray(1 << CHUNK_BITS) };
+        this.size = 0;
+    }
+
+    /**
+     * Returns the id of the location, assigning the next id if the location has
+     * not been seen before
+     *
+     * @param location the location to add
+     * @return the id of the location
+     */
+    public int add(String location) {
+        Integer id = ids.get(location);
+        if (id == null) {
+            id = size;
+            if (id == locations.length) {
+                // readers keep using the old array until the copy is published
+                locations = Arrays.copyOf(locations, id + (id >> 1));
+            }
+            if ((id >>> CHUNK_BITS) == lengths.length) {
+                AtomicIntegerArray[] chunks = Arrays.copyOf(lengths, lengths.length + 1);
+                chunks[lengths.length] = new AtomicIntegerArray(1 << CHUNK_BITS);
+                lengths = chunks;
+            }
+            locations[id] = location;
+            size = id + 1;
+            ids.put(location, id);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the id of the location
+     *
+     * @param location the location to look up
+     * @return the id of the location, or -1 if it has not been added
+     */
+    public int getId(String location) {
+        Integer id = ids.get(location);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * Returns the location of the id
+     *
+     * @param id the id to look up
+     * @return the location
+     */
+    public String getLocation(int id) {
+        return locations[id];
+    }
+
+    /**
+     * Returns the number of words in the document
+     *
+     * @param id the id of the document
+     * @return the number of words
+     */
+    public int getLength(int id) {
+        return lengths[id >>> CHUNK_BITS].get(id & CHUNK_MASK);
+    }
+
+    /**
+     * Adds to the number of words in the document
+     *
+     * @param id     the id of the document
+     * @param amount the number of words to add
+     */
+    public void addLength(int id, int amount) {
+        lengths[id >>> CHUNK_BITS].addAndGet(id & CHUNK_MASK, amount);
+    }
+
+    /**
+     * Returns the number of ids assigned so far
+     *
+     * @return int
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of words in each document that has at least one word,
+     * sorted by location
+     *
+     * @return a new map of location to word count
+     */
+    public TreeMap<String, Integer> getCounts() {
+        int size = this.size;
+        String[] locations = this.locations;
+        TreeMap<String, Integer> counts = new TreeMap<String, Integer>();
+        for (int id = 0; id < size; id++) {
+            int length = getLength(id);
+            if (length > 0) {
+                counts.put(locations[id], length);
+            }
+        }
+        return counts;
+    }
+}
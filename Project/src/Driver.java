@@ -58,8 +58,10 @@ public class Driver {
         WebCrawler crawler = null;
         String seed = null;
         int numThreads = 0;
+        boolean mapped = false;
 
-        if (parser.hasFlag("-threads") || parser.hasFlag("-url") || parser.hasFlag("-port")) {
+        if (parser.hasFlag("-threads") || parser.hasFlag("-url") || parser.hasFlag("-port")
+                || parser.hasFlag("-shards") || parser.hasFlag("-virtual") || parser.hasFlag("-map")) {
             try {
                 numThreads = Integer.parseInt(parser.getString("-threads", "5"));
                 if (numThreads <= 0) {
@@ -68,12 +70,94 @@ public class Driver {
             } catch (NumberFormatException e) {
                 numThreads = 5;
             }
-            ThreadedInvertedIndex threadSafe = new ThreadedInvertedIndex();
+            ThreadSafeInvertedIndex threadSafe = null;
+            if (parser.hasFlag("-map")) {
+                Path map = parser.getPath("-map");
+                if (map != null) {
+                    try {
+                        threadSafe = new MappedInvertedIndex(map);
+                    } catch (IOException e) {
+                        System.out.println("Unable to map the index from: " + map);
+                    }
+                } else {
+                    System.out.println("Error: Forgot a value for -map");
+                }
+            }
+            // a mapped index is read-only, so it is only searched and served
+            if (threadSafe != null) {
+                mapped = true;
+                for (String flag : new String[] { "-load", "-path", "-url" }) {
+                    if (parser.hasFlag(flag)) {
+                        System.out.println("Error: Cannot use " + flag + " with -map, the mapped index is read-only");
+                    }
+                }
+            }
+            if (threadSafe == null && parser.hasFlag("-shards")) {
+                int shards;
+                try {
+                    shards = Integer.parseInt(parser.getString("-shards", "16"));
+                    if (shards <= 0) {
+                        shards = ConcurrentInvertedIndex.DEFAULT;
+                    }
+                } catch (NumberFormatException e) {
+                    shards = ConcurrentInvertedIndex.DEFAULT;
+                }
+                threadSafe = new ConcurrentInvertedIndex(shards);
+            } else if (threadSafe == null) {
+                threadSafe = new ThreadedInvertedIndex();
+            }
             index = threadSafe;
-            queue = new WorkQueue(numThreads);
+            if (parser.hasFlag("-virtual") && WorkQueue.supportsVirtualThreads()) {
+                int concurrency;
+                try {
+                    concurrency = Integer.parseInt(parser.getString("-virtual", "1000"));
+                    if (concurrency <= 0) {
+                        concurrency = WorkQueue.VIRTUAL_DEFAULT;
+                    }
+                } catch (NumberFormatException e) {
+                    concurrency = WorkQueue.VIRTUAL_DEFAULT;
+                }
+                queue = WorkQueue.virtual(concurrency);
+            } else {
+                if (parser.hasFlag("-virtual")) {
+                    System.out.println("Virtual threads are not supported, using " + numThreads + " threads.");
+                }
+                queue = new WorkQueue(numThreads);
+            }
             indexHandler = new ThreadedIndexHandler(threadSafe, queue);
             queryHandler = new ThreadedQueryHandler(threadSafe, queue);
-            if (parser.hasFlag("-url")) {
+            if (!mapped) {
+                loadIndex(parser, index);
+            }
+            // the crawls of -url and of /build are both polite to each host
+            int connections;
+            try {
+                connections = Integer.parseInt(parser.getString("-perhost", "4"));
+                if (connections <= 0) {
+                    connections = CrawlFrontier.DEFAULT_CONNECTIONS;
+                }
+            } catch (NumberFormatException e) {
+                connections = CrawlFrontier.DEFAULT_CONNECTIONS;
+            }
+            long delay;
+            try {
+                delay = Long.parseLong(parser.getString("-delay", "0"));
+                if (delay < 0) {
+                    delay = 0;
+                }
+            } catch (NumberFormatException e) {
+                delay = 0;
+            }
+            int depth;
+            try {
+                depth = Integer.parseInt(parser.getString("-depth", String.valueOf(Integer.MAX_VALUE)));
+                if (depth < 0) {
+                    depth = Integer.MAX_VALUE;
+                }
+            } catch (NumberFormatException e) {
+                depth = Integer.MAX_VALUE;
+            }
+            if (parser.hasFlag("-url") && !mapped) {
                 if (parser.hasFlag("-limit")) {
                     try {
                         limit = Integer.parseInt(parser.getString("-limit", "50"));
@@ -85,7 +169,7 @@ public class Driver {
                     }
                 }
                 seed = parser.getString("-url");
-                crawler = new WebCrawler(threadSafe, queue, limit);
+                crawler = new WebCrawler(threadSafe, queue, limit, connections, delay, depth);
                 crawler.crawlWeb(seed);
 
             }
@@ -99,6 +183,8 @@ public class Driver {
                 } catch (NumberFormatException e) {
                     port = 8080;
                 }
+                // the server runs until shutdown, so save what was crawled first
+                saveIndex(parser, index);
                 Server server = new Server();
 
                 ServerConnector connector = new ServerConnector(server);
@@ -118,10 +204,18 @@ public class Driver {
                 // all other requests should be handled by the gallery servlet
                 ServletContextHandler servletContext = new ServletContextHandler();
                 servletContext.setContextPath("/");
-                servletContext.addServlet(new ServletHolder(new HomeServlet()), "/home");
-                servletContext.addServlet(new ServletHolder(new BuildServlet(threadSafe, queue, 50)), "/build");
-                servletContext.addServlet(new ServletHolder(new SearchServlet((ThreadedQueryHandler) queryHandler)),
-                        "/search");
+                servletContext.addServlet(new ServletHolder(new HomeServlet(!mapped)), "/home");
+                // crawls started from the web run in the background and report to /crawl,
+                // and are not offered for a mapped index, which is read-only
+                if (!mapped) {
+                    WebCrawler builder = new WebCrawler(threadSafe, queue, 50, connections, delay, depth);
+                    servletContext.addServlet(new ServletHolder(new BuildServlet(threadSafe, builder)), "/build");
+                    servletContext.addServlet(new ServletHolder(new CrawlServlet(builder)), "/crawl");
+                }
+                // searches finish on the work queue, so the servlet answers asynchronously
+                ServletHolder search = new ServletHolder(new SearchServlet(queryHandler));
+                search.setAsyncSupported(true);
+                servletContext.addServlet(search, "/search");
                 servletContext.addServlet(new ServletHolder(new IndexServlet(threadSafe)), "/index");
                 servletContext.addServlet(new ServletHolder(new CounterServlet(threadSafe)), "/counter");
                 servletContext.addServlet(new ServletHolder(new ShutdownServlet(server)), "/shutdown");
@@ -147,9 +241,10 @@ public class Driver {
             index = new InvertedIndex();
             indexHandler = new IndexHandler(index);
             queryHandler = new QueryHandler(index);
+            loadIndex(parser, index);
         }
 
-        if (parser.hasFlag("-path")) {
+        if (parser.hasFlag("-path") && !mapped) {
             Path path = parser.getPath("-path");
             if (path != null) {
                 try {
@@ -162,6 +257,8 @@ public class Driver {
             }
         }
 
+        saveIndex(parser, index);
+
         if (parser.hasFlag("-counts")) {
             Path counts = parser.getPath("-counts", Path.of("counts.json"));
             try {
@@ -193,10 +290,18 @@ public class Driver {
             }
         }
 
+        if (parser.hasFlag("-stemstats")) {
+            System.out.println(StemCache.SHARED);
+        }
+
+        if (parser.hasFlag("-cachestats") && queryHandler instanceof ThreadedQueryHandler) {
+            System.out.println(((ThreadedQueryHandler) queryHandler).getCache());
+        }
+
         if (parser.hasFlag("-index")) {
             Path output = parser.getPath("-index", Path.of("index.json"));
             try {
-                index.getIndex(output);
+                index.getIndex(output, !parser.hasFlag("-compact"));
             } catch (IOException e) {
                 System.out.println("Error retrieving Json form of the Index.");
             }
@@ -212,4 +317,42 @@ public class Driver {
         double seconds = (double) elapsed.toMillis() / Duration.ofSeconds(1).toMillis();
         System.out.printf("Elapsed: %f seconds%n", seconds);
     }
+
+    /**
+     * Loads a binary index segment into the index if the -load flag is provided
+     *
+     * @param parser the parsed command-line arguments
+     * @param index  the index to load into
+     */
+    private static void loadIndex(ArgumentParser parser, InvertedIndex index) {
+        if (parser.hasFlag("-load")) {
+            Path load = parser.getPath("-load");
+            if (load != null) {
+                try {
+                    index.load(load);
+                } catch (IOException e) {
+                    System.out.println("Unable to load the index from: " + load);
+                }
+            } else {
+                System.out.println("Error: Forgot a value for -load");
+            }
+        }
+    }
+
+    /**
+     * Saves the index as a binary index segment if the -save flag is provided
+     *
+     * @param parser the parsed command-line arguments
+     * @param index  the index to save
+     */
+    private static void saveIndex(ArgumentParser parser, InvertedIndex index) {
+        if (parser.hasFlag("-save")) {
+            Path save = parser.getPath("-save", Path.of("index.seg"));
+            try {
+                index.save(save);
+            } catch (IOException e) {
+                System.out.println("Unable to save the index to: " + save);
+            }
+        }
+    }
 }
@@ -0,0 +1,82 @@
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A response fetched by
+ * {@link HttpsFetcher#fetchPage(java.net.URL, ConnectionPool, int)}: its
+ * status, its headers and its body decoded once into a single string using the
+ * charset given by its "Content-Type" header.
+ *
+ * @author stewartpowell
+ */
+public class FetchedPage {
+
+    /** The HTTP status code, or -1 if the status line could not be parsed */
+    private final int status;
+
+    /** The header fields, with the status line under the {@code null} key */
+    private final Map<String, List<String>> headers;
+
+    /** The decoded body */
+    private final String content;
+
+    /** The number of bytes of the body before it was decoded */
+    private final int length;
+
+    /**
+     * Creates a fetched page
+     *
+     * @param status  the HTTP status code
+     * @param headers the header fields, with the status line under the
+     *                {@code null} key
+     * @param content the decoded body
+     * @param length  the number of bytes of the body before it was decoded
+     */
+    FetchedPage(int status, Map<String, List<String>> headers, String content, int length) {
+        this.status = status;
+        this.headers = headers;
+        this.content = content;
+        this.length = length;
+    }
+
+    /**
+     * Returns the HTTP status code
+     *
+     * @return the status code, or -1 if the status line could not be parsed
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * Returns the header fields, with the status line under the {@code null} key
+     *
+     * @return the header fields
+     */
+    public Map<String, List<String>> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Returns the decoded body
+     *
+     * @return the body
+     */
+    public CharSequence getContent() {
+        return content;
+    }
+
+    /**
+     * Returns the number of bytes of the body before it was decoded
+     *
+     * @return the number of bytes
+     */
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d: %d bytes", status, length);
+    }
+}
@@ -25,12 +25,26 @@ public class HomeServlet extends HttpServlet {
     /** The title to use for this webpage. */
     private static final String TITLE = "Home";
 
+    /** Whether the form to start a new crawl is shown */
+    private final boolean crawling;
+
     /**
      * Constructor for HomeServlet
      * 
      */
     public HomeServlet() {
+        this(true);
+    }
+
+    /**
+     * Constructor for HomeServlet
+     * 
+     * @param crawling whether to show the form to start a new crawl, which is
+     *                 hidden when the index is read-only and /build is not served
+     */
+    public HomeServlet(boolean crawling) {
         super();
+        this.crawling = crawling;
     }
 
     @Override
@@ -77,11 +91,13 @@ public class HomeServlet extends HttpServlet {
         out.printf("<input type=\"checkbox\" name=\"exact\" id=\"exact\" value=\"Exact\"/>");
         out.printf("<label for=\"Exact\">Exact</label>");
         out.printf("</form>%n");
-        out.printf("<form action=\"/build\" method=\"GET\">%n");
-        out.printf("<label for=\"build\">Add a new Crawl</label>");
-        out.printf("<br><input type=\"text\" name=\"url\" id=\"url\"/>");
-        out.printf("<input type=\"submit\" name=\"submit\" id=\"url\" value=\"Build\"/>");
-        out.printf("</form>%n");
+        if (crawling) {
+            out.printf("<form action=\"/build\" method=\"GET\">%n");
+            out.printf("<label for=\"build\">Add a new Crawl</label>");
+            out.printf("<br><input type=\"text\" name=\"url\" id=\"url\"/>");
+            out.printf("<input type=\"submit\" name=\"submit\" id=\"url\" value=\"Build\"/>");
+            out.printf("</form>%n");
+        }
 
         out.printf("</body>%n");
         out.printf("<footer>");
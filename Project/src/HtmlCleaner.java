@@ -7,31 +7,30 @@ public class HtmlCleaner {
      * Removes all HTML tags and certain block elements from the provided text. The
      * block elements removed include: head, style, script, noscript, and svg.
      *
+     * The text is cleaned in a single pass by {@link HtmlLexer}, with the same
+     * output as {@link #stripBlockElements(String)}, {@link #stripTags(String)}
+     * and {@link #stripEntities(String)} applied one after another.
+     *
      * @param html the HTML to strip tags and elements from
      * @return text clean of any HTML tags and certain block elements
      */
     public static String stripHtml(String html) {
-        html = stripBlockElements(html);
-        html = stripTags(html);
-        html = stripEntities(html);
-        return html;
+        return HtmlLexer.stripHtml(html);
     }
 
     /**
      * Removes comments and certain block elements from the provided html. The block
      * elements removed include: head, style, script, noscript, and svg.
      *
+     * The html is cleaned in a single pass by {@link HtmlLexer}, with the same
+     * output as {@link #stripComments(String)} and then
+     * {@link #stripElement(String, String)} for each element in turn.
+     *
      * @param html the HTML to strip comments and block elements from
      * @return text clean of any comments and certain HTML block elements
      */
     public static String stripBlockElements(String html) {
-        html = stripComments(html);
-        html = stripElement(html, "head");
-        html = stripElement(html, "style");
-        html = stripElement(html, "script");
-        html = stripElement(html, "noscript");
-        html = stripElement(html, "svg");
-        return html;
+        return HtmlLexer.stripBlockElements(html);
     }
 
     // THE FOLLOWING REPLACE WITH THE EMPTY STRING
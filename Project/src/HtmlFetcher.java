@@ -1,6 +1,4 @@
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
@@ -93,49 +91,59 @@ public class HtmlFetcher {
 
     /**
      * Fetches the resource at the URL using HTTP/1.1 and sockets. If the status
-     * code is 200 and the content type is HTML, returns the HTML as a single
-     * string. If the status code is a valid redirect, will follow that redirect if
-     * the number of redirects is greater than 0. Otherwise, returns {@code null}.
+     * code is 200 and the content type is HTML, returns the page with its HTML
+     * decoded as a single string. If the status code is a valid redirect, will
+     * follow that redirect if the number of redirects is greater than 0.
+     * Otherwise, returns {@code null}. Pages larger than
+     * {@link ResponseReader#DEFAULT_MAX} bytes are not fetched.
      *
      * @param url       the url to fetch
      * @param redirects the number of times to follow redirects
-     * @return the html or {@code null} if unable to fetch the resource or the
+     * @return the page or {@code null} if unable to fetch the resource or the
      *         resource is not html
      *
-     * @see HttpsFetcher#openConnection(URL)
-     * @see HttpsFetcher#printGetRequest(PrintWriter, URL)
-     * @see HttpsFetcher#getHeaderFields(BufferedReader)
-     * @see HttpsFetcher#getContent(BufferedReader)
-     *
-     * @see String#join(CharSequence, CharSequence...)
+     * @see HttpsFetcher#fetchPage(URL, ConnectionPool, int)
      *
      * @see #isHtml(Map)
      * @see #isRedirect(Map)
      */
-    public static String fetch(URL url, int redirects) {
-        Map<String, List<String>> map;
+    public static FetchedPage fetchPage(URL url, int redirects) {
+        FetchedPage page;
         try {
-            map = HttpsFetcher.fetchURL(url);
-            String joined = String.join("\n", map.get("Content"));
-            if (getStatusCode(map) >= 200 && getStatusCode(map) < 300) {
-                if (isHtml(map)) {
-                    return joined;
-                }
-            } else {
-                if (getStatusCode(map) >= 300 && getStatusCode(map) < 400 && redirects > 0) {
-                    List<URL> links = listLinks(joined);
-                    for (URL link : links) {
-                        return fetch(link, --redirects);
-                    }
-                }
-                return null;
-            }
+            page = HttpsFetcher.fetchPage(url, ConnectionPool.SHARED, ResponseReader.DEFAULT_MAX);
         } catch (IOException e) {
             return null;
         }
+        int status = page.getStatus();
+        if (status >= 200 && status < 300) {
+            if (isHtml(page.getHeaders())) {
+                return page;
+            }
+        } else if (status >= 300 && status < 400 && redirects > 0) {
+            List<URL> links = listLinks(page.getContent().toString());
+            for (URL link : links) {
+                return fetchPage(link, --redirects);
+            }
+        }
         return null;
     }
 
+    /**
+     * Fetches the resource at the URL like {@link #fetchPage(URL, int)}, returning
+     * just its HTML.
+     *
+     * @param url       the url to fetch
+     * @param redirects the number of times to follow redirects
+     * @return the html or {@code null} if unable to fetch the resource or the
+     *         resource is not html
+     *
+     * @see #fetchPage(URL, int)
+     */
+    public static String fetch(URL url, int redirects) {
+        FetchedPage page = fetchPage(url, redirects);
+        return page == null ? null : page.getContent().toString();
+    }
+
     /**
      * Converts the {@link String} url into a {@link URL} object and then calls
      * {@link #fetch(URL, int)}.
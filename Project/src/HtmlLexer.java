@@ -0,0 +1,578 @@
+import java.util.List;
+
+/**
+ * Cleans html into plain text in one left to right pass, with exactly the same
+ * output as chaining the regular expressions of {@link HtmlCleaner}: comments,
+ * then the head, style, script, noscript and svg elements, then tags and then
+ * entities.
+ *
+ * Each of those eight passes is a layer of a small state machine, and every
+ * character of the html flows through the layers in order. A layer either
+ * passes a character on to the next layer, swallows it because it is inside a
+ * comment, element, tag or entity, or replaces the whole comment or element
+ * with a single space once its end is found. The last layer writes to the
+ * output. So a comment inside a script is removed before the script sees it,
+ * exactly as if the comments were stripped first.
+ *
+ * A regular expression only removes a comment, element or tag if it is closed
+ * somewhere later in the text. If the html ends while a layer is still inside
+ * one, the lexer goes back to where it started, and reads on from there with
+ * that layer no longer opening anything new. The layer cannot match anything
+ * after that point either, since any later match would also have closed this
+ * one. Nothing has reached the later layers or the output since that layer
+ * started swallowing characters, so only the layer itself needs resetting.
+ * Every layer goes back at most once, so even adversarial pages take linear
+ * time, where the lazy regular expressions could take quadratic time.
+ *
+ * The lexer can also collect the href of every anchor tag, exactly like
+ * {@link LinkParser#listLinks(java.net.URL, String)} run on the html after its
+ * block elements are removed. This is one more layer, just before the tags
+ * layer, that watches the characters go by without changing them. When the
+ * tags layer goes back, the links layer ignores the characters it has already
+ * seen.
+ *
+ * @author stewartpowell
+ */
+public class HtmlLexer {
+
+    /** The elements removed, in the order {@link HtmlCleaner} removes them */
+    private static final String[] ELEMENTS = { "head", "style", "script", "noscript", "svg" };
+
+    /** The layer removing comments */
+    private static final int COMMENTS = 0;
+
+    /** The layer collecting links */
+    private static final int LINKS = COMMENTS + ELEMENTS.length + 1;
+
+    /** The layer removing tags */
+    private static final int TAGS = LINKS + 1;
+
+    /** The layer removing entities */
+    private static final int ENTITIES = TAGS + 1;
+
+    /** The number of layers */
+    private static final int LAYERS = ENTITIES + 1;
+
+    /** The number of ints of state kept by each layer */
+    private static final int STATE = 3;
+
+    /** The offset of whether the layer is inside a comment, element or tag */
+    private static final int INSIDE = 0;
+
+    /** The offset of the number of characters of the opening still to skip */
+    private static final int SKIP = 1;
+
+    /**
+     * The offset of the progress towards the closing, or for the entities layer,
+     * the output length where the current entity started, or -1
+     */
+    private static final int PROGRESS = 2;
+
+    /** The links layer is looking for an anchor tag */
+    private static final int ANCHOR = 0;
+
+    /** The links layer is at the 'a' of an anchor tag */
+    private static final int OPENED = 1;
+
+    /** The links layer is in the whitespace after the 'a' of an anchor tag */
+    private static final int SPACES = 2;
+
+    /** The links layer is in the rest of an anchor tag */
+    private static final int ATTRIBUTES = 3;
+
+    /** The html being cleaned */
+    private final CharSequence html;
+
+    /** The number of layers used */
+    private final int layers;
+
+    /** The cleaned text */
+    private final StringBuilder out;
+
+    /** The state of every layer */
+    private final int[] state;
+
+    /** The html index where each layer last started a comment, element or tag */
+    private final int[] openedAt;
+
+    /** The html index from where each layer no longer opens anything */
+    private final int[] disabledFrom;
+
+    /** The href of each anchor tag found, or {@code null} if not collected */
+    private final List<String> links;
+
+    /** Where the links layer is in an anchor tag */
+    private int linkState;
+
+    /** Whether the last character the links layer saw was whitespace */
+    private boolean afterSpace;
+
+    /** The html index of the last character the links layer saw */
+    private int linkIndex;
+
+    /** The href right after the whitespace following "&lt;a" */
+    private final Href first;
+
+    /** The first href after whitespace further into the anchor tag */
+    private final Href later;
+
+    /**
+     * Creates a lexer
+     *
+     * @param html   the html to clean
+     * @param layers the number of layers used
+     * @param links  the list to add the href of each anchor tag to, or
+     *               {@code null}
+     */
+    private HtmlLexer(CharSequence html, int layers, List<String> links) {
+        this.html = html;
+        this.layers = layers;
+        this.out = new StringBuilder(html.length());
+        this.state = new int[LAYERS * STATE];
+        this.openedAt = new int[LAYERS];
+        this.disabledFrom = new int[LAYERS];
+        this.links = links;
+        this.linkState = ANCHOR;
+        this.linkIndex = -1;
+        this.first = new Href(false);
+        this.later = new Href(true);
+        for (int layer = 0; layer < LAYERS; layer++) {
+            disabledFrom[layer] = Integer.MAX_VALUE;
+        }
+        state[ENTITIES * STATE + PROGRESS] = -1;
+    }
+
+    /**
+     * Removes all HTML tags, entities, comments and certain block elements from
+     * the provided text. The block elements removed include: head, style, script,
+     * noscript, and svg.
+     *
+     * @param html the HTML to strip
+     * @return text clean of any HTML
+     *
+     * @see HtmlCleaner#stripHtml(String)
+     */
+    public static String stripHtml(CharSequence html) {
+        return new HtmlLexer(html, LAYERS, null).run().toString();
+    }
+
+    /**
+     * Removes all HTML like {@link #stripHtml(CharSequence)}, while also adding
+     * the href of every anchor tag to the list, in the order found. The links
+     * are not resolved against the url of the page.
+     *
+     * @param html  the HTML to strip
+     * @param links the list to add the href of each anchor tag to
+     * @return text clean of any HTML, which is not copied into a string
+     */
+    public static CharSequence extract(CharSequence html, List<String> links) {
+        return new HtmlLexer(html, LAYERS, links).run();
+    }
+
+    /**
+     * Replaces comments and certain block elements with a single space. The block
+     * elements removed include: head, style, script, noscript, and svg.
+     *
+     * @param html the HTML to strip comments and block elements from
+     * @return text clean of any comments and certain HTML block elements
+     *
+     * @see HtmlCleaner#stripBlockElements(String)
+     */
+    public static String stripBlockElements(CharSequence html) {
+        return new HtmlLexer(html, LINKS, null).run().toString();
+    }
+
+    /**
+     * Feeds every character through the layers, going back whenever the html ends
+     * inside a comment, element or tag
+     *
+     * @return the cleaned text
+     */
+    private StringBuilder run() {
+        int index = 0;
+        int length = html.length();
+        while (true) {
+            for (; index < length; index++) {
+                feed(index);
+            }
+
+            // the innermost layer still inside started last, and has swallowed
+            // everything since, so only it needs undoing
+            int failed = -1;
+            for (int layer = 0; layer < Math.min(layers, ENTITIES); layer++) {
+                if (state[layer * STATE + INSIDE] != 0) {
+                    failed = layer;
+                    break;
+                }
+            }
+            if (failed < 0) {
+                if (linkState == ATTRIBUTES && first.state == Href.DONE) {
+                    links.add(first.value.toString());
+                }
+                return out;
+            }
+            state[failed * STATE + INSIDE] = 0;
+            index = openedAt[failed];
+            disabledFrom[failed] = index;
+        }
+    }
+
+    /**
+     * Feeds one character of the html through the layers
+     *
+     * @param index the index of the character
+     */
+    private void feed(int index) {
+        char c = html.charAt(index);
+        boolean original = true;
+
+        for (int layer = 0; layer < layers; layer++) {
+            int base = layer * STATE;
+
+            if (layer == ENTITIES) {
+                entity(c);
+                return;
+            }
+
+            if (layer == LINKS) {
+                if (links != null && index > linkIndex) {
+                    link(c, original, index);
+                }
+                continue;
+            }
+
+            if (state[base + INSIDE] != 0) {
+                if (state[base + SKIP] > 0) {
+                    state[base + SKIP]--;
+                    return;
+                }
+                if (!closes(layer, c)) {
+                    return;
+                }
+                state[base + INSIDE] = 0;
+                if (layer == TAGS) {
+                    return;
+                }
+                // the whole comment or element becomes a single space
+                c = ' ';
+                original = false;
+                continue;
+            }
+
+            if (original && c == '<' && index < disabledFrom[layer]) {
+                int skip = opens(layer, index);
+                if (skip >= 0) {
+                    openedAt[layer] = index;
+                    state[base + INSIDE] = 1;
+                    state[base + SKIP] = skip;
+                    state[base + PROGRESS] = 0;
+                    return;
+                }
+            }
+        }
+        out.append(c);
+    }
+
+    /**
+     * Returns whether a comment, element or tag starts at the index. Any
+     * characters reaching a layer right after a '&lt;' are the same as in the
+     * html, since only the layers before it remove anything and they only remove
+     * text starting with a '&lt;'.
+     *
+     * @param layer the layer
+     * @param index the index of a '&lt;' in the html
+     * @return the number of characters after the '&lt;' that are part of the
+     *         opening, or -1 if nothing starts at the index
+     */
+    private int opens(int layer, int index) {
+        if (layer == TAGS) {
+            return 0;
+        }
+        String name = layer == COMMENTS ? "!--" : ELEMENTS[layer - 1];
+        if (index + name.length() >= html.length()) {
+            return -1;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (lower(html.charAt(index + 1 + i)) != name.charAt(i)) {
+                return -1;
+            }
+        }
+        return name.length();
+    }
+
+    /**
+     * Advances a layer that is inside a comment, element or tag by one character
+     *
+     * @param layer the layer
+     * @param c     the character
+     * @return {@code true} if the character ends the comment, element or tag
+     */
+    private boolean closes(int layer, char c) {
+        int progress = layer * STATE + PROGRESS;
+
+        if (layer == TAGS) {
+            return c == '>';
+        }
+
+        if (layer == COMMENTS) {
+            // the number of dashes in a row, where two or more and then '>' closes
+            if (c == '-') {
+                state[progress]++;
+                return false;
+            }
+            boolean closed = c == '>' && state[progress] >= 2;
+            state[progress] = 0;
+            return closed;
+        }
+
+        // 0 is waiting for '/', then 1 more for each letter of the name matched,
+        // until the whole name is followed by any whitespace and then '>'
+        String name = ELEMENTS[layer - 1];
+        int matched = state[progress];
+        if (matched == name.length() + 1) {
+            if (c == '>') {
+                return true;
+            }
+            if (isWhitespace(c)) {
+                return false;
+            }
+            matched = 0;
+        } else if (matched > 0) {
+            if (lower(c) == name.charAt(matched - 1)) {
+                state[progress] = matched + 1;
+                return false;
+            }
+            matched = 0;
+        }
+        state[progress] = c == '/' ? 1 : 0;
+        return false;
+    }
+
+    /**
+     * Advances the links layer by one character. Like the regular expression of
+     * {@link LinkParser}, an anchor tag is "&lt;a" and whitespace, then an href:
+     * "href" after whitespace, any whitespace, '=', any whitespace and a double
+     * quoted value. The expression prefers an href further into the tag, and only
+     * uses the href right after the whitespace following "&lt;a" if there is no
+     * other. Any href but that first one must start before the next '&gt;'.
+     *
+     * @param c        the character
+     * @param original whether the character is from the html rather than a space
+     *                 replacing a comment or element
+     * @param index    the html index being read
+     */
+    private void link(char c, boolean original, int index) {
+        linkIndex = index;
+        boolean space = isWhitespace(c);
+
+        if (linkState == ANCHOR) {
+            // the characters after a '<' are the same as in the html, as in opens
+            if (original && c == '<' && index + 2 < html.length() && lower(html.charAt(index + 1)) == 'a'
+                    && isWhitespace(html.charAt(index + 2))) {
+                linkState = OPENED;
+            }
+        } else if (linkState == OPENED) {
+            linkState = SPACES;
+        } else if (linkState == SPACES) {
+            if (!space) {
+                linkState = ATTRIBUTES;
+                first.start(c);
+                later.start(c);
+                endAnchor(c);
+            }
+        } else {
+            first.step(c, afterSpace);
+            later.step(c, afterSpace);
+            endAnchor(c);
+        }
+        afterSpace = space;
+    }
+
+    /**
+     * Adds the href of the anchor tag once it is known which one the regular
+     * expression of {@link LinkParser} would match, if any
+     *
+     * @param c the character just read
+     */
+    private void endAnchor(char c) {
+        if (c == '>' && later.state != Href.VALUE && later.state != Href.DONE) {
+            later.state = Href.FAILED;
+        }
+
+        if (later.state == Href.DONE) {
+            links.add(later.value.toString());
+            linkState = ANCHOR;
+        } else if (later.state == Href.FAILED) {
+            if (first.state == Href.DONE) {
+                links.add(first.value.toString());
+                linkState = ANCHOR;
+            } else if (first.state != Href.VALUE) {
+                linkState = ANCHOR;
+            }
+        }
+    }
+
+    /**
+     * Writes one character through the entities layer. An entity is a '&amp;'
+     * followed by the fewest non-whitespace characters up to a ';', and is
+     * removed once the ';' is found.
+     *
+     * @param c the character
+     */
+    private void entity(char c) {
+        int start = ENTITIES * STATE + PROGRESS;
+        if (state[start] >= 0) {
+            if (c == ';') {
+                out.setLength(state[start]);
+                state[start] = -1;
+                return;
+            }
+            if (isWhitespace(c)) {
+                state[start] = -1;
+            }
+        } else if (c == '&') {
+            state[start] = out.length();
+        }
+        out.append(c);
+    }
+
+    /**
+     * Returns whether a character is whitespace as matched by "\s" in a regular
+     * expression
+     *
+     * @param c the character
+     * @return {@code true} if the character is whitespace
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /**
+     * Returns the lowercase version of an ASCII letter, as matched case
+     * insensitively by a regular expression
+     *
+     * @param c the character
+     * @return the lowercase character, or the character itself if not an ASCII
+     *         uppercase letter
+     */
+    private static char lower(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    /**
+     * Matches "href", any whitespace, '=', any whitespace and a double quoted
+     * value, one character at a time
+     */
+    private static class Href {
+
+        /** Matching the letters of "href" */
+        private static final int NAME = 0;
+
+        /** Looking for the '=' */
+        private static final int EQUALS = 1;
+
+        /** Looking for the '"' starting the value */
+        private static final int QUOTE = 2;
+
+        /** Reading the value up to its closing '"' */
+        private static final int VALUE = 3;
+
+        /** Matched a whole href */
+        private static final int DONE = 4;
+
+        /** Cannot match */
+        private static final int FAILED = 5;
+
+        /** Whether to look for "href" after whitespace again after a mismatch */
+        private final boolean search;
+
+        /** The state */
+        private int state;
+
+        /** The number of letters of "href" matched */
+        private int matched;
+
+        /** The characters of the value */
+        private final StringBuilder value;
+
+        /**
+         * Creates a matcher
+         *
+         * @param search whether to look for "href" after whitespace again after a
+         *               mismatch, or to only match at the first character
+         */
+        private Href(boolean search) {
+            this.search = search;
+            this.value = new StringBuilder();
+        }
+
+        /**
+         * Starts matching at the first character after the whitespace following
+         * "&lt;a". Only a matcher that does not search may match an href there.
+         *
+         * @param c the character
+         */
+        private void start(char c) {
+            value.setLength(0);
+            state = NAME;
+            matched = !search && lower(c) == 'h' ? 1 : 0;
+            if (!search && matched == 0) {
+                state = FAILED;
+            }
+        }
+
+        /**
+         * Matches the next character
+         *
+         * @param c          the character
+         * @param afterSpace whether the character before was whitespace
+         */
+        private void step(char c, boolean afterSpace) {
+            switch (state) {
+            case VALUE:
+                if (c == '"') {
+                    state = DONE;
+                } else {
+                    value.append(c);
+                }
+                return;
+            case EQUALS:
+                if (c == '=') {
+                    state = QUOTE;
+                    return;
+                }
+                if (isWhitespace(c)) {
+                    return;
+                }
+                break;
+            case QUOTE:
+                if (c == '"') {
+                    state = VALUE;
+                    value.setLength(0);
+                    return;
+                }
+                if (isWhitespace(c)) {
+                    return;
+                }
+                break;
+            case NAME:
+                if (matched > 0 && lower(c) == "href".charAt(matched)) {
+                    if (++matched == 4) {
+                        state = EQUALS;
+                    }
+                    return;
+                }
+                break;
+            default:
+                return;
+            }
+
+            if (search) {
+                state = NAME;
+                matched = afterSpace && lower(c) == 'h' ? 1 : 0;
+            } else {
+                state = FAILED;
+            }
+        }
+    }
+}
@@ -1,9 +1,12 @@
 import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.MalformedURLException;
 import java.net.Socket;
+import java.net.SocketException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.UnknownHostException;
@@ -46,6 +49,63 @@ public class HttpsFetcher {
         }
     }
 
+    /**
+     * Fetches the specified URL over a keep-alive connection from the pool. The
+     * response is read straight into a reusable buffer by a
+     * {@link ResponseReader}, and its body is decoded once using the charset of
+     * its "Content-Type" header rather than split into lines. If the server closes
+     * a reused idle connection before answering, the request is sent exactly once
+     * more, on a newly opened connection that does not come from the idle pool.
+     *
+     * @param url  the url to fetch
+     * @param pool the pool of open connections
+     * @param max  the largest body fetched, in bytes
+     * @return the status, headers and body
+     * @throws IOException if unable to fetch the page, or if its body is larger
+     *                     than the maximum
+     */
+    public static FetchedPage fetchPage(URL url, ConnectionPool pool, int max) throws IOException {
+        ConnectionPool.Connection connection = pool.acquire(url);
+        try {
+            return fetchPage(url, pool, connection, max);
+        } catch (EOFException | SocketException e) {
+            if (!connection.isReused()) {
+                throw e;
+            }
+            // the server closed the idle connection before answering, so try a new one
+            return fetchPage(url, pool, pool.open(url), max);
+        }
+    }
+
+    /**
+     * Sends the request for the URL on a connection and reads the response, then
+     * gives the connection back to the pool
+     *
+     * @param url        the url to fetch
+     * @param pool       the pool of open connections
+     * @param connection the connection to send the request on
+     * @param max        the largest body fetched, in bytes
+     * @return the status, headers and body
+     * @throws IOException if unable to fetch the page, or if its body is larger
+     *                     than the maximum
+     */
+    private static FetchedPage fetchPage(URL url, ConnectionPool pool, ConnectionPool.Connection connection, int max)
+            throws IOException {
+        ResponseReader reader = new ResponseReader(max);
+        boolean reusable = false;
+        try {
+            PrintWriter request = new PrintWriter(new OutputStreamWriter(connection.output(), StandardCharsets.UTF_8));
+            printGetRequest(request, url, true);
+
+            FetchedPage page = reader.read(connection.input());
+            reusable = reader.isReusable();
+            return page;
+        } finally {
+            reader.release();
+            pool.release(connection, reusable);
+        }
+    }
+
     /**
      * See {@link #fetchURL(URL)} for details.
      *
@@ -93,12 +153,25 @@ public class HttpsFetcher {
      * @throws IOException from {@link PrintWriter#printf(String, Object...)}
      */
     public static void printGetRequest(PrintWriter writer, URL url) throws IOException {
+        printGetRequest(writer, url, false);
+    }
+
+    /**
+     * Writes a simple HTTP GET request to the provided socket writer, asking the
+     * server to keep the connection open afterwards if requested.
+     *
+     * @param writer    a writer created from a socket connection
+     * @param url       the url to fetch via the socket connection
+     * @param keepAlive whether to keep the connection open for another request
+     * @throws IOException from {@link PrintWriter#printf(String, Object...)}
+     */
+    public static void printGetRequest(PrintWriter writer, URL url, boolean keepAlive) throws IOException {
         String host = url.getHost();
         String resource = url.getFile().isEmpty() ? "/" : url.getFile();
 
         writer.printf("GET %s HTTP/1.1\r\n", resource);
         writer.printf("Host: %s\r\n", host);
-        writer.printf("Connection: close\r\n");
+        writer.printf("Connection: %s\r\n", keepAlive ? "keep-alive" : "close");
         writer.printf("\r\n");
         writer.flush();
     }
@@ -142,4 +215,4 @@ public class HttpsFetcher {
     public static List<String> getContent(BufferedReader response) throws IOException {
         return response.lines().collect(Collectors.toList());
     }
-}
\ No newline at end of file
+}
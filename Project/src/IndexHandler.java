@@ -52,22 +52,16 @@ public class IndexHandler {
      * @throws IOException Throws if there is an issue opening the file
      */
     public static void handleIndex(Path path, InvertedIndex index) throws IOException {
-        int filePosition = 0;
-        int linePosition = 0;
-        SnowballStemmer stemmer = new SnowballStemmer(DEFAULT);
+        int[] filePosition = { 0 };
+        TextTokenizer tokenizer = new TextTokenizer();
         try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
-            String location = path.toString();
+            int document = index.addDocument(path.toString());
             String line;
-            String stemmedWord;
             while ((line = reader.readLine()) != null) {
-                String[] allStems = TextParser.parse(line);
-                linePosition = 0;
-                for (String word : allStems) {
-                    linePosition++;
-                    stemmedWord = stemmer.stem(word).toString();
-                    index.add(stemmedWord, location, filePosition + linePosition);
-                }
-                filePosition += allStems.length;
+                tokenizer.tokenize(line, (word, length) -> {
+                    String stemmedWord = StemCache.SHARED.stem(word, length);
+                    index.add(stemmedWord, document, ++filePosition[0]);
+                });
             }
         }
     }
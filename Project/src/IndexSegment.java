@@ -0,0 +1,325 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Saves an {@link InvertedIndex} to a compact binary segment file and loads it
+ * back, so an index does not have to be rebuilt every time the program starts.
+ *
+ * A segment is laid out as follows, with every int and long big-endian and
+ * every varint an unsigned variable-byte integer, seven bits at a time:
+ *
+ * <pre>
+ * int     MAGIC, int VERSION
+ * int     number of documents
+ *         per document: string location, varint number of words
+ * int     number of words
+ * int     number of characters of the words, followed by the characters of the
+ *         sorted words, front coded as in {@link TermDictionary}
+ *         per word: varint number of documents,
+ *                   long offset of its postings, int length of its postings
+ * bytes   postings, per word and per document:
+ *         varint document id minus the previous id, varint frequency,
+ *         varint number of bytes, delta-encoded positions as in {@link PostingList}
+ * int     MAGIC
+ * </pre>
+ *
+ * Strings are a varint byte count followed by UTF-8 bytes. Posting offsets are
+ * relative to the start of the postings, which directly follow the words.
+ * Segments of version 1 stored each word as a string in front of its number of
+ * documents instead of a term dictionary, and can still be read.
+ *
+ * @author stewartpowell
+ */
+public class IndexSegment {
+
+    /** The first and last four bytes of every segment, "SEG1" in ASCII */
+    public static final int MAGIC = 0x53454731;
+
+    /** The version of the segment format */
+    public static final int VERSION = 2;
+
+    /** The version of the segment format storing every word as a string */
+    public static final int STRING_WORDS_VERSION = 1;
+
+    /** The size of the buffer used when reading and writing segments */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Writes the postings and documents of an index to a segment file
+     *
+     * @param postings  the postings of every word, sorted by word
+     * @param documents the table of documents the postings refer to
+     * @param path      the path of the segment file
+     * @throws IOException if unable to write the file
+     */
+    public static void write(SortedMap<String, PostingList> postings, DocumentTable documents, Path path)
+            throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(path), BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            out.writeInt(documents.size());
+            for (int id = 0; id < documents.size(); id++) {
+                writeString(out, documents.getLocation(id));
+                writeVarint(out, documents.getLength(id));
+            }
+
+            out.writeInt(postings.size());
+            writeTerms(out, TermDictionary.of(postings.keySet().iterator()));
+
+            // the size of each word's postings is known without encoding them
+            long offset = 0;
+            for (Map.Entry<String, PostingList> entry : postings.entrySet()) {
+                int length = postingsLength(entry.getValue());
+                writeVarint(out, entry.getValue().size());
+                out.writeLong(offset);
+                out.writeInt(length);
+                offset += length;
+            }
+
+            for (PostingList list : postings.values()) {
+                int previous = 0;
+                for (int i = 0; i < list.size(); i++) {
+                    writeVarint(out, list.document(i) - previous);
+                    writeVarint(out, list.frequency(i));
+                    writeVarint(out, list.byteLength(i));
+                    list.writePositions(i, out);
+                    previous = list.document(i);
+                }
+            }
+
+            out.writeInt(MAGIC);
+        }
+    }
+
+    /**
+     * Reads a segment file into a new index
+     *
+     * @param path the path of the segment file
+     * @return the index stored in the segment
+     * @throws IOException if unable to read the file or if it is not a valid
+     *                     segment
+     */
+    public static InvertedIndex read(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not an index segment: " + path);
+            }
+            int version = in.readInt();
+            if (version != VERSION && version != STRING_WORDS_VERSION) {
+                throw new IOException("Unsupported index segment version " + version + ": " + path);
+            }
+
+            DocumentTable documents = new DocumentTable();
+            int count = checkCount(in.readInt(), path);
+            for (int i = 0; i < count; i++) {
+                int id = documents.add(readString(in));
+                documents.addLength(id, readVarint(in));
+            }
+            if (documents.size() != count) {
+                throw new IOException("Duplicate documents in index segment: " + path);
+            }
+
+            int words = checkCount(in.readInt(), path);
+            String[] keys = new String[words];
+            if (version == VERSION) {
+                Iterator<String> terms = readTerms(in, words, path).iterator();
+                for (int i = 0; i < words; i++) {
+                    keys[i] = terms.next();
+                }
+            }
+            int[] sizes = new int[words];
+            for (int i = 0; i < words; i++) {
+                if (version == STRING_WORDS_VERSION) {
+                    keys[i] = readString(in);
+                }
+                sizes[i] = readVarint(in);
+                in.readLong();
+                in.readInt();
+            }
+
+            InvertedIndex index = new InvertedIndex(documents);
+            byte[] buffer = new byte[64];
+            for (int i = 0; i < words; i++) {
+                PostingList list = new PostingList();
+                int document = 0;
+                for (int j = 0; j < sizes[i]; j++) {
+                    document += readVarint(in);
+                    int frequency = readVarint(in);
+                    int length = readVarint(in);
+                    if (document >= count || frequency == 0 || (j > 0 && document <= list.document(j - 1))) {
+                        throw new IOException("Corrupt postings for " + keys[i] + " in index segment: " + path);
+                    }
+                    if (length > buffer.length) {
+                        buffer = new byte[Math.max(length, buffer.length * 2)];
+                    }
+                    in.readFully(buffer, 0, length);
+                    list.addEncoded(document, frequency, buffer, 0, length);
+                }
+                index.putPostings(keys[i], list);
+            }
+
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Truncated index segment: " + path);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Returns the number of bytes the postings take up in a segment
+     *
+     * @param list the postings of one word
+     * @return the number of bytes
+     */
+    private static int postingsLength(PostingList list) {
+        int length = 0;
+        int previous = 0;
+        for (int i = 0; i < list.size(); i++) {
+            int bytes = list.byteLength(i);
+            length += varintLength(list.document(i) - previous) + varintLength(list.frequency(i))
+                    + varintLength(bytes) + bytes;
+            previous = list.document(i);
+        }
+        return length;
+    }
+
+    /**
+     * Writes the characters of a term dictionary, preceded by their number
+     *
+     * @param out   the stream to write to
+     * @param terms the term dictionary
+     * @throws IOException if unable to write to the stream
+     */
+    private static void writeTerms(DataOutputStream out, TermDictionary terms) throws IOException {
+        char[] data = terms.getData();
+        out.writeInt(data.length);
+        for (char c : data) {
+            out.writeChar(c);
+        }
+    }
+
+    /**
+     * Reads a term dictionary written by
+     * {@link #writeTerms(DataOutputStream, TermDictionary)}
+     *
+     * @param in    the stream to read from
+     * @param words the number of words in the dictionary
+     * @param path  the path of the segment, used in error messages
+     * @return the term dictionary
+     * @throws IOException if unable to read from the stream or if the dictionary
+     *                     is corrupt
+     */
+    private static TermDictionary readTerms(DataInputStream in, int words, Path path) throws IOException {
+        char[] data = new char[checkCount(in.readInt(), path)];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = in.readChar();
+        }
+        try {
+            return new TermDictionary(words, data);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupt words in index segment: " + path, e);
+        }
+    }
+
+    /**
+     * Checks that a count read from a segment is not negative
+     *
+     * @param count the count to check
+     * @param path  the path of the segment, used in the error message
+     * @return the count
+     * @throws IOException if the count is negative
+     */
+    private static int checkCount(int count, Path path) throws IOException {
+        if (count < 0) {
+            throw new IOException("Corrupt index segment: " + path);
+        }
+        return count;
+    }
+
+    /**
+     * Writes an unsigned variable-byte integer
+     *
+     * @param out   the stream to write to
+     * @param value the value to write
+     * @throws IOException if unable to write to the stream
+     */
+    static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Reads an unsigned variable-byte integer
+     *
+     * @param in the stream to read from
+     * @return the value read
+     * @throws IOException if unable to read from the stream
+     */
+    static int readVarint(DataInputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0 && shift < 35);
+        return value;
+    }
+
+    /**
+     * Returns the number of bytes an unsigned variable-byte integer takes up
+     *
+     * @param value the value
+     * @return the number of bytes
+     */
+    static int varintLength(int value) {
+        int length = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Writes a string as a varint byte count followed by its UTF-8 bytes
+     *
+     * @param out  the stream to write to
+     * @param text the string to write
+     * @throws IOException if unable to write to the stream
+     */
+    private static void writeString(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(DataOutputStream, String)}
+     *
+     * @param in the stream to read from
+     * @return the string read
+     * @throws IOException if unable to read from the stream
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readVarint(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
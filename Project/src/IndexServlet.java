@@ -35,7 +35,7 @@ public class IndexServlet extends HttpServlet {
     private static Logger log = Log.getRootLogger();
 
     /** The thread-safe data structure to use for storing messages. */
-    private final ThreadedInvertedIndex index;
+    private final ThreadSafeInvertedIndex index;
 
     /**
      * Initializes this message board. Each message board has its own collection of
@@ -45,7 +45,7 @@ public class IndexServlet extends HttpServlet {
      * 
      * @throws IOException if unable to read template
      */
-    public IndexServlet(ThreadedInvertedIndex index) throws IOException {
+    public IndexServlet(ThreadSafeInvertedIndex index) throws IOException {
         super();
         this.index = index;
     }
@@ -1,14 +1,15 @@
 import java.io.IOException;
 import java.nio.file.Path;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This is the InvertedIndex data structure used for USF CS212 Project 1
@@ -18,21 +19,63 @@ import java.util.TreeSet;
 public class InvertedIndex {
 
     /**
-     * the data structure to be used
+     * the data structure to be used, mapping each word to its compact postings
      */
-    private final TreeMap<String, TreeMap<String, TreeSet<Integer>>> invertedIndex;
+    private final NavigableMap<String, PostingList> invertedIndex;
 
     /**
-     * the counter for files
+     * the table of documents, which also counts the words in each document
      */
-    private final Map<String, Integer> counter;
+    private final DocumentTable documents;
+
+    /**
+     * the number of changes made to the index, used to tell if cached search
+     * results are stale
+     */
+    private final AtomicLong generation;
+
+    /**
+     * the words of the index in a term dictionary, with the postings of each word
+     * by term id, used to find the words starting with a prefix without walking
+     * the tree. Discarded whenever a word is added, or null until rebuilt.
+     */
+    private volatile Terms terms;
+
+    /**
+     * the number of words prefix searches have walked in the tree since the
+     * dictionary was discarded, used to decide when to rebuild it
+     */
+    private final AtomicLong walked;
 
     /**
      * Instantiates the InvertedIndex object
      */
     public InvertedIndex() {
-        this.invertedIndex = new TreeMap<String, TreeMap<String, TreeSet<Integer>>>();
-        this.counter = new TreeMap<String, Integer>();
+        this(new DocumentTable());
+    }
+
+    /**
+     * Instantiates an InvertedIndex that assigns document ids from the given
+     * table, so several indexes can share one set of ids
+     * 
+     * @param documents the table of documents to use
+     */
+    InvertedIndex(DocumentTable documents) {
+        this(documents, new TreeMap<String, PostingList>());
+    }
+
+    /**
+     * Instantiates an InvertedIndex that keeps its words in the given map and
+     * assigns document ids from the given table
+     * 
+     * @param documents     the table of documents to use
+     * @param invertedIndex the map to keep the postings of each word in
+     */
+    InvertedIndex(DocumentTable documents, NavigableMap<String, PostingList> invertedIndex) {
+        this.invertedIndex = invertedIndex;
+        this.documents = documents;
+        this.generation = new AtomicLong();
+        this.walked = new AtomicLong();
     }
 
     /**
@@ -45,41 +88,182 @@ public class InvertedIndex {
      * @return boolean if the Index was changed
      */
     public boolean add(String word, String path, int position) {
-        invertedIndex.putIfAbsent(word, new TreeMap<>());
-        invertedIndex.get(word).putIfAbsent(path, new TreeSet<>());
-        if (invertedIndex.get(word).get(path).add(position)) {
-            int increment = counter.getOrDefault(path, 0);
-            counter.put(path, increment + 1);
+        return add(word, documents.add(path), position);
+    }
+
+    /**
+     * Returns the document id of the location, adding the location to the index's
+     * document table if necessary. Callers adding many words from one location
+     * should look up its id once and use {@link #add(String, int, int)}.
+     * 
+     * @param location the location to add
+     * @return the document id of the location
+     */
+    public int addDocument(String location) {
+        return documents.add(location);
+    }
+
+    /**
+     * Adds the word, document, and position to the index
+     * 
+     * @param word     the word to be added
+     * @param document the document id returned by {@link #addDocument(String)}
+     * @param position the position in the file the word was found in
+     * 
+     * @return boolean if the Index was changed
+     */
+    public boolean add(String word, int document, int position) {
+        if (addPosting(word, document, position)) {
+            documents.addLength(document, 1);
+            modified();
             return true;
         }
         return false;
     }
 
+    /**
+     * Adds the posting to the word without updating the document's word count
+     * 
+     * @param word     the word to be added
+     * @param document the document id
+     * @param position the position in the file the word was found in
+     * @return boolean if the Index was changed
+     */
+    boolean addPosting(String word, int document, int position) {
+        PostingList postings = invertedIndex.get(word);
+        if (postings == null) {
+            postings = new PostingList();
+            invertedIndex.put(word, postings);
+            wordsChanged();
+        }
+        return postings.add(document, position);
+    }
+
     /**
      * Adds the word, path, and position to the index
      * 
      * @param otherIndex the index we are adding
      */
     public void addAll(InvertedIndex otherIndex) {
-        for (String key : otherIndex.invertedIndex.keySet()) {
-            TreeMap<String, TreeSet<Integer>> existing = invertedIndex.putIfAbsent(key,
-                    otherIndex.invertedIndex.get(key));
-            if (existing != null) {
-                // add to existing inner map
-                for (String path : otherIndex.invertedIndex.get(key).keySet()) {
-                    TreeSet<Integer> positions = invertedIndex.get(key).putIfAbsent(path,
-                            otherIndex.invertedIndex.get(key).get(path));
-                    if (positions != null) {
-                        invertedIndex.get(key).get(path).addAll(otherIndex.invertedIndex.get(key).get(path));
-                    }
-                }
-            }
+        // the postings are read first, so every document they refer to is remapped
+        Map<String, PostingList> postings = otherIndex.getPostings();
+        int[] remap = addDocuments(otherIndex);
+        for (Map.Entry<String, PostingList> entry : postings.entrySet()) {
+            addPostings(entry.getKey(), entry.getValue(), remap);
+        }
+        modified();
+    }
+
+    /**
+     * Adds every word of each of the other indexes
+     * 
+     * @param otherIndexes the indexes we are adding
+     */
+    public void addAll(Collection<? extends InvertedIndex> otherIndexes) {
+        for (InvertedIndex otherIndex : otherIndexes) {
+            addAll(otherIndex);
+        }
+    }
+
+    /**
+     * Adds the documents of the other index and their word counts to this index
+     * 
+     * @param otherIndex the index whose documents to add
+     * @return the other index's document ids translated into ids of this index
+     */
+    int[] addDocuments(InvertedIndex otherIndex) {
+        DocumentTable others = otherIndex.getDocuments();
+        int[] remap = new int[others.size()];
+        for (int i = 0; i < remap.length; i++) {
+            remap[i] = documents.add(others.getLocation(i));
+            documents.addLength(remap[i], others.getLength(i));
         }
+        return remap;
+    }
 
-        for (String location : otherIndex.counter.keySet()) {
-            int count = otherIndex.counter.getOrDefault(location, 0) + counter.getOrDefault(location, 0);
-            counter.put(location, count);
+    /**
+     * Adds the postings of one word from another index to this index
+     * 
+     * @param word     the word to add
+     * @param postings the postings of the word in the other index
+     * @param remap    the translation returned by {@link #addDocuments}
+     */
+    void addPostings(String word, PostingList postings, int[] remap) {
+        PostingList existing = invertedIndex.get(word);
+        if (existing == null) {
+            existing = new PostingList();
+            invertedIndex.put(word, existing);
+            wordsChanged();
         }
+        existing.addAll(postings, remap);
+    }
+
+    /**
+     * Sets the postings of a word, replacing any postings it had
+     * 
+     * @param word     the word to set
+     * @param postings the postings of the word, using this index's document ids
+     */
+    void putPostings(String word, PostingList postings) {
+        invertedIndex.put(word, postings);
+        wordsChanged();
+    }
+
+    /**
+     * Discards the dictionary of words after a word is added or its postings are
+     * replaced. Called while no search is running, like every other change.
+     */
+    private void wordsChanged() {
+        terms = null;
+        walked.set(0);
+    }
+
+    /**
+     * Records that the index has changed. Must be called after every change that
+     * can affect search results, once the change is visible to searches.
+     */
+    void modified() {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Returns the generation of the index, which changes whenever words are
+     * added. Search results found while the generation stays the same are still
+     * valid.
+     * 
+     * @return the generation
+     * @see ResultCache
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Returns an unmodifiable view of the postings of every word
+     * 
+     * @return the map of word to postings
+     */
+    Map<String, PostingList> getPostings() {
+        return Collections.unmodifiableMap(invertedIndex);
+    }
+
+    /**
+     * Returns the postings of a word
+     * 
+     * @param word the word to look up
+     * @return the postings of the word, or {@code null} if it is not found
+     */
+    PostingList getPostings(String word) {
+        return invertedIndex.get(word);
+    }
+
+    /**
+     * Returns the table of documents used by this index
+     * 
+     * @return the document table
+     */
+    DocumentTable getDocuments() {
+        return documents;
     }
 
     /**
@@ -99,8 +283,15 @@ public class InvertedIndex {
      * @return Set<String> the set of locations associated with the given word
      */
     public Set<String> getLocations(String word) {
-        return invertedIndex.get(word) != null ? Collections.unmodifiableSet(invertedIndex.get(word).keySet())
-                : Collections.emptySet();
+        PostingList postings = getPostings(word);
+        if (postings == null) {
+            return Collections.emptySet();
+        }
+        TreeSet<String> found = new TreeSet<>();
+        for (int i = 0; i < postings.size(); i++) {
+            found.add(documents.getLocation(postings.document(i)));
+        }
+        return Collections.unmodifiableSet(found);
     }
 
     /**
@@ -112,8 +303,29 @@ public class InvertedIndex {
      *         location
      */
     public Set<Integer> getPositions(String word, String location) {
-        return containsLocation(word, location) ? Collections.unmodifiableSet(invertedIndex.get(word).get(location))
-                : Collections.emptySet();
+        PostingList postings = getPostings(word);
+        int index = indexOf(postings, location);
+        if (index < 0) {
+            return Collections.emptySet();
+        }
+        TreeSet<Integer> found = new TreeSet<>();
+        for (int position : postings.positions(index)) {
+            found.add(position);
+        }
+        return Collections.unmodifiableSet(found);
+    }
+
+    /**
+     * Returns the index of the location within the postings of a word, or a
+     * negative number if the word was not found in that location
+     * 
+     * @param postings the postings of the word, or {@code null} if not found
+     * @param location the location we are looking for
+     * @return the index into the word's {@link PostingList}
+     */
+    private int indexOf(PostingList postings, String location) {
+        int id = documents.getId(location);
+        return postings != null && id >= 0 ? postings.indexOf(id) : -1;
     }
 
     /**
@@ -134,7 +346,7 @@ public class InvertedIndex {
      * @return boolean
      */
     public boolean containsLocation(String word, String location) {
-        return invertedIndex.containsKey(word) & invertedIndex.get(word).get(location) != null;
+        return indexOf(getPostings(word), location) >= 0;
     }
 
     /**
@@ -146,7 +358,9 @@ public class InvertedIndex {
      * @return boolean
      */
     public boolean containsPosition(String word, String location, Integer position) {
-        return containsLocation(word, location) & invertedIndex.get(word).get(location).contains(position) != false;
+        int id = documents.getId(location);
+        PostingList postings = getPostings(word);
+        return postings != null && id >= 0 && position != null && postings.contains(id, position);
     }
 
     /**
@@ -176,7 +390,9 @@ public class InvertedIndex {
      * @return int
      */
     public int numPositions(String word, String location) {
-        return this.containsLocation(word, location) ? invertedIndex.get(word).get(location).size() : 0;
+        PostingList postings = getPostings(word);
+        int index = indexOf(postings, location);
+        return index >= 0 ? postings.frequency(index) : 0;
     }
 
     /**
@@ -186,7 +402,125 @@ public class InvertedIndex {
      * @throws IOException throws IOException
      */
     public void getIndex(Path path) throws IOException {
-        SimpleJsonWriter.indexToJsonFile(this.invertedIndex, path);
+        getIndex(path, true);
+    }
+
+    /**
+     * Gets the pretty or compact Json format of the Index. The words are written
+     * in batches by {@link #writeIndex(JsonStreamWriter, String)}, and each batch
+     * is flushed to the file before the next one is started.
+     * 
+     * @param path   the path to output the Json Index
+     * @param pretty whether to output pretty or compact Json
+     * @throws IOException throws IOException
+     */
+    public void getIndex(Path path, boolean pretty) throws IOException {
+        try (JsonStreamWriter json = JsonStreamWriter.open(path, pretty)) {
+            json.beginObject();
+            String last = null;
+            do {
+                last = writeIndex(json, last);
+                json.flush();
+            } while (last != null);
+            json.endObject();
+        }
+    }
+
+    /**
+     * Writes the words following the given word to the buffer of the Json writer,
+     * stopping once the buffer is full. Nothing is written to the file here.
+     * 
+     * @param json  the Json writer
+     * @param after the last word already written, or {@code null} to start with
+     *              the first word
+     * @return the last word written, or {@code null} if no words were left
+     */
+    String writeIndex(JsonStreamWriter json, String after) {
+        Map<String, PostingList> words = after == null ? invertedIndex : invertedIndex.tailMap(after, false);
+        String last = null;
+        for (Map.Entry<String, PostingList> entry : words.entrySet()) {
+            json.writeWord(entry.getKey(), entry.getValue(), documents);
+            last = entry.getKey();
+            if (json.isFull()) {
+                break;
+            }
+        }
+        return last;
+    }
+
+    /**
+     * Saves the Index to a binary segment file that can be loaded again with
+     * {@link #load(Path)}
+     * 
+     * @param path the path to save the segment to
+     * @throws IOException throws IOException
+     * @see IndexSegment
+     */
+    public void save(Path path) throws IOException {
+        IndexSegment.write(invertedIndex, documents, path);
+    }
+
+    /**
+     * Adds every word of a binary segment file written by {@link #save(Path)} to
+     * the Index
+     * 
+     * @param path the path of the segment to load
+     * @throws IOException throws IOException if the file is not a valid segment
+     * @see IndexSegment
+     */
+    public void load(Path path) throws IOException {
+        addAll(IndexSegment.read(path));
+    }
+
+    /**
+     * Returns an iterator over the words of the index, decoding the postings of
+     * one word at a time into sorted locations and positions
+     * 
+     * @return the iterator of decoded entries
+     */
+    private Iterator<Map.Entry<String, TreeMap<String, TreeSet<Integer>>>> entries() {
+        Iterator<Map.Entry<String, PostingList>> words = invertedIndex.entrySet().iterator();
+        return new Iterator<Map.Entry<String, TreeMap<String, TreeSet<Integer>>>>() {
+            @Override
+            public boolean hasNext() {
+                return words.hasNext();
+            }
+
+            @Override
+            public Map.Entry<String, TreeMap<String, TreeSet<Integer>>> next() {
+                Map.Entry<String, PostingList> entry = words.next();
+                return Map.entry(entry.getKey(), decode(entry.getValue()));
+            }
+        };
+    }
+
+    /**
+     * Decodes the postings of a word into sorted locations and positions
+     * 
+     * @param word the word to decode
+     * @return the locations and positions of the word, empty if it is not found
+     */
+    TreeMap<String, TreeSet<Integer>> decode(String word) {
+        PostingList postings = getPostings(word);
+        return postings != null ? decode(postings) : new TreeMap<>();
+    }
+
+    /**
+     * Decodes the postings into sorted locations and positions
+     * 
+     * @param postings the postings to decode
+     * @return the locations and positions of the postings
+     */
+    private TreeMap<String, TreeSet<Integer>> decode(PostingList postings) {
+        TreeMap<String, TreeSet<Integer>> decoded = new TreeMap<>();
+        for (int i = 0; i < postings.size(); i++) {
+            TreeSet<Integer> positions = new TreeSet<>();
+            for (int position : postings.positions(i)) {
+                positions.add(position);
+            }
+            decoded.put(documents.getLocation(postings.document(i)), positions);
+        }
+        return decoded;
     }
 
     /**
@@ -201,20 +535,116 @@ public class InvertedIndex {
     }
 
     /**
-     * helper function for exact and partial search
+     * Searches the index with the given queries, returning only the best results.
+     * A bounded heap keeps the best k results seen so far, so only those are ever
+     * created and sorted instead of every matching location.
      * 
-     * @param key     the key in the inverted index
-     * @param lookup  the lookup map
-     * @param results the list of results
+     * @param queries the words to search for
+     * @param exact   whether to do an exact or partial search
+     * @param k       the maximum number of results to return
+     * @return the best k search results in sorted order
      */
-    private void searchHelper(String key, Map<String, SearchResult> lookup, List<SearchResult> results) {
-        for (String location : invertedIndex.get(key).keySet()) {
-            if (!lookup.containsKey(location)) {
-                SearchResult result = new SearchResult(location);
-                lookup.put(location, result);
-                results.add(result);
+    public List<SearchResult> search(Collection<String> queries, boolean exact, int k) {
+        List<SearchResult> results = collect(queries, exact, k);
+        results.sort(null);
+        return results;
+    }
+
+    /**
+     * Finds and scores every location matching the queries, and creates the
+     * results of the best k
+     * 
+     * @param queries the queries to search for
+     * @param exact   whether to do an exact or partial search
+     * @param k       the maximum number of results to create
+     * @return the unsorted list of search results
+     */
+    List<SearchResult> collect(Collection<String> queries, boolean exact, int k) {
+        ScoreAccumulator scores = ScoreAccumulator.get(documents.size());
+        try {
+            for (String query : queries) { // traverse through every query
+                if (exact) {
+                    searchWord(query, scores);
+                } else {
+                    searchPrefix(query, scores);
+                }
             }
-            lookup.get(location).update(key);
+            return scores.results(this, k);
+        } finally {
+            scores.release();
+        }
+    }
+
+    /**
+     * Adds the matches of a single word to the scores, if the word is found
+     * 
+     * @param word   the word to search for
+     * @param scores the matches found so far
+     */
+    void searchWord(String word, ScoreAccumulator scores) {
+        PostingList postings = invertedIndex.get(word);
+        if (postings != null) {
+            searchHelper(postings, scores);
+        }
+    }
+
+    /**
+     * Adds the matches of every word starting with the prefix to the scores
+     * 
+     * @param prefix the prefix to search for
+     * @param scores the matches found so far
+     */
+    void searchPrefix(String prefix, ScoreAccumulator scores) {
+        Terms terms = terms();
+        if (terms != null) {
+            int start = terms.words.ceiling(prefix);
+            int end = terms.words.prefixEnd(prefix, start);
+            for (int term = start; term < end; term++) {
+                searchHelper(terms.postings[term], scores);
+            }
+            return;
+        }
+
+        int count = 1;
+        for (Map.Entry<String, PostingList> entry : invertedIndex.tailMap(prefix).entrySet()) {
+            if (!entry.getKey().startsWith(prefix)) {
+                break;
+            }
+            searchHelper(entry.getValue(), scores);
+            count++;
+        }
+        walked.addAndGet(count);
+    }
+
+    /**
+     * Returns the dictionary of words, rebuilding it once prefix searches have
+     * walked as many words of the tree as it holds since it was discarded. So
+     * while words are still being added, the rebuilds cost no more than the
+     * walks, and once they stop every prefix search uses the dictionary.
+     * Several searches may rebuild it at once, but each builds the same
+     * dictionary.
+     *
+     * @return the dictionary, or null if prefix searches should walk the tree
+     */
+    private Terms terms() {
+        Terms terms = this.terms;
+        if (terms == null && walked.get() >= invertedIndex.size()) {
+            terms = new Terms(TermDictionary.of(invertedIndex.keySet().iterator()),
+                    invertedIndex.values().toArray(new PostingList[0]));
+            this.terms = terms;
+        }
+        return terms;
+    }
+
+    /**
+     * helper function for exact and partial search
+     * 
+     * @param postings the postings of a matching word
+     * @param scores   the matches found so far
+     */
+    private static void searchHelper(PostingList postings, ScoreAccumulator scores) {
+        for (int i = 0; i < postings.size(); i++) {
+            scores.add(postings.document(i), postings.frequency(i));
         }
     }
 
@@ -225,16 +655,7 @@ public class InvertedIndex {
      * @return A list of the Search Result Objects in sorted order
      */
     public List<SearchResult> exactSearch(Collection<String> queries) {
-        List<SearchResult> results = new ArrayList<SearchResult>();
-        HashMap<String, SearchResult> lookup = new HashMap<String, SearchResult>();
-        for (String query : queries) { // traverse through every query
-            if (invertedIndex.containsKey(query)) {// check if key starts with the query
-                searchHelper(query, lookup, results);
-            }
-        }
-
-        results.sort(null);
-        return results;
+        return search(queries, true, Integer.MAX_VALUE);
     }
 
     /**
@@ -244,23 +665,20 @@ public class InvertedIndex {
      * @return the list of partial SearchResults
      */
     public List<SearchResult> partialSearch(Collection<String> queries) {
-        List<SearchResult> results = new ArrayList<SearchResult>();
-        HashMap<String, SearchResult> lookup = new HashMap<String, SearchResult>();
-        for (String query : queries) { // traverse through every query
-            for (String key : invertedIndex.tailMap(query).keySet()) {
-                if (!key.startsWith(query)) {
-                    break;
-                }
-                searchHelper(key, lookup, results);
-            }
-        }
-        results.sort(null);
-        return results;
+        return search(queries, false, Integer.MAX_VALUE);
     }
 
     @Override
     public String toString() {
-        return invertedIndex.toString();
+        StringBuilder builder = new StringBuilder("{");
+        Iterator<Map.Entry<String, TreeMap<String, TreeSet<Integer>>>> iterator = entries();
+        while (iterator.hasNext()) {
+            builder.append(iterator.next());
+            if (iterator.hasNext()) {
+                builder.append(", ");
+            }
+        }
+        return builder.append("}").toString();
     }
 
     /**
@@ -269,7 +687,7 @@ public class InvertedIndex {
      * @return the counter
      */
     public Map<String, Integer> getCounter() {
-        return Collections.unmodifiableMap(counter);
+        return Collections.unmodifiableMap(documents.getCounts());
 
     }
 
@@ -280,6 +698,10 @@ public class InvertedIndex {
      *
      */
     public class SearchResult implements Comparable<SearchResult> {
+        /**
+         * the document id of the location of one or more of the matches
+         */
+        private final int document;
         /**
          * the location of one or more of the matches
          */
@@ -296,14 +718,30 @@ public class InvertedIndex {
         /**
          * Constructor for the Search Results
          * 
-         * @param where the location of one or more of the matches
+         * @param document the document id of the location of one or more of the
+         *                 matches
          */
-        public SearchResult(String where) {
-            this.where = where;
+        public SearchResult(int document) {
+            this.document = document;
+            this.where = documents.getLocation(document);
             this.count = 0;
             this.score = 0;
         }
 
+        /**
+         * Constructor for the Search Results of a location whose matches are
+         * already counted
+         * 
+         * @param document the document id of the location of the matches
+         * @param count    the total number of matches within the location
+         */
+        SearchResult(int document, int count) {
+            this.document = document;
+            this.where = documents.getLocation(document);
+            this.count = count;
+            this.score = (double) count / documents.getLength(document);
+        }
+
         /**
          * gets where
          * 
@@ -332,13 +770,13 @@ public class InvertedIndex {
         }
 
         /**
-         * updates the SearchResult of the given query
+         * updates the SearchResult with the matches of one query word
          * 
-         * @param word the query word
+         * @param matches the number of positions the query word has in this location
          */
-        private void update(String word) {
-            count += invertedIndex.get(word).get(where).size();
-            score = (double) count / counter.get(where);
+        void update(int matches) {
+            count += matches;
+            score = (double) count / documents.getLength(document);
         }
 
         @Override
@@ -361,4 +799,26 @@ public class InvertedIndex {
 
     }
 
+    /**
+     * The words of an index in a term dictionary, with the postings of each word
+     * by term id
+     */
+    private static class Terms {
+        /** the words, in sorted order */
+        private final TermDictionary words;
+
+        /** the postings of each word, by term id */
+        private final PostingList[] postings;
+
+        /**
+         * Instantiates the Terms
+         * 
+         * @param words    the words
+         * @param postings the postings of each word, in the order of the words
+         */
+        private Terms(TermDictionary words, PostingList[] postings) {
+            this.words = words;
+            this.postings = postings;
+        }
+    }
 }
@@ -0,0 +1,361 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streams large JSON outputs, such as the whole index or all search results,
+ * through one reusable character buffer. Elements are appended to the buffer
+ * without creating intermediate strings or collections, and the buffer is only
+ * handed to the underlying writer in bulk by {@link #flush()}. Nothing is
+ * written to the underlying writer until then, so callers may fill the buffer
+ * while holding a lock and flush it after the lock is released.
+ *
+ * Produces the same pretty format as {@link SimpleJsonWriter}, or compact JSON
+ * without any whitespace.
+ *
+ * Warning: This class is not thread-safe. If multiple threads access this class
+ * concurrently, access must be synchronized externally.
+ *
+ * @author stewartpowell
+ */
+public class JsonStreamWriter implements Closeable {
+
+    /** The number of buffered characters after which {@link #isFull()} is true */
+    public static final int FLUSH_THRESHOLD = 1 << 16;
+
+    /** The writer the buffer is flushed to */
+    private final Writer writer;
+
+    /** Whether to write pretty or compact JSON */
+    private final boolean pretty;
+
+    /** The characters waiting to be written */
+    private char[] buffer;
+
+    /** The number of characters in the buffer */
+    private int count;
+
+    /** The number of elements written to the current top-level object */
+    private int elements;
+
+    /** Reused to decode the positions of one document */
+    private int[] positions;
+
+    /** Reused to sort the documents of one word by location */
+    private long[] order;
+
+    /** The rank of each document id when sorted by location */
+    private int[] ranks;
+
+    /** The document table the ranks were computed for */
+    private DocumentTable ranked;
+
+    /**
+     * Instantiates a writer that streams to the given writer
+     *
+     * @param writer the writer to flush to
+     * @param pretty whether to write pretty or compact JSON
+     */
+    public JsonStreamWriter(Writer writer, boolean pretty) {
+        this.writer = writer;
+        this.pretty = pretty;
+        this.buffer = new char[FLUSH_THRESHOLD + 1024];
+        this.count = 0;
+        this.elements = 0;
+        this.positions = new int[64];
+        this.order = new long[64];
+        this.ranks = new int[0];
+        this.ranked = null;
+    }
+
+    /**
+     * Opens a writer that streams UTF-8 to the given file. The buffer of this
+     * class already batches writes, so the file writer is not buffered again.
+     *
+     * @param path   the file to write
+     * @param pretty whether to write pretty or compact JSON
+     * @return the writer
+     * @throws IOException if unable to open the file
+     */
+    public static JsonStreamWriter open(Path path, boolean pretty) throws IOException {
+        return new JsonStreamWriter(new OutputStreamWriter(Files.newOutputStream(path), StandardCharsets.UTF_8),
+                pretty);
+    }
+
+    /**
+     * Starts the top-level object
+     */
+    public void beginObject() {
+        write('{');
+        elements = 0;
+    }
+
+    /**
+     * Ends the top-level object
+     */
+    public void endObject() {
+        if (pretty) {
+            write('\n');
+        }
+        write('}');
+    }
+
+    /**
+     * Writes one word of the index and its postings to the top-level object. The
+     * locations are written in sorted order, each with its sorted positions.
+     *
+     * @param word      the word
+     * @param postings  the postings of the word
+     * @param documents the table the postings' document ids refer to
+     */
+    public void writeWord(String word, PostingList postings, DocumentTable documents) {
+        element();
+        quote(word);
+        colon();
+        write('{');
+
+        int size = postings.size();
+        int[] rank = ranks(documents);
+        if (order.length < size) {
+            order = new long[Math.max(size, order.length * 2)];
+        }
+        for (int i = 0; i < size; i++) {
+            order[i] = ((long) rank[postings.document(i)] << 32) | i;
+        }
+        Arrays.sort(order, 0, size);
+
+        for (int i = 0; i < size; i++) {
+            int index = (int) order[i];
+            if (i > 0) {
+                write(',');
+            }
+            newline(2);
+            quote(documents.getLocation(postings.document(index)));
+            colon();
+            write('[');
+
+            int frequency = postings.frequency(index);
+            if (positions.length < frequency) {
+                positions = new int[Math.max(frequency, positions.length * 2)];
+            }
+            postings.positions(index, positions);
+            for (int j = 0; j < frequency; j++) {
+                if (j > 0) {
+                    write(',');
+                }
+                newline(3);
+                writeInt(positions[j]);
+            }
+            newline(2);
+            write(']');
+        }
+        newline(1);
+        write('}');
+    }
+
+    /**
+     * Writes the results of one query to the top-level object
+     *
+     * @param query   the query
+     * @param results the sorted results of the query
+     */
+    public void writeResults(String query, List<InvertedIndex.SearchResult> results) {
+        element();
+        quote(query);
+        colon();
+        write('[');
+        boolean first = true;
+        for (InvertedIndex.SearchResult result : results) {
+            if (!first) {
+                write(',');
+            }
+            first = false;
+            newline(2);
+            write('{');
+            newline(3);
+            quote("where");
+            colon();
+            quote(result.getWhere());
+            write(',');
+            newline(3);
+            quote("count");
+            colon();
+            writeInt(result.getCount());
+            write(',');
+            newline(3);
+            quote("score");
+            colon();
+            write(String.format("%.8f", result.getScore()));
+            newline(2);
+            write('}');
+        }
+        newline(1);
+        write(']');
+    }
+
+    /**
+     * Returns whether the buffer holds enough characters that it should be
+     * flushed
+     *
+     * @return {@code true} if the buffer should be flushed
+     */
+    public boolean isFull() {
+        return count >= FLUSH_THRESHOLD;
+    }
+
+    /**
+     * Writes the buffered characters to the underlying writer in one call
+     *
+     * @throws IOException if an IO error occurs
+     */
+    public void flush() throws IOException {
+        if (count > 0) {
+            writer.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Separates a new element of the top-level object from the previous one
+     */
+    private void element() {
+        if (elements++ > 0) {
+            write(',');
+        }
+        newline(1);
+    }
+
+    /**
+     * Starts a new line indented by the given level, if writing pretty JSON
+     *
+     * @param level the number of times to indent by 2 spaces
+     */
+    private void newline(int level) {
+        if (pretty) {
+            ensure(1 + 2 * level);
+            buffer[count++] = '\n';
+            for (int i = 0; i < 2 * level; i++) {
+                buffer[count++] = ' ';
+            }
+        }
+    }
+
+    /**
+     * Writes the separator between a key and its value
+     */
+    private void colon() {
+        write(':');
+        if (pretty) {
+            write(' ');
+        }
+    }
+
+    /**
+     * Writes the text surrounded by {@code " "} quotation marks
+     *
+     * @param text the text to write
+     */
+    private void quote(String text) {
+        ensure(text.length() + 2);
+        buffer[count++] = '"';
+        text.getChars(0, text.length(), buffer, count);
+        count += text.length();
+        buffer[count++] = '"';
+    }
+
+    /**
+     * Writes the text
+     *
+     * @param text the text to write
+     */
+    private void write(String text) {
+        ensure(text.length());
+        text.getChars(0, text.length(), buffer, count);
+        count += text.length();
+    }
+
+    /**
+     * Writes one character
+     *
+     * @param c the character to write
+     */
+    private void write(char c) {
+        ensure(1);
+        buffer[count++] = c;
+    }
+
+    /**
+     * Writes the decimal digits of the value without creating a string
+     *
+     * @param value the value to write
+     */
+    private void writeInt(int value) {
+        ensure(11);
+        long remaining = value;
+        if (remaining < 0) {
+            buffer[count++] = '-';
+            remaining = -remaining;
+        }
+        int start = count;
+        do {
+            buffer[count++] = (char) ('0' + remaining % 10);
+            remaining /= 10;
+        } while (remaining > 0);
+
+        // the digits were written backwards
+        for (int i = start, j = count - 1; i < j; i++, j--) {
+            char swap = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = swap;
+        }
+    }
+
+    /**
+     * Grows the buffer so at least the given number of extra characters fit
+     *
+     * @param extra the number of characters about to be written
+     */
+    private void ensure(int extra) {
+        if (count + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(count + extra, buffer.length * 2));
+        }
+    }
+
+    /**
+     * Returns the rank of every document id when sorted by location, computing
+     * them again only if documents were added since the last call
+     *
+     * @param documents the document table
+     * @return the ranks, indexed by document id
+     */
+    private int[] ranks(DocumentTable documents) {
+        if (documents != ranked || ranks.length != documents.size()) {
+            Integer[] ids = new Integer[documents.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = i;
+            }
+            Arrays.sort(ids, (a, b) -> documents.getLocation(a).compareTo(documents.getLocation(b)));
+            ranks = new int[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                ranks[ids[i]] = i;
+            }
+            ranked = documents;
+        }
+        return ranks;
+    }
+}
@@ -1,8 +1,8 @@
 import java.net.MalformedURLException;
-import java.net.URI;
-import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Locale;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -11,22 +11,129 @@ import java.util.regex.Pattern;
  */
 public class LinkParser {
 
+    /** Matches the double quoted href attribute of an anchor tag */
+    private static final Pattern ANCHOR_HREF = Pattern.compile("<a\\s+(?:[^>]*?\\s+)?\\s?href\\s*?=\\s*?\"([^\"]*)\"",
+            Pattern.CASE_INSENSITIVE);
+
+    /** The hexadecimal digits used to percent-encode */
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
     /**
      * Removes the fragment component of a URL (if present), and properly encodes
      * the query string (if necessary).
      *
      * @param url the url to clean
      * @return cleaned url (or original url if any issues occurred)
+     * @see #canonicalize(URL)
      */
     public static URL clean(URL url) {
+        return canonicalize(url);
+    }
+
+    /**
+     * Converts an HTTP(S) url to the one form shared by every url of the same
+     * page, so the crawl fetches it once. The scheme and host are lowercased, a
+     * default port and the fragment are removed, dot segments are removed from
+     * the path, an empty path becomes "/", and characters not allowed in a url
+     * are percent-encoded as UTF-8 while existing escapes are kept (with their hex
+     * digits uppercased).
+     *
+     * @param url the url to canonicalize
+     * @return the canonical url (or original url if it is not HTTP(S) or any
+     *         issues occurred)
+     */
+    public static URL canonicalize(URL url) {
+        String protocol = url.getProtocol().toLowerCase(Locale.ROOT);
+        if (!protocol.equals("http") && !protocol.equals("https")) {
+            return url;
+        }
+
+        StringBuilder builder = new StringBuilder(url.toString().length());
+        builder.append(protocol).append("://");
+        if (url.getUserInfo() != null) {
+            builder.append(url.getUserInfo()).append('@');
+        }
+        builder.append(url.getHost().toLowerCase(Locale.ROOT));
+        if (url.getPort() != -1 && url.getPort() != url.getDefaultPort()) {
+            builder.append(':').append(url.getPort());
+        }
+        encode(builder, removeDotSegments(url.getPath()));
+        if (url.getQuery() != null) {
+            builder.append('?');
+            encode(builder, url.getQuery());
+        }
+
         try {
-            return new URI(url.getProtocol(), url.getUserInfo(), url.getHost(), url.getPort(), url.getPath(),
-                    url.getQuery(), null).toURL();
-        } catch (MalformedURLException | URISyntaxException e) {
+            return new URL(builder.toString());
+        } catch (MalformedURLException e) {
             return url;
         }
     }
 
+    /**
+     * Removes the "." and ".." segments of an absolute path, as described in
+     * section 5.2.4 of RFC 3986
+     *
+     * @param path the path
+     * @return the path without dot segments, or "/" if it was empty
+     */
+    private static String removeDotSegments(String path) {
+        if (path.isEmpty() || path.charAt(0) != '/') {
+            return "/" + path;
+        }
+        if (!path.contains("/.")) {
+            return path;
+        }
+
+        String[] segments = path.split("/", -1);
+        ArrayList<String> kept = new ArrayList<>(segments.length);
+        for (int i = 1; i < segments.length; i++) {
+            boolean last = i == segments.length - 1;
+            if (segments[i].equals(".")) {
+                if (last) {
+                    kept.add("");
+                }
+            } else if (segments[i].equals("..")) {
+                if (!kept.isEmpty()) {
+                    kept.remove(kept.size() - 1);
+                }
+                if (last) {
+                    kept.add("");
+                }
+            } else {
+                kept.add(segments[i]);
+            }
+        }
+        return "/" + String.join("/", kept);
+    }
+
+    /**
+     * Appends part of a url, percent-encoding the characters not allowed in a url
+     * and uppercasing the hex digits of existing escapes
+     *
+     * @param builder the builder to append to
+     * @param part    the path or query of the url
+     */
+    private static void encode(StringBuilder builder, String part) {
+        for (int i = 0; i < part.length(); i++) {
+            char c = part.charAt(i);
+            if (c == '%' && i + 2 < part.length() && Character.digit(part.charAt(i + 1), 16) >= 0
+                    && Character.digit(part.charAt(i + 2), 16) >= 0) {
+                builder.append('%').append(Character.toUpperCase(part.charAt(i + 1)))
+                        .append(Character.toUpperCase(part.charAt(i + 2)));
+                i += 2;
+            } else if (c > ' ' && c < 0x7f && "\"%<>\\^`{|}".indexOf(c) < 0) {
+                builder.append(c);
+            } else {
+                int end = Character.isHighSurrogate(c) && i + 1 < part.length() ? i + 2 : i + 1;
+                for (byte b : part.substring(i, end).getBytes(StandardCharsets.UTF_8)) {
+                    builder.append('%').append(HEX[(b >> 4) & 0xf]).append(HEX[b & 0xf]);
+                }
+                i = end - 1;
+            }
+        }
+    }
+
     /**
      * Returns a list of all the HTTP(S) links found in the href attribute of the
      * anchor tags in the provided HTML. The links will be converted to absolute
@@ -39,28 +146,39 @@ public class LinkParser {
      */
     public static ArrayList<URL> listLinks(URL base, String html) {
         ArrayList<URL> listURLS = new ArrayList<URL>();
-        Pattern p = Pattern.compile("<a\\s+(?:[^>]*?\\s+)?\\s?href\\s*?=\\s*?\"([^\"]*)\"", Pattern.CASE_INSENSITIVE);
-        Matcher m = p.matcher(html);
-        String found;
+        Matcher m = ANCHOR_HREF.matcher(html);
 
         while (m.find()) {
-            found = m.group(1);
-            int index = found.indexOf("#");
-            String trimmedFound;
-            if (index != -1) {
-                trimmedFound = found.substring(0, index);
-            } else {
-                trimmedFound = found;
-            }
-            try {
-                URL cleaned = new URL(base, trimmedFound);
-                clean(cleaned);
+            URL cleaned = resolve(base, m.group(1));
+            if (cleaned != null) {
                 listURLS.add(cleaned);
-            } catch (MalformedURLException e) {
-                System.out.println("Malformed URL formed.");
             }
         }
 
         return listURLS;
     }
-}
\ No newline at end of file
+
+    /**
+     * Converts the href of an anchor tag to an absolute url in canonical form.
+     *
+     * @param base the base url used to convert relative links to absolute
+     * @param href the value of the href attribute
+     * @return the absolute url, or {@code null} if it is malformed
+     * @see #canonicalize(URL)
+     */
+    public static URL resolve(URL base, String href) {
+        int index = href.indexOf("#");
+        String trimmedFound;
+        if (index != -1) {
+            trimmedFound = href.substring(0, index);
+        } else {
+            trimmedFound = href;
+        }
+        try {
+            return canonicalize(new URL(base, trimmedFound));
+        } catch (MalformedURLException e) {
+            System.out.println("Malformed URL formed.");
+            return null;
+        }
+    }
+}
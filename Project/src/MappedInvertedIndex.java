@@ -0,0 +1,443 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A read-only InvertedIndex served directly from a memory-mapped segment file
+ * written by {@link IndexSegment}. Only the document table and the sorted words,
+ * front coded in a {@link TermDictionary}, are read onto the heap when the
+ * segment is opened. Searches decode the
+ * postings straight from the mapped file, so the index can be larger than the
+ * heap and the operating system's page cache is shared by every process
+ * serving the same segment.
+ *
+ * Since the index never changes, any number of threads may search it at once
+ * without any lock. Every method that would change the index throws an
+ * {@link UnsupportedOperationException}.
+ *
+ * @author stewartpowell
+ */
+public class MappedInvertedIndex extends ThreadSafeInvertedIndex {
+
+    /** The number of bits addressed by each mapped chunk of the file */
+    private static final int CHUNK_BITS = 30;
+
+    /** The mask selecting the offset within a chunk */
+    private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+
+    /** The segment file that is mapped */
+    private final Path path;
+
+    /** The mapped file, split into chunks since a single mapping is limited to 2GB */
+    private final MappedByteBuffer[] chunks;
+
+    /** The sorted words of the segment, whose term ids index the arrays below */
+    private final TermDictionary terms;
+
+    /** The number of documents of each word */
+    private final int[] sizes;
+
+    /** The offset in the file of each word's postings */
+    private final long[] offsets;
+
+    /**
+     * Maps the segment file and reads its document table and words
+     *
+     * @param path the path of the segment file
+     * @throws IOException if unable to map the file or if it is not a valid
+     *                     segment
+     */
+    public MappedInvertedIndex(Path path) throws IOException {
+        super(new DocumentTable());
+        this.path = path;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            this.chunks = new MappedByteBuffer[(int) ((size + CHUNK_MASK) >>> CHUNK_BITS)];
+            for (int i = 0; i < chunks.length; i++) {
+                long start = (long) i << CHUNK_BITS;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size - start, CHUNK_MASK + 1));
+            }
+
+            try {
+                Reader reader = new Reader(0);
+                if (size < 16 || reader.readInt() != IndexSegment.MAGIC) {
+                    throw new IOException("Not an index segment: " + path);
+                }
+                int version = reader.readInt();
+                if (version != IndexSegment.VERSION && version != IndexSegment.STRING_WORDS_VERSION) {
+                    throw new IOException("Unsupported index segment version " + version + ": " + path);
+                }
+
+                DocumentTable documents = getDocuments();
+                int count = reader.readInt();
+                for (int i = 0; i < count; i++) {
+                    int id = documents.add(reader.readString());
+                    documents.addLength(id, reader.readVarint());
+                }
+
+                int total = reader.readInt();
+                if (count < 0 || total < 0 || documents.size() != count) {
+                    throw new IOException("Corrupt index segment: " + path);
+                }
+                TermDictionary dictionary = null;
+                String[] words = null;
+                if (version == IndexSegment.VERSION) {
+                    char[] data = new char[reader.readInt()];
+                    for (int i = 0; i < data.length; i++) {
+                        data[i] = (char) ((reader.readByte() << 8) | reader.readByte());
+                    }
+                    dictionary = new TermDictionary(total, data);
+                } else {
+                    words = new String[total];
+                }
+                this.sizes = new int[total];
+                this.offsets = new long[total];
+                long length = 0;
+                for (int i = 0; i < total; i++) {
+                    if (words != null) {
+                        words[i] = reader.readString();
+                    }
+                    sizes[i] = reader.readVarint();
+                    offsets[i] = reader.readLong();
+                    length += reader.readInt();
+                }
+
+                this.terms = dictionary != null ? dictionary : TermDictionary.of(Arrays.asList(words).iterator());
+
+                // offsets are stored relative to the postings, which follow the words
+                long postings = reader.position;
+                for (int i = 0; i < total; i++) {
+                    offsets[i] += postings;
+                }
+                if (postings + length + 4 != size || new Reader(postings + length).readInt() != IndexSegment.MAGIC) {
+                    throw new IOException("Truncated index segment: " + path);
+                }
+            } catch (IndexOutOfBoundsException | NegativeArraySizeException e) {
+                throw new IOException("Truncated index segment: " + path, e);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Corrupt words in index segment: " + path, e);
+            }
+        }
+    }
+
+    /**
+     * Returns the position of the word in the sorted words of the segment
+     *
+     * @param word the word to look up
+     * @return the position, or a negative number if the word is not found
+     */
+    private int find(String word) {
+        return terms.find(word);
+    }
+
+    /**
+     * Reads the postings of a word from the mapped file onto the heap
+     *
+     * @param term the position of the word in the sorted words
+     * @return the postings of the word
+     */
+    private PostingList read(int term) {
+        PostingList postings = new PostingList();
+        Reader reader = new Reader(offsets[term]);
+        byte[] buffer = new byte[64];
+        int document = 0;
+        for (int i = 0; i < sizes[term]; i++) {
+            document += reader.readVarint();
+            int frequency = reader.readVarint();
+            int length = reader.readVarint();
+            if (length > buffer.length) {
+                buffer = new byte[Math.max(length, buffer.length * 2)];
+            }
+            reader.readFully(buffer, length);
+            postings.addEncoded(document, frequency, buffer, 0, length);
+        }
+        return postings;
+    }
+
+    @Override
+    PostingList getPostings(String word) {
+        int term = find(word);
+        return term >= 0 ? read(term) : null;
+    }
+
+    /**
+     * Returns the postings of every word, read from the mapped file onto the heap.
+     * Used when this index is added to another index.
+     *
+     * @return the map of word to postings
+     */
+    @Override
+    Map<String, PostingList> getPostings() {
+        TreeMap<String, PostingList> postings = new TreeMap<>();
+        Iterator<String> words = terms.iterator();
+        for (int term = 0; term < terms.size(); term++) {
+            postings.put(words.next(), read(term));
+        }
+        return Collections.unmodifiableMap(postings);
+    }
+
+    @Override
+    void searchWord(String word, ScoreAccumulator scores) {
+        int term = find(word);
+        if (term >= 0) {
+            searchHelper(term, scores);
+        }
+    }
+
+    @Override
+    void searchPrefix(String prefix, ScoreAccumulator scores) {
+        int start = terms.ceiling(prefix);
+        int end = terms.prefixEnd(prefix, start);
+        for (int term = start; term < end; term++) {
+            searchHelper(term, scores);
+        }
+    }
+
+    /**
+     * Adds the matches of one word to the scores, reading only the document ids
+     * and frequencies from the mapped file and skipping over the positions
+     *
+     * @param term   the position of the word in the sorted words
+     * @param scores the matches found so far
+     */
+    private void searchHelper(int term, ScoreAccumulator scores) {
+        Reader reader = new Reader(offsets[term]);
+        int document = 0;
+        for (int i = 0; i < sizes[term]; i++) {
+            document += reader.readVarint();
+            int frequency = reader.readVarint();
+            int length = reader.readVarint();
+            reader.position += length;
+            scores.add(document, frequency);
+        }
+    }
+
+    @Override
+    public boolean add(String word, String path, int position) {
+        throw new UnsupportedOperationException("Mapped index segments are read-only.");
+    }
+
+    @Override
+    public int addDocument(String location) {
+        throw new UnsupportedOperationException("Mapped index segments are read-only.");
+    }
+
+    @Override
+    public boolean add(String word, int document, int position) {
+        throw new UnsupportedOperationException("Mapped index segments are read-only.");
+    }
+
+    @Override
+    public void addAll(InvertedIndex otherIndex) {
+        throw new UnsupportedOperationException("Mapped index segments are read-only.");
+    }
+
+    @Override
+    public void addAll(Collection<? extends InvertedIndex> otherIndexes) {
+        throw new UnsupportedOperationException("Mapped index segments are read-only.");
+    }
+
+    @Override
+    public Collection<String> getWords() {
+        return terms.asList();
+    }
+
+    @Override
+    public boolean containsWord(String word) {
+        return find(word) >= 0;
+    }
+
+    @Override
+    public int numWords() {
+        return terms.size();
+    }
+
+    @Override
+    public int numLocations(String word) {
+        int term = find(word);
+        return term >= 0 ? sizes[term] : 0;
+    }
+
+    /**
+     * Gets the pretty or compact Json format of the Index, reading one word at a
+     * time from the mapped file
+     *
+     * @param path   the path to output the Json Index
+     * @param pretty whether to output pretty or compact Json
+     * @throws IOException throws IOException
+     */
+    @Override
+    public void getIndex(Path path, boolean pretty) throws IOException {
+        try (JsonStreamWriter json = JsonStreamWriter.open(path, pretty)) {
+            json.beginObject();
+            Iterator<String> words = terms.iterator();
+            for (int term = 0; term < terms.size(); term++) {
+                json.writeWord(words.next(), read(term), getDocuments());
+                if (json.isFull()) {
+                    json.flush();
+                }
+            }
+            json.endObject();
+        }
+    }
+
+    /**
+     * Saves the Index by copying the mapped segment, which never changes
+     *
+     * @param path the path to save the segment to
+     * @throws IOException throws IOException
+     */
+    @Override
+    public void save(Path path) throws IOException {
+        if (!Files.exists(path) || !Files.isSameFile(this.path, path)) {
+            Files.copy(this.path, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Returns an iterator over the words of the index, decoding the postings of
+     * each word when it is reached
+     *
+     * @return the iterator of decoded entries
+     */
+    private Iterator<Map.Entry<String, TreeMap<String, TreeSet<Integer>>>> entries() {
+        Iterator<String> iterator = getWords().iterator();
+        return new Iterator<Map.Entry<String, TreeMap<String, TreeSet<Integer>>>>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Map.Entry<String, TreeMap<String, TreeSet<Integer>>> next() {
+                String word = iterator.next();
+                return Map.entry(word, decode(word));
+            }
+        };
+    }
+
+    /**
+     * Returns the contention statistics of the locks protecting this index, which
+     * has none since it never changes
+     *
+     * @return a summary saying no locks are used
+     */
+    @Override
+    public String getLockStatistics() {
+        return "none, the mapped index is read-only";
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        Iterator<Map.Entry<String, TreeMap<String, TreeSet<Integer>>>> iterator = entries();
+        while (iterator.hasNext()) {
+            builder.append(iterator.next());
+            if (iterator.hasNext()) {
+                builder.append(", ");
+            }
+        }
+        return builder.append("}").toString();
+    }
+
+    /**
+     * Reads values from the mapped file starting at a position. Each thread uses
+     * its own reader, so the shared mapped buffers are only read with absolute
+     * gets.
+     */
+    private class Reader {
+
+        /** The position in the file of the next byte to read */
+        private long position;
+
+        /**
+         * Creates a reader
+         *
+         * @param position the position in the file to start reading at
+         */
+        private Reader(long position) {
+            this.position = position;
+        }
+
+        /**
+         * Reads one unsigned byte
+         *
+         * @return the byte read
+         */
+        private int readByte() {
+            int b = chunks[(int) (position >>> CHUNK_BITS)].get((int) (position & CHUNK_MASK)) & 0xFF;
+            position++;
+            return b;
+        }
+
+        /**
+         * Reads a big-endian int
+         *
+         * @return the int read
+         */
+        private int readInt() {
+            return (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+        }
+
+        /**
+         * Reads a big-endian long
+         *
+         * @return the long read
+         */
+        private long readLong() {
+            return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+        }
+
+        /**
+         * Reads an unsigned variable-byte integer
+         *
+         * @return the value read
+         */
+        private int readVarint() {
+            int value = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = readByte();
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0 && shift < 35);
+            return value;
+        }
+
+        /**
+         * Reads bytes into the start of the buffer
+         *
+         * @param buffer the buffer to read into
+         * @param length the number of bytes to read
+         */
+        private void readFully(byte[] buffer, int length) {
+            for (int i = 0; i < length; i++) {
+                buffer[i] = (byte) readByte();
+            }
+        }
+
+        /**
+         * Reads a varint byte count followed by that many UTF-8 bytes
+         *
+         * @return the string read
+         */
+        private String readString() {
+            byte[] bytes = new byte[readVarint()];
+            readFully(bytes, bytes.length);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
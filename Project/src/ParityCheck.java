@@ -0,0 +1,307 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Checks that the single pass parsers give exactly the same results as the
+ * regular expressions they replaced: the html cleaning and link finding of
+ * {@link HtmlLexer} against {@link HtmlCleaner} and {@link LinkParser}, and the
+ * words of {@link TextTokenizer} against {@link TextParser}. The checks run on
+ * hand written edge cases and on seeded random inputs made of the pieces the
+ * regular expressions are sensitive to, so every run checks the same inputs:
+ *
+ * <pre>
+ * java ParityCheck [-html file] [-text path]
+ * </pre>
+ *
+ * The -html flag also checks a real page, and the -text flag every line of a
+ * text file or of the text files in a directory. Words are checked under the
+ * default locale and under the locales whose lowercasing differs from it. The
+ * first difference found is printed and the check stops with an exception.
+ *
+ * @author stewartpowell
+ */
+public class ParityCheck {
+
+    /** The number of random pages checked by the html parity check */
+    private static final int PARITY_PAGES = 20000;
+
+    /** The number of random strings checked by the text parity check */
+    private static final int PARITY_TEXTS = 200000;
+
+    /**
+     * The locales the words are checked under, since {@link String#toLowerCase()}
+     * depends on the default locale. Turkish and Lithuanian lowercase some
+     * letters differently from the rest.
+     */
+    private static final Locale[] LOCALES = { Locale.getDefault(), Locale.forLanguageTag("tr"),
+            Locale.forLanguageTag("lt") };
+
+    /** The number of times each piece of the adversarial html is repeated */
+    private static final int ADVERSARIAL = 2000;
+
+    /** Matches the href of an anchor tag, like {@link LinkParser} */
+    private static final Pattern ANCHOR_HREF = Pattern.compile("<a\\s+(?:[^>]*?\\s+)?\\s?href\\s*?=\\s*?\"([^\"]*)\"",
+            Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Returns a page that makes the lazy regular expressions of
+     * {@link HtmlCleaner} backtrack over the rest of the page at every unclosed
+     * element
+     *
+     * @return the html
+     */
+    public static String adversarialHtml() {
+        return "<head x".repeat(ADVERSARIAL) + "<script".repeat(ADVERSARIAL) + "&a".repeat(ADVERSARIAL)
+                + "<".repeat(ADVERSARIAL);
+    }
+
+    /**
+     * Strips html with the regular expression of each pass of
+     * {@link HtmlCleaner}, one after another, as it was done before
+     * {@link HtmlLexer}
+     *
+     * @param html the html
+     * @return the text
+     */
+    public static String stripHtmlByRegex(String html) {
+        html = HtmlCleaner.stripComments(html);
+        html = HtmlCleaner.stripElement(html, "head");
+        html = HtmlCleaner.stripElement(html, "style");
+        html = HtmlCleaner.stripElement(html, "script");
+        html = HtmlCleaner.stripElement(html, "noscript");
+        html = HtmlCleaner.stripElement(html, "svg");
+        html = HtmlCleaner.stripTags(html);
+        return HtmlCleaner.stripEntities(html);
+    }
+
+    /**
+     * Checks that {@link HtmlLexer} cleans html exactly like the regular
+     * expressions of {@link HtmlCleaner}
+     *
+     * @param label the name of the html
+     * @param html  the html
+     * @throws IllegalStateException if the outputs differ
+     */
+    public static void checkHtml(String label, String html) {
+        String expected = stripHtmlByRegex(html);
+        String actual = HtmlLexer.stripHtml(html);
+        if (!expected.equals(actual)) {
+            throw new IllegalStateException(String.format("HtmlLexer differs from HtmlCleaner on %s:%n%s%n"
+                    + "expected: %s%nactual:   %s", label, html, expected, actual));
+        }
+
+        expected = HtmlCleaner.stripComments(html);
+        for (String element : new String[] { "head", "style", "script", "noscript", "svg" }) {
+            expected = HtmlCleaner.stripElement(expected, element);
+        }
+        actual = HtmlLexer.stripBlockElements(html);
+        if (!expected.equals(actual)) {
+            throw new IllegalStateException(String.format("HtmlLexer block elements differ on %s:%n%s%n"
+                    + "expected: %s%nactual:   %s", label, html, expected, actual));
+        }
+
+        Matcher anchors = ANCHOR_HREF.matcher(expected);
+        List<String> expectedLinks = new ArrayList<>();
+        while (anchors.find()) {
+            expectedLinks.add(anchors.group(1));
+        }
+        List<String> actualLinks = new ArrayList<>();
+        HtmlLexer.extract(html, actualLinks);
+        if (!expectedLinks.equals(actualLinks)) {
+            throw new IllegalStateException(String.format("HtmlLexer links differ from LinkParser on %s:%n%s%n"
+                    + "expected: %s%nactual:   %s", label, html, expectedLinks, actualLinks));
+        }
+    }
+
+    /**
+     * Checks that {@link HtmlLexer} cleans html exactly like the regular
+     * expressions of {@link HtmlCleaner}, on hand written edge cases and on random
+     * pages made of the pieces those expressions are sensitive to
+     *
+     * @return the number of pages checked
+     * @throws IllegalStateException if the outputs differ for any page
+     */
+    public static int checkHtml() {
+        String[] pages = { "", "plain text", "A<b>B</b>C", "2010&ndash;2012", "A<!-- B -->C", "<!-->x-->",
+                "<!--->x", "<script> <!-- </script> --> </script>x", "<script>'<!--'</script>x-->y",
+                "<head><title>t</title></head><body><header>h</header></body>", "<HEAD>x</Head >y",
+                "<svg/svg>z", "</svg<!--x-->>", "<style>a</style\n>b", "&amp <b>;</b>", "&a&b; c", "&a b;",
+                "<a href=\"x\">link</a", "<<head>>x</head>>", "<noscript>n</noscript><script>s</script>",
+                "<a href=\"x\" title=\"t\" href=\"y\">", "<a  href=\"a>b\">", "<a title=\"a>b\" href=\"c\">",
+                "<b <a href=\"x\">", "<a data-href=\"no\" HREF = \"yes\">", "<a href=\"x", "<a\nhref=\"<!--\">-->\">",
+                "<scripts>x</script>y", "&amp<!--x-->;", "<head <!-- --> </head>" };
+        for (String page : pages) {
+            checkHtml(page, page);
+        }
+
+        String[] pieces = { "<", ">", "<!--", "-->", "-", "!", "/", " ", "\n", "\t", "x", "yz", "&", ";", "&amp;",
+                "<head>", "</head>", "</HEAD >", "<header>", "<style>", "</style >", "<script", "</script>", "</scr",
+                "ipt>", "<noscript>", "</noscript>", "<svg", "/svg", "</svg\t>", "<svg/svg>", "<!--->", "<a ", "<A\t",
+                "href", "HREF", "=", "\"", "<a href=\"u\">", "<a class=\"c\" href=\"v\">", "<a data-href=\"w\">" };
+        Random random = new Random(23);
+        for (int i = 0; i < PARITY_PAGES; i++) {
+            StringBuilder page = new StringBuilder();
+            for (int n = random.nextInt(30); n > 0; n--) {
+                page.append(pieces[random.nextInt(pieces.length)]);
+            }
+            checkHtml("random page " + i, page.toString());
+        }
+
+        checkHtml("adversarial html", adversarialHtml());
+        return pages.length + PARITY_PAGES + 1;
+    }
+
+    /**
+     * Checks that {@link TextTokenizer} splits text into exactly the words of
+     * {@link TextParser#parse(String)}
+     *
+     * @param tokenizer the tokenizer, created under the current default locale
+     * @param label     the name of the text
+     * @param text      the text
+     * @throws IllegalStateException if the words differ
+     */
+    public static void checkText(TextTokenizer tokenizer, String label, String text) {
+        String[] expected = TextParser.parse(text);
+        String[] actual = tokenizer.parse(text);
+        if (!Arrays.equals(expected, actual)) {
+            throw new IllegalStateException(String.format("TextTokenizer differs from TextParser on %s in %s:%n%s%n"
+                    + "expected: %s%nactual:   %s", label, Locale.getDefault(), escape(text), Arrays.toString(expected),
+                    Arrays.toString(actual)));
+        }
+    }
+
+    /**
+     * Checks that {@link TextTokenizer} splits text into exactly the words of
+     * {@link TextParser#parse(String)} under each of the {@link #LOCALES}, on hand
+     * written edge cases and on random strings made of the characters those
+     * expressions are sensitive to
+     *
+     * @return the number of strings checked in each locale
+     * @throws IllegalStateException if the words differ for any string
+     */
+    public static int checkText() {
+        String[] texts = { "", " ", "\t\n", "hello", "Hello, World!", "  two  spaces  ", "don't stop-me now",
+                "abc123def 4 5six", "MiXeD CaSe", "caf\u00E9 na\u00EFve", "cafe\u0301", "\u00C5ngstr\u00F6m",
+                "stra\u00DFe STRASSE", "\u00A0leading no-break space", "\u0085leading next line",
+                "\u2003em\u2003space", "ideographic\u3000space", "line\u2028separator", "zero\u200Bwidth",
+                "\u0130stanbul I\u0307 \u0131", "\u03A3\u0399\u03A3\u03A5\u03A6\u039F\u03A3",
+                "\u1F48\u0394\u03A5\u03A3\u03A3\u0395\u038E\u03A3 \u03A3", "\u03C3\u03C2 \u03A3a",
+                "\uFB01ne ligature", "\u01C4 \u01C5 \u01C6", "\uD835\uDC00\uD835\uDC01 math",
+                "\u65E5\u672C\u8A9E \u4E2D\u6587", "emoji \uD83D\uDE00 face", "\u00BD \u2163 \u00B2",
+                "tab\tand\nnewline\rreturn\u000Bvt\u000Cff", "\u0301\u0301 marks", "\u00A0", "\u0085x" };
+        String[] pieces = { " ", "  ", "\t", "\n", "\r", "\u000B", "\u000C", "\u0085", "\u00A0", "\u1680",
+                "\u2000", "\u2007", "\u2028", "\u2029", "\u202F", "\u3000", "\u200B", "a", "Z", "hello", "WORLD",
+                "I", "i", "\u0130", "\u0131", "\u0307", "\u0301", "\u00E9", "\u00C9", "\u00DF", "\u1E9E",
+                "\u03A3", "\u03C3", "\u03C2", "\u0391", "\u0416", "\uFB01", "\u01C5", "\uD835\uDC00",
+                "\uD83D\uDE00", "\u65E5", "\u00BD", "1", "42", ".", ",", "-", "'", "_", "\u00B7", "\u2019" };
+
+        Locale original = Locale.getDefault();
+        Random random = new Random(11);
+        try {
+            for (Locale locale : LOCALES) {
+                Locale.setDefault(locale);
+                TextTokenizer tokenizer = new TextTokenizer();
+                for (String text : texts) {
+                    checkText(tokenizer, escape(text), text);
+                }
+                for (int i = 0; i < PARITY_TEXTS; i++) {
+                    StringBuilder text = new StringBuilder();
+                    for (int n = random.nextInt(12); n > 0; n--) {
+                        text.append(pieces[random.nextInt(pieces.length)]);
+                    }
+                    checkText(tokenizer, "random string " + i, text.toString());
+                }
+            }
+        } finally {
+            Locale.setDefault(original);
+        }
+        return texts.length + PARITY_TEXTS;
+    }
+
+    /**
+     * Checks that {@link TextTokenizer} splits every line of a text file, or of
+     * the text files in a directory, into exactly the words of
+     * {@link TextParser#parse(String)}
+     *
+     * @param path the file or directory
+     * @return the number of lines checked
+     * @throws IOException if unable to read a file
+     */
+    public static int checkText(Path path) throws IOException {
+        TextTokenizer tokenizer = new TextTokenizer();
+        int lines = 0;
+        try (Stream<Path> files = TextFileFinder.find(path)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                int number = 0;
+                for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                    checkText(tokenizer, file + " line " + ++number, line);
+                }
+                lines += number;
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Escapes the characters of text that are not printable ASCII, so the
+     * differences are visible
+     *
+     * @param text the text
+     * @return the escaped text
+     */
+    private static String escape(String text) {
+        StringBuilder escaped = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= ' ' && c < 0x7F) {
+                escaped.append(c);
+            } else {
+                escaped.append(String.format("\\u%04X", (int) c));
+            }
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * Runs the parity checks
+     *
+     * @param args flag/value pairs, see the class description
+     * @throws IOException if unable to read the html or text files
+     */
+    public static void main(String[] args) throws IOException {
+        ArgumentParser parser = new ArgumentParser(args);
+        int pages = checkHtml();
+        if (parser.hasFlag("-html")) {
+            Path html = parser.getPath("-html");
+            if (html != null) {
+                checkHtml(html.toString(), Files.readString(html, StandardCharsets.UTF_8));
+                pages++;
+            } else {
+                System.out.println("Error: Forgot a value for -html");
+            }
+        }
+        System.out.printf("HtmlLexer: %d pages match HtmlCleaner and LinkParser%n", pages);
+
+        int texts = checkText();
+        System.out.printf("TextTokenizer: %d strings match TextParser in each of %s%n", texts,
+                Arrays.toString(LOCALES));
+        if (parser.hasFlag("-text")) {
+            Path text = parser.getPath("-text");
+            if (text != null) {
+                System.out.printf("TextTokenizer: %d lines of %s match TextParser%n", checkText(text), text);
+            } else {
+                System.out.println("Error: Forgot a value for -text");
+            }
+        }
+    }
+}
@@ -0,0 +1,447 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A compact list of postings for a single word in the {@link InvertedIndex}.
+ * Documents are stored as sorted integer ids, and the positions within each
+ * document are delta-encoded as variable-byte integers in one shared byte
+ * array. This avoids a boxed {@link Integer} and a tree node per position.
+ *
+ * Warning: This class is not thread-safe. If multiple threads access this class
+ * concurrently, access must be synchronized externally.
+ *
+ * @author stewartpowell
+ */
+public class PostingList {
+
+    /** The initial number of documents a posting list has room for. */
+    private static final int INITIAL_DOCUMENTS = 2;
+
+    /** The initial number of bytes a posting list has room for. */
+    private static final int INITIAL_BYTES = 8;
+
+    /** The sorted document ids of this posting list */
+    private int[] documents;
+
+    /** The number of positions stored for each document */
+    private int[] frequencies;
+
+    /** The offset into the byte array where each document's positions start */
+    private int[] offsets;
+
+    /** The number of documents in this posting list */
+    private int size;
+
+    /** The delta-encoded positions of every document */
+    private byte[] positions;
+
+    /** The number of bytes in use */
+    private int length;
+
+    /** The last position of the last document, used to append in order */
+    private int last;
+
+    /**
+     * Instantiates an empty posting list
+     */
+    public PostingList() {
+        this.documents = new int[INITIAL_DOCUMENTS];
+        this.frequencies = new int[INITIAL_DOCUMENTS];
+        this.offsets = new int[INITIAL_DOCUMENTS];
+        this.positions = new byte[INITIAL_BYTES];
+        this.size = 0;
+        this.length = 0;
+        this.last = 0;
+    }
+
+    /**
+     * Instantiates a copy of the other posting list, with no room to spare
+     *
+     * @param other the posting list to copy
+     */
+    PostingList(PostingList other) {
+        this.documents = Arrays.copyOf(other.documents, other.size);
+        this.frequencies = Arrays.copyOf(other.frequencies, other.size);
+        this.offsets = Arrays.copyOf(other.offsets, other.size);
+        this.positions = Arrays.copyOf(other.positions, other.length);
+        this.size = other.size;
+        this.length = other.length;
+        this.last = other.last;
+    }
+
+    /**
+     * Adds the position for the given document. Positions added in increasing
+     * order to the newest document are appended without decoding anything.
+     *
+     * @param document the document id
+     * @param position the position within the document
+     * @return boolean if the posting list was changed
+     */
+    public boolean add(int document, int position) {
+        if (size > 0 && documents[size - 1] == document) {
+            if (position > last) {
+                ensureBytes(5);
+                length = encode(position - last, positions, length);
+                frequencies[size - 1]++;
+                last = position;
+                return true;
+            }
+        } else if (size == 0 || document > documents[size - 1]) {
+            openDocument(size, document);
+            ensureBytes(5);
+            length = encode(position, positions, length);
+            frequencies[size - 1] = 1;
+            last = position;
+            return true;
+        }
+        return insert(document, position);
+    }
+
+    /**
+     * Adds every posting of the other list to this one, translating the other
+     * list's document ids through the given table.
+     *
+     * @param other the posting list to add
+     * @param remap maps the other list's document ids to ids of this list
+     */
+    public void addAll(PostingList other, int[] remap) {
+        for (int i = 0; i < other.size; i++) {
+            int document = remap[other.documents[i]];
+            if (size == 0 || document > documents[size - 1]) {
+                // the document is new to this list, so its bytes can be copied as is
+                int start = other.offsets[i];
+                int end = other.end(i);
+                openDocument(size, document);
+                ensureBytes(end - start);
+                System.arraycopy(other.positions, start, positions, length, end - start);
+                length += end - start;
+                frequencies[size - 1] = other.frequencies[i];
+                last = other.lastPosition(i);
+            } else {
+                insertAll(document, other.positions(i));
+            }
+        }
+    }
+
+    /**
+     * Returns the number of documents in this posting list
+     *
+     * @return int
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the document id stored at the given index
+     *
+     * @param index the index of the document, between 0 and {@link #size()}
+     * @return the document id
+     */
+    public int document(int index) {
+        return documents[index];
+    }
+
+    /**
+     * Returns the number of positions stored at the given index
+     *
+     * @param index the index of the document, between 0 and {@link #size()}
+     * @return the number of positions
+     */
+    public int frequency(int index) {
+        return frequencies[index];
+    }
+
+    /**
+     * Returns the index of the given document, or a negative number if the
+     * document is not in this posting list
+     *
+     * @param document the document id to look for
+     * @return the index of the document
+     */
+    public int indexOf(int document) {
+        return Arrays.binarySearch(documents, 0, size, document);
+    }
+
+    /**
+     * Decodes the sorted positions stored at the given index
+     *
+     * @param index the index of the document, between 0 and {@link #size()}
+     * @return the positions of the document
+     */
+    public int[] positions(int index) {
+        int[] decoded = new int[frequencies[index]];
+        positions(index, decoded);
+        return decoded;
+    }
+
+    /**
+     * Decodes the sorted positions stored at the given index into the start of an
+     * existing array, so callers decoding many documents can reuse one array
+     *
+     * @param index   the index of the document, between 0 and {@link #size()}
+     * @param decoded the array to decode into, with room for at least
+     *                {@link #frequency(int)} positions
+     */
+    void positions(int index, int[] decoded) {
+        int offset = offsets[index];
+        int position = 0;
+        for (int i = 0; i < frequencies[index]; i++) {
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = positions[offset++];
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            position += delta;
+            decoded[i] = position;
+        }
+    }
+
+    /**
+     * Checks if the posting list contains the position for the given document
+     *
+     * @param document the document id
+     * @param position the position to look for
+     * @return boolean
+     */
+    public boolean contains(int document, int position) {
+        int index = indexOf(document);
+        return index >= 0 && Arrays.binarySearch(positions(index), position) >= 0;
+    }
+
+    /**
+     * Returns the number of bytes used by the encoded positions at the given index
+     *
+     * @param index the index of the document, between 0 and {@link #size()}
+     * @return the number of bytes
+     */
+    int byteLength(int index) {
+        return end(index) - offsets[index];
+    }
+
+    /**
+     * Writes the encoded positions at the given index to the stream as is
+     *
+     * @param index the index of the document, between 0 and {@link #size()}
+     * @param out   the stream to write to
+     * @throws IOException if unable to write to the stream
+     */
+    void writePositions(int index, OutputStream out) throws IOException {
+        out.write(positions, offsets[index], byteLength(index));
+    }
+
+    /**
+     * Appends a document whose positions are already encoded the way this class
+     * encodes them, copying the bytes as is
+     *
+     * @param document  the document id; must be larger than every document so far
+     * @param frequency the number of encoded positions
+     * @param buffer    the buffer holding the encoded positions
+     * @param offset    the offset of the first byte
+     * @param count     the number of bytes
+     */
+    void addEncoded(int document, int frequency, byte[] buffer, int offset, int count) {
+        if (size > 0 && document <= documents[size - 1]) {
+            throw new IllegalArgumentException("Document " + document + " is out of order.");
+        }
+        openDocument(size, document);
+        ensureBytes(count);
+        System.arraycopy(buffer, offset, positions, length, count);
+        length += count;
+        frequencies[size - 1] = frequency;
+
+        // the last position is the sum of every delta
+        int position = 0;
+        for (int i = offset, end = offset + count; i < end;) {
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer[i++];
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            position += delta;
+        }
+        last = position;
+    }
+
+    /**
+     * Slow path of {@link #add(int, int)} used when a position arrives out of
+     * order. Decodes the document's positions, inserts the new one and re-encodes
+     * them in place.
+     *
+     * @param document the document id
+     * @param position the position within the document
+     * @return boolean if the posting list was changed
+     */
+    private boolean insert(int document, int position) {
+        int index = indexOf(document);
+        int[] current = index >= 0 ? positions(index) : new int[0];
+        int found = Arrays.binarySearch(current, position);
+        if (found >= 0) {
+            return false;
+        }
+
+        int point = -found - 1;
+        int[] updated = new int[current.length + 1];
+        System.arraycopy(current, 0, updated, 0, point);
+        updated[point] = position;
+        System.arraycopy(current, point, updated, point + 1, current.length - point);
+
+        if (index < 0) {
+            index = -index - 1;
+            openDocument(index, document);
+        }
+        rewrite(index, updated);
+        return true;
+    }
+
+    /**
+     * Merges the sorted positions into the given document, re-encoding the
+     * document's positions once instead of once per position
+     *
+     * @param document the document id
+     * @param values   the sorted positions to add
+     */
+    private void insertAll(int document, int[] values) {
+        int index = indexOf(document);
+        int[] current = index >= 0 ? positions(index) : new int[0];
+        int[] merged = new int[current.length + values.length];
+        int i = 0;
+        int j = 0;
+        int count = 0;
+        while (i < current.length || j < values.length) {
+            if (j == values.length || (i < current.length && current[i] < values[j])) {
+                merged[count++] = current[i++];
+            } else if (i == current.length || values[j] < current[i]) {
+                merged[count++] = values[j++];
+            } else {
+                merged[count++] = current[i++];
+                j++;
+            }
+        }
+        if (count == current.length) {
+            return;
+        }
+
+        if (index < 0) {
+            index = -index - 1;
+            openDocument(index, document);
+        }
+        rewrite(index, Arrays.copyOf(merged, count));
+    }
+
+    /**
+     * Makes room for a new, empty document at the given index
+     *
+     * @param index    the index to insert the document at
+     * @param document the document id
+     */
+    private void openDocument(int index, int document) {
+        if (size == documents.length) {
+            int capacity = size + (size >> 1) + 1;
+            documents = Arrays.copyOf(documents, capacity);
+            frequencies = Arrays.copyOf(frequencies, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+        }
+        int start = index < size ? offsets[index] : length;
+        System.arraycopy(documents, index, documents, index + 1, size - index);
+        System.arraycopy(frequencies, index, frequencies, index + 1, size - index);
+        System.arraycopy(offsets, index, offsets, index + 1, size - index);
+        documents[index] = document;
+        frequencies[index] = 0;
+        offsets[index] = start;
+        size++;
+    }
+
+    /**
+     * Replaces the encoded positions of the document at the given index
+     *
+     * @param index  the index of the document
+     * @param values the sorted positions to store
+     */
+    private void rewrite(int index, int[] values) {
+        byte[] encoded = new byte[values.length * 5];
+        int used = 0;
+        int previous = 0;
+        for (int value : values) {
+            used = encode(value - previous, encoded, used);
+            previous = value;
+        }
+
+        int start = offsets[index];
+        int end = end(index);
+        int difference = used - (end - start);
+        ensureBytes(difference);
+        System.arraycopy(positions, end, positions, end + difference, length - end);
+        System.arraycopy(encoded, 0, positions, start, used);
+        length += difference;
+
+        for (int i = index + 1; i < size; i++) {
+            offsets[i] += difference;
+        }
+        frequencies[index] = values.length;
+        if (index == size - 1) {
+            last = values[values.length - 1];
+        }
+    }
+
+    /**
+     * Returns the offset just past the positions of the document at the given
+     * index
+     *
+     * @param index the index of the document
+     * @return the end offset
+     */
+    private int end(int index) {
+        return index + 1 < size ? offsets[index + 1] : length;
+    }
+
+    /**
+     * Returns the largest position of the document at the given index
+     *
+     * @param index the index of the document
+     * @return the last position
+     */
+    private int lastPosition(int index) {
+        if (index == size - 1) {
+            return last;
+        }
+        int[] decoded = positions(index);
+        return decoded[decoded.length - 1];
+    }
+
+    /**
+     * Grows the byte array so at least the given number of extra bytes fit
+     *
+     * @param extra the number of bytes about to be written
+     */
+    private void ensureBytes(int extra) {
+        if (length + extra > positions.length) {
+            positions = Arrays.copyOf(positions, Math.max(length + extra, positions.length + (positions.length >> 1)));
+        }
+    }
+
+    /**
+     * Writes the value as an unsigned variable-byte integer, seven bits at a time
+     * with the high bit set on every byte except the last.
+     *
+     * @param value  the value to encode
+     * @param buffer the buffer to write to
+     * @param offset the offset to start writing at
+     * @return the offset just past the written bytes
+     */
+    private static int encode(int value, byte[] buffer, int offset) {
+        while ((value & ~0x7F) != 0) {
+            buffer[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[offset++] = (byte) value;
+        return offset;
+    }
+}
@@ -2,8 +2,10 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Handles the Queries used for Search
@@ -62,6 +64,22 @@ public class QueryHandler implements QueryHandlerInterface {
 
     }
 
+    /**
+     * Searches for the query on the calling thread
+     * 
+     * @param query the line of queries to search for
+     * @param exact flag for exact or partial search
+     * @return a completed future of the unmodifiable list of the results
+     */
+    @Override
+    public CompletableFuture<List<InvertedIndex.SearchResult>> search(String query, boolean exact) {
+        TreeSet<String> cleaned = TextFileStemmer.uniqueStems(query);
+        if (cleaned.isEmpty()) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+        return CompletableFuture.completedFuture(Collections.unmodifiableList(this.index.search(cleaned, exact)));
+    }
+
     /**
      * outputs the results into pretty Json format to the given path
      * 
@@ -70,7 +88,16 @@ public class QueryHandler implements QueryHandlerInterface {
     @Override
     public void outputResults(Path output) {
         try {
-            SimpleJsonWriter.writeSearchResultsToFile(allResults, output);
+            try (JsonStreamWriter json = JsonStreamWriter.open(output, true)) {
+                json.beginObject();
+                for (Map.Entry<String, List<InvertedIndex.SearchResult>> entry : allResults.entrySet()) {
+                    json.writeResults(entry.getKey(), entry.getValue());
+                    if (json.isFull()) {
+                        json.flush();
+                    }
+                }
+                json.endObject();
+            }
         } catch (IOException e) {
             System.out.println("Unable to write the results to the given output file: " + output);
         }
@@ -3,6 +3,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Interface used for query handling
@@ -43,6 +44,18 @@ public interface QueryHandlerInterface {
      */
     public List<InvertedIndex.SearchResult> getResults(String query);
 
+    /**
+     * Searches for the query and returns a future completed with the results, so
+     * callers such as servlets never have to wait for a search queued by
+     * {@link #handleQueries(String, boolean)}. The future may already be complete
+     * if the search ran synchronously or the results were cached.
+     * 
+     * @param query the line of queries to search for
+     * @param exact flag for exact or partial search
+     * @return the future unmodifiable list of the results
+     */
+    public CompletableFuture<List<InvertedIndex.SearchResult>> search(String query, boolean exact);
+
     /**
      * Outputs the search results to the given output file
      * 
@@ -0,0 +1,483 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Reads one HTTP/1.1 response from a connection straight into a byte buffer.
+ * The headers are parsed in place, a chunked body is unframed in place, and the
+ * body is decoded once into a string using the charset of its "Content-Type"
+ * header. Nothing is split into lines or copied between the socket and that
+ * string.
+ *
+ * Buffers are taken from a small shared pool and given back after each
+ * response, so a long crawl reuses the same few buffers for every page instead
+ * of allocating new ones. Buffers that grew past {@link #POOLED_CAPACITY} to
+ * hold a large page are dropped rather than kept.
+ *
+ * @author stewartpowell
+ */
+public class ResponseReader {
+
+    /** The default largest body read, in bytes */
+    public static final int DEFAULT_MAX = 8 << 20;
+
+    /** The largest status line and headers read, in bytes */
+    private static final int MAX_HEADERS = 64 << 10;
+
+    /** The most interim (1xx) responses read before the final response */
+    private static final int MAX_INTERIM = 16;
+
+    /** The initial capacity of a buffer */
+    private static final int INITIAL_CAPACITY = 32 << 10;
+
+    /** The largest capacity of a buffer kept in the pool */
+    private static final int POOLED_CAPACITY = 1 << 20;
+
+    /** The buffers not in use */
+    private static final ArrayBlockingQueue<ByteBuffer> POOL = new ArrayBlockingQueue<>(32);
+
+    /** The largest body read, in bytes */
+    private final int max;
+
+    /** The buffer holding the response */
+    private ByteBuffer buffer;
+
+    /** The bytes of the buffer */
+    private byte[] bytes;
+
+    /** The number of bytes read into the buffer */
+    private int end;
+
+    /** Whether the connection can be used for another request */
+    private boolean reusable;
+
+    /**
+     * Creates a reader with a buffer from the pool, which must be given back with
+     * {@link #release()} once the response has been read
+     *
+     * @param max the largest body read, in bytes
+     */
+    ResponseReader(int max) {
+        ByteBuffer pooled = POOL.poll();
+        this.max = max;
+        this.buffer = pooled != null ? pooled : ByteBuffer.allocate(INITIAL_CAPACITY);
+        this.bytes = buffer.array();
+        this.end = 0;
+        this.reusable = false;
+    }
+
+    /**
+     * Reads a response, skipping any interim (1xx) responses before the final one
+     *
+     * @param input the input of a connection, after the request was sent
+     * @return the response
+     * @throws EOFException if the connection closed before any of the response
+     *                      was read
+     * @throws IOException  if unable to read the response, or if its body is
+     *                      larger than the maximum
+     */
+    FetchedPage read(InputStream input) throws IOException {
+        end = 0;
+        reusable = false;
+
+        int bodyStart = readHeaders(input);
+        Map<String, List<String>> headers = parseHeaders(bodyStart);
+        int status = parseStatus(headers.get(null).get(0));
+
+        // an interim response such as "103 Early Hints" has no body and is followed
+        // by the final response on the same connection
+        for (int interim = 0; status / 100 == 1 && status != 101; interim++) {
+            if (interim == MAX_INTERIM) {
+                throw new IOException("More than " + MAX_INTERIM + " interim responses");
+            }
+            System.arraycopy(bytes, bodyStart, bytes, 0, end - bodyStart);
+            end -= bodyStart;
+            bodyStart = readHeaders(input);
+            headers = parseHeaders(bodyStart);
+            status = parseStatus(headers.get(null).get(0));
+        }
+
+        String connection = getHeader(headers, "Connection");
+        boolean close = connection != null && connection.equalsIgnoreCase("close");
+
+        int bodyEnd;
+        String encoding = getHeader(headers, "Transfer-Encoding");
+        String length = getHeader(headers, "Content-Length");
+        if (status == 101) {
+            // the connection switched to another protocol, so it cannot be reused
+            bodyEnd = bodyStart;
+        } else if (status == 204 || status == 304) {
+            bodyEnd = bodyStart;
+            reusable = !close;
+        } else if (encoding != null && encoding.toLowerCase(Locale.ROOT).contains("chunked")) {
+            bodyEnd = readChunked(input, bodyStart);
+            reusable = !close;
+        } else if (length != null && isNumber(length.trim())) {
+            long size = Long.parseLong(length.trim());
+            if (size > max) {
+                throw new IOException("Body of " + size + " bytes is larger than " + max);
+            }
+            bodyEnd = bodyStart + (int) size;
+            fill(input, bodyEnd);
+            reusable = !close;
+        } else {
+            bodyEnd = readToClose(input, bodyStart);
+        }
+
+        int size = bodyEnd - bodyStart;
+        String content = new String(bytes, bodyStart, size, getCharset(getHeader(headers, "Content-Type")));
+        return new FetchedPage(status, headers, content, size);
+    }
+
+    /**
+     * Returns whether the connection can be used for another request, which is
+     * only known once a response has been read completely
+     *
+     * @return {@code true} if the body had a known length and the server did not
+     *         ask to close the connection
+     */
+    boolean isReusable() {
+        return reusable;
+    }
+
+    /**
+     * Reads until the end of the headers
+     *
+     * @param input the input of the connection
+     * @return the index of the first byte of the body
+     * @throws IOException if the connection closed or the headers are too large
+     */
+    private int readHeaders(InputStream input) throws IOException {
+        int scanned = 0;
+        while (true) {
+            // a blank line ends the headers, ending in "\r\n" or just "\n"
+            for (; scanned < end; scanned++) {
+                if (bytes[scanned] == '\n') {
+                    if (scanned >= 1 && bytes[scanned - 1] == '\n') {
+                        return scanned + 1;
+                    }
+                    if (scanned >= 2 && bytes[scanned - 1] == '\r' && bytes[scanned - 2] == '\n') {
+                        return scanned + 1;
+                    }
+                }
+            }
+            if (end >= MAX_HEADERS) {
+                throw new IOException("Headers are larger than " + MAX_HEADERS + " bytes");
+            }
+            if (end == bytes.length) {
+                grow(end + 1);
+            }
+            if (readMore(input, Math.min(bytes.length - end, MAX_HEADERS - end)) < 0) {
+                if (end == 0) {
+                    throw new EOFException("Connection closed before the response");
+                }
+                throw new EOFException("Connection closed before the end of the headers");
+            }
+        }
+    }
+
+    /**
+     * Parses the status line and header fields
+     *
+     * @param bodyStart the index of the first byte of the body
+     * @return a map of header fields to a list of header values, with the status
+     *         line under the {@code null} key
+     *
+     * @see HttpsFetcher#getHeaderFields(java.io.BufferedReader)
+     */
+    private Map<String, List<String>> parseHeaders(int bodyStart) {
+        Map<String, List<String>> results = new HashMap<>();
+        int start = 0;
+        while (start < bodyStart) {
+            int newline = start;
+            while (bytes[newline] != '\n') {
+                newline++;
+            }
+            int stop = newline > start && bytes[newline - 1] == '\r' ? newline - 1 : newline;
+            String line = new String(bytes, start, stop - start, StandardCharsets.ISO_8859_1);
+            start = newline + 1;
+
+            if (results.isEmpty()) {
+                results.put(null, List.of(line));
+            } else if (!line.isBlank()) {
+                String[] split = line.split(":\\s*", 2);
+                results.computeIfAbsent(split[0], key -> new ArrayList<>()).add(split.length == 2 ? split[1] : "");
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Reads a chunked body, moving each chunk down over the framing before it so
+     * the body ends up in one piece
+     *
+     * @param input     the input of the connection
+     * @param bodyStart the index of the first byte of the body
+     * @return the index after the last byte of the body
+     * @throws IOException if the connection closed, the framing is invalid or the
+     *                     body is too large
+     */
+    private int readChunked(InputStream input, int bodyStart) throws IOException {
+        int out = bodyStart;
+        int position = bodyStart;
+        while (true) {
+            int newline = findLine(input, position);
+            int size = parseChunkSize(position, newline);
+            position = newline + 1;
+            if (size == 0) {
+                break;
+            }
+            if ((long) out - bodyStart + size > max) {
+                throw new IOException("Body is larger than " + max + " bytes");
+            }
+
+            fill(input, position + size);
+            System.arraycopy(bytes, position, bytes, out, size);
+            out += size;
+            position += size;
+            position = findLine(input, position) + 1;
+
+            // the framing already read can be dropped to keep the buffer small
+            System.arraycopy(bytes, position, bytes, out, end - position);
+            end -= position - out;
+            position = out;
+        }
+
+        // skip any trailing headers up to the blank line
+        int newline;
+        while ((newline = findLine(input, position)) > position
+                && !(newline == position + 1 && bytes[position] == '\r')) {
+            position = newline + 1;
+        }
+        return out;
+    }
+
+    /**
+     * Reads a body that ends when the server closes the connection
+     *
+     * @param input     the input of the connection
+     * @param bodyStart the index of the first byte of the body
+     * @return the index after the last byte of the body
+     * @throws IOException if unable to read or the body is too large
+     */
+    private int readToClose(InputStream input, int bodyStart) throws IOException {
+        while (true) {
+            if (end - bodyStart > max) {
+                throw new IOException("Body is larger than " + max + " bytes");
+            }
+            if (end == bytes.length) {
+                grow(end + 1);
+            }
+            if (readMore(input, bytes.length - end) < 0) {
+                return end;
+            }
+        }
+    }
+
+    /**
+     * Reads until a newline is in the buffer at or after the position
+     *
+     * @param input    the input of the connection
+     * @param position where the line starts
+     * @return the index of the newline
+     * @throws IOException if the connection closed first or the line is too long
+     */
+    private int findLine(InputStream input, int position) throws IOException {
+        int scanned = position;
+        while (true) {
+            for (; scanned < end; scanned++) {
+                if (bytes[scanned] == '\n') {
+                    return scanned;
+                }
+            }
+            if (scanned - position > MAX_HEADERS) {
+                throw new IOException("Line is longer than " + MAX_HEADERS + " bytes");
+            }
+            if (end == bytes.length) {
+                grow(end + 1);
+            }
+            if (readMore(input, bytes.length - end) < 0) {
+                throw new EOFException("Connection closed before the end of the body");
+            }
+        }
+    }
+
+    /**
+     * Parses the size of a chunk from the line that starts it, ignoring any
+     * extensions after a ';'
+     *
+     * @param start   the index of the first byte of the line
+     * @param newline the index of the newline ending the line
+     * @return the size of the chunk in bytes
+     * @throws IOException if the size is not a valid hexadecimal number
+     */
+    private int parseChunkSize(int start, int newline) throws IOException {
+        long size = 0;
+        int digits = 0;
+        for (int i = start; i < newline; i++) {
+            int digit = Character.digit(bytes[i], 16);
+            if (digit < 0) {
+                if (bytes[i] == ';' || bytes[i] == '\r' || bytes[i] == ' ' || bytes[i] == '\t') {
+                    break;
+                }
+                throw new IOException("Invalid chunk size");
+            }
+            size = size * 16 + digit;
+            digits++;
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Chunk is larger than " + max + " bytes");
+            }
+        }
+        if (digits == 0) {
+            throw new IOException("Missing chunk size");
+        }
+        return (int) size;
+    }
+
+    /**
+     * Reads until the buffer holds at least the given number of bytes
+     *
+     * @param input  the input of the connection
+     * @param needed the number of bytes
+     * @throws IOException if the connection closed first
+     */
+    private void fill(InputStream input, int needed) throws IOException {
+        if (needed > bytes.length) {
+            grow(needed);
+        }
+        while (end < needed) {
+            if (readMore(input, needed - end) < 0) {
+                throw new EOFException("Connection closed before the end of the body");
+            }
+        }
+    }
+
+    /**
+     * Reads whatever is available from the connection into the buffer, blocking
+     * only if nothing is
+     *
+     * @param input  the input of the connection
+     * @param length the most bytes to read, at least 1
+     * @return the number of bytes read, or -1 if the connection closed
+     * @throws IOException if unable to read
+     */
+    private int readMore(InputStream input, int length) throws IOException {
+        int read = input.read(bytes, end, length);
+        if (read > 0) {
+            end += read;
+        }
+        return read;
+    }
+
+    /**
+     * Replaces the buffer with a larger one holding the same bytes
+     *
+     * @param needed the least capacity needed
+     */
+    private void grow(int needed) {
+        int capacity = (int) Math.min(Math.max((long) bytes.length * 2, needed), Integer.MAX_VALUE - 8);
+        ByteBuffer larger = ByteBuffer.allocate(capacity);
+        larger.put(bytes, 0, end);
+        buffer = larger;
+        bytes = larger.array();
+    }
+
+    /**
+     * Gives the buffer back to the pool if it is small enough to keep. The reader
+     * cannot be used afterwards.
+     */
+    void release() {
+        if (buffer != null && buffer.capacity() <= POOLED_CAPACITY) {
+            buffer.clear();
+            POOL.offer(buffer);
+        }
+        buffer = null;
+        bytes = null;
+    }
+
+    /**
+     * Parses the status code from a status line such as "HTTP/1.1 200 OK"
+     *
+     * @param line the status line
+     * @return the status code, or -1 if the line has none
+     */
+    private static int parseStatus(String line) {
+        int space = line.indexOf(' ');
+        if (space < 0 || line.length() < space + 4) {
+            return -1;
+        }
+        String code = line.substring(space + 1, space + 4);
+        return isNumber(code) ? Integer.parseInt(code) : -1;
+    }
+
+    /**
+     * Returns whether text is a non-empty run of at most 18 decimal digits, so it
+     * can be parsed as a long
+     *
+     * @param text the text
+     * @return {@code true} if the text is a number
+     */
+    private static boolean isNumber(String text) {
+        if (text.isEmpty() || text.length() > 18) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) < '0' || text.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the first value of a header, ignoring the case of its name
+     *
+     * @param headers the headers of a response
+     * @param name    the name of the header
+     * @return the first value, or {@code null} if there is no such header
+     */
+    static String getHeader(Map<String, List<String>> headers, String name) {
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey()) && !header.getValue().isEmpty()) {
+                return header.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the charset named by a "Content-Type" header, such as
+     * "text/html; charset=ISO-8859-1", or UTF-8 if it names none or one that is not
+     * supported
+     *
+     * @param type the value of the header, or {@code null}
+     * @return the charset
+     */
+    static Charset getCharset(String type) {
+        if (type != null) {
+            for (String parameter : type.split(";")) {
+                String[] split = parameter.trim().split("=", 2);
+                if (split.length == 2 && split[0].trim().equalsIgnoreCase("charset")) {
+                    String name = split[1].trim().replace("\"", "").replace("'", "");
+                    try {
+                        return Charset.forName(name);
+                    } catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+                        break;
+                    }
+                }
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+}
@@ -0,0 +1,396 @@
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, thread-safe cache of search results in front of an
+ * {@link InvertedIndex}. Results are cached by the stems of the query and
+ * whether the search was exact or partial, so popular queries are answered
+ * without searching the index again.
+ *
+ * Every result is stamped with the generation of the index it was found in. As
+ * soon as words are added to the index its generation changes, and results
+ * found before that are treated as missing.
+ *
+ * The cache is split into segments that each evict their least recently used
+ * queries. The size of the cache is measured in search results rather than
+ * queries, since a partial search can return thousands of results.
+ *
+ * @author stewartpowell
+ */
+public class ResultCache {
+
+    /** The default number of search results kept by the cache */
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+
+    /** The number of segments, each with its own lock */
+    private static final int SEGMENTS = 16;
+
+    /** The index being searched */
+    private final InvertedIndex index;
+
+    /** The number of search results kept by the cache */
+    private final int capacity;
+
+    /** The segments of the cache */
+    private final Segment[] segments;
+
+    /** The number of searches answered by the cache */
+    private final LongAdder hits;
+
+    /** The number of searches that had to search the index */
+    private final LongAdder misses;
+
+    /** The number of cached searches found to be stale */
+    private final LongAdder stale;
+
+    /** The number of searches evicted to stay within the capacity */
+    private final LongAdder evictions;
+
+    /**
+     * Instantiates a cache with the default capacity
+     *
+     * @param index the index to search
+     * @see #ResultCache(InvertedIndex, int)
+     */
+    public ResultCache(InvertedIndex index) {
+        this(index, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Instantiates a cache
+     *
+     * @param index    the index to search
+     * @param capacity the number of search results kept by the cache
+     */
+    public ResultCache(InvertedIndex index, int capacity) {
+        this.index = index;
+        this.capacity = Math.max(capacity, SEGMENTS);
+        this.segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(this.capacity / SEGMENTS);
+        }
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.stale = new LongAdder();
+        this.evictions = new LongAdder();
+    }
+
+    /**
+     * Returns the results of searching the index for the stems, searching the
+     * index only if they are not cached or stale
+     *
+     * @param stems the unique, sorted stems of the query, such as those returned
+     *              by {@link TextFileStemmer#uniqueStems(String)}
+     * @param exact whether exact or partial search will be performed
+     * @return an unmodifiable list of the sorted results
+     */
+    public List<InvertedIndex.SearchResult> search(Collection<String> stems, boolean exact) {
+        Key key = new Key(String.join(" ", stems), exact);
+        Segment segment = segments[key.hashCode() & (SEGMENTS - 1)];
+
+        // read first, so results are never stamped newer than what they saw
+        long generation = index.getGeneration();
+        List<InvertedIndex.SearchResult> results = lookup(segment, key, generation);
+        if (results != null) {
+            hits.increment();
+            return results;
+        }
+
+        // searching is the slow part, so do it outside of the lock
+        misses.increment();
+        results = Collections.unmodifiableList(index.search(stems, exact));
+        synchronized (segment) {
+            Cached entry = segment.get(key);
+            if (entry == null || entry.generation < generation) {
+                segment.put(key, new Cached(results, generation));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Returns the cached results of searching for the stems, without searching
+     * the index. Results found count as a hit, but nothing counts as a miss.
+     *
+     * @param stems the unique, sorted stems of the query
+     * @param exact whether exact or partial search was performed
+     * @return an unmodifiable list of the sorted results, or {@code null} if
+     *         they are not cached or stale
+     */
+    public List<InvertedIndex.SearchResult> get(Collection<String> stems, boolean exact) {
+        Key key = new Key(String.join(" ", stems), exact);
+        List<InvertedIndex.SearchResult> results = lookup(segments[key.hashCode() & (SEGMENTS - 1)], key,
+                index.getGeneration());
+        if (results != null) {
+            hits.increment();
+        }
+        return results;
+    }
+
+    /**
+     * Looks up a query in its segment, removing it if it is stale
+     *
+     * @param segment    the segment of the query
+     * @param key        the query
+     * @param generation the current generation of the index
+     * @return the results, or {@code null} if they are not cached or stale
+     */
+    private List<InvertedIndex.SearchResult> lookup(Segment segment, Key key, long generation) {
+        synchronized (segment) {
+            Cached entry = segment.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.generation != generation) {
+                stale.increment();
+                segment.remove(key);
+                return null;
+            }
+            return entry.results;
+        }
+    }
+
+    /**
+     * Removes every cached search
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of searches answered by the cache
+     *
+     * @return the number of hits
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of searches that were not cached, or were stale, and had
+     * to search the index
+     *
+     * @return the number of misses
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of cached searches thrown away because words were added
+     * to the index after they were found
+     *
+     * @return the number of stale searches
+     */
+    public long stale() {
+        return stale.sum();
+    }
+
+    /**
+     * Returns the number of searches evicted from the cache to stay within its
+     * capacity
+     *
+     * @return the number of evictions
+     */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns the fraction of searches answered by the cache
+     *
+     * @return the hit rate, between 0 and 1
+     */
+    public double hitRate() {
+        long hits = hits();
+        long total = hits + misses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Returns the number of cached searches
+     *
+     * @return the number of searches
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of search results held by the cache
+     *
+     * @return the number of search results
+     */
+    public long weight() {
+        long weight = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                weight += segment.weight;
+            }
+        }
+        return weight;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Result cache: %d hits, %d misses, %.2f%% hit rate, %d stale, %d searches, "
+                + "%d of %d results, %d evictions", hits(), misses(), hitRate() * 100, stale(), size(), weight(),
+                capacity, evictions());
+    }
+
+    /**
+     * The stems of a query and whether the search is exact or partial
+     */
+    private static class Key {
+
+        /** The stems of the query, joined by spaces */
+        private final String stems;
+
+        /** Whether the search is exact or partial */
+        private final boolean exact;
+
+        /**
+         * Creates a key
+         *
+         * @param stems the stems of the query, joined by spaces
+         * @param exact whether the search is exact or partial
+         */
+        private Key(String stems, boolean exact) {
+            this.stems = stems;
+            this.exact = exact;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 31 * stems.hashCode() + (exact ? 1 : 0);
+            return hash ^ (hash >>> 16);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return exact == key.exact && stems.equals(key.stems);
+        }
+    }
+
+    /**
+     * The results of one search and the generation of the index they were found
+     * in
+     */
+    private static class Cached {
+
+        /** The unmodifiable, sorted results */
+        private final List<InvertedIndex.SearchResult> results;
+
+        /** The generation of the index when the search started */
+        private final long generation;
+
+        /**
+         * Creates an entry
+         *
+         * @param results    the unmodifiable, sorted results
+         * @param generation the generation of the index when the search started
+         */
+        private Cached(List<InvertedIndex.SearchResult> results, long generation) {
+            this.results = results;
+            this.generation = generation;
+        }
+
+        /**
+         * Returns the number of results the entry counts for towards the capacity
+         *
+         * @return the weight, at least 1 so empty results are counted too
+         */
+        private int weight() {
+            return results.size() + 1;
+        }
+    }
+
+    /**
+     * One segment of the cache, kept in access order so the least recently used
+     * search is evicted first. Access must be synchronized on the segment.
+     */
+    private class Segment extends LinkedHashMap<Key, Cached> {
+
+        /** Unused */
+        private static final long serialVersionUID = 1L;
+
+        /** The number of search results kept by this segment */
+        private final int limit;
+
+        /** The number of search results held by this segment */
+        private long weight;
+
+        /**
+         * Creates an empty segment
+         *
+         * @param limit the number of search results kept by this segment
+         */
+        private Segment(int limit) {
+            super(16, 0.75f, true);
+            this.limit = limit;
+            this.weight = 0;
+        }
+
+        /**
+         * Adds the search, evicting the least recently used searches until the
+         * segment is within its limit. Searches with more results than the limit
+         * are not kept at all.
+         *
+         * @param key   the query
+         * @param entry the results of the search
+         * @return the previous results of the query, or {@code null}
+         */
+        @Override
+        public Cached put(Key key, Cached entry) {
+            Cached previous = entry.weight() > limit ? super.remove(key) : super.put(key, entry);
+            if (previous != null) {
+                weight -= previous.weight();
+            }
+            if (entry.weight() > limit) {
+                return previous;
+            }
+            weight += entry.weight();
+
+            Iterator<Cached> eldest = values().iterator();
+            while (weight > limit) {
+                weight -= eldest.next().weight();
+                eldest.remove();
+                evictions.increment();
+            }
+            return previous;
+        }
+
+        @Override
+        public Cached remove(Object key) {
+            Cached previous = super.remove(key);
+            if (previous != null) {
+                weight -= previous.weight();
+            }
+            return previous;
+        }
+
+        @Override
+        public void clear() {
+            super.clear();
+            weight = 0;
+        }
+    }
+}
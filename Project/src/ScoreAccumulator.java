@@ -0,0 +1,193 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Accumulates the matches of each document while the words of one query are
+ * searched. Matches are added straight from the postings into a dense array
+ * indexed by document id, and the ids of the documents touched are remembered
+ * so only those entries are cleared afterwards. Accumulators are taken from a
+ * small shared pool and given back after each query, so scoring allocates
+ * nothing per posting or per query, even when every query is searched on a new
+ * virtual thread. Accumulators that grew past {@link #POOLED_DOCUMENTS} for a
+ * very large index are dropped rather than kept.
+ *
+ * {@link InvertedIndex.SearchResult} objects are only created for the results
+ * that are returned, which for a top-k search is just the best k documents.
+ *
+ * Warning: This class is not thread-safe. Use {@link #get(int)} to obtain an
+ * accumulator for one search, and {@link #release()} to give it back.
+ *
+ * @author stewartpowell
+ */
+class ScoreAccumulator {
+
+    /** The largest number of documents of an accumulator kept in the pool */
+    private static final int POOLED_DOCUMENTS = 1 << 20;
+
+    /** The accumulators not in use */
+    private static final ArrayBlockingQueue<ScoreAccumulator> POOL = new ArrayBlockingQueue<>(32);
+
+    /** The number of matches of each document, indexed by id */
+    private int[] counts;
+
+    /** The ids of the documents with at least one match, in the order found */
+    private int[] touched;
+
+    /** The number of documents with at least one match */
+    private int size;
+
+    /** The number of documents in the index when the search started */
+    private int limit;
+
+    /**
+     * Creates an empty accumulator
+     */
+    private ScoreAccumulator() {
+        this.counts = new int[64];
+        this.touched = new int[64];
+        this.size = 0;
+        this.limit = 0;
+    }
+
+    /**
+     * Returns an empty accumulator from the pool, large enough for the given
+     * number of documents. It must be given back with {@link #release()} when the
+     * search is done. Matches in documents added to the index after the search
+     * started are ignored, so the index does not need to be locked against new
+     * documents for the whole search.
+     *
+     * @param documents the number of documents in the index being searched
+     * @return the accumulator
+     */
+    static ScoreAccumulator get(int documents) {
+        ScoreAccumulator scores = POOL.poll();
+        if (scores == null) {
+            scores = new ScoreAccumulator();
+        }
+        if (scores.counts.length < documents) {
+            int length = Math.max(documents, scores.counts.length * 2);
+            scores.counts = Arrays.copyOf(scores.counts, length);
+            scores.touched = Arrays.copyOf(scores.touched, length);
+        }
+        scores.limit = documents;
+        return scores;
+    }
+
+    /**
+     * Adds the matches of one word in a document
+     *
+     * @param document the id of the document
+     * @param matches  the number of positions of the word in the document, at
+     *                 least 1
+     */
+    void add(int document, int matches) {
+        if (document >= limit) {
+            return;
+        }
+        if (counts[document] == 0) {
+            touched[size++] = document;
+        }
+        counts[document] += matches;
+    }
+
+    /**
+     * Resets every touched document and gives the accumulator back to the pool
+     * if it is small enough to keep. The accumulator cannot be used afterwards.
+     */
+    void release() {
+        for (int i = 0; i < size; i++) {
+            counts[touched[i]] = 0;
+        }
+        size = 0;
+        if (counts.length <= POOLED_DOCUMENTS) {
+            POOL.offer(this);
+        }
+    }
+
+    /**
+     * Creates the results for the best k documents. If there are more than k
+     * matching documents, a heap of document ids keeps the best k found so far,
+     * with the worst of them at the root.
+     *
+     * @param index the index whose document table the ids refer to
+     * @param k     the maximum number of results
+     * @return the unsorted results of the best k documents
+     */
+    List<InvertedIndex.SearchResult> results(InvertedIndex index, int k) {
+        DocumentTable documents = index.getDocuments();
+        List<InvertedIndex.SearchResult> results = new ArrayList<>(Math.max(0, Math.min(size, k)));
+        if (k <= 0) {
+            return results;
+        }
+        if (size <= k) {
+            for (int i = 0; i < size; i++) {
+                results.add(index.new SearchResult(touched[i], counts[touched[i]]));
+            }
+            return results;
+        }
+
+        int[] heap = Arrays.copyOf(touched, k);
+        for (int i = k / 2 - 1; i >= 0; i--) {
+            siftDown(heap, i, documents);
+        }
+        for (int i = k; i < size; i++) {
+            if (compare(touched[i], heap[0], documents) < 0) {
+                heap[0] = touched[i];
+                siftDown(heap, 0, documents);
+            }
+        }
+        for (int document : heap) {
+            results.add(index.new SearchResult(document, counts[document]));
+        }
+        return results;
+    }
+
+    /**
+     * Moves the document at the index down the heap until both of its children
+     * are better than it
+     *
+     * @param heap      the heap of document ids, worst at the root
+     * @param index     the index of the document to move
+     * @param documents the document table
+     */
+    private void siftDown(int[] heap, int index, DocumentTable documents) {
+        int document = heap[index];
+        int half = heap.length / 2;
+        while (index < half) {
+            int child = 2 * index + 1;
+            if (child + 1 < heap.length && compare(heap[child + 1], heap[child], documents) > 0) {
+                child++;
+            }
+            if (compare(heap[child], document, documents) <= 0) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = document;
+    }
+
+    /**
+     * Compares two documents in the order of
+     * {@link InvertedIndex.SearchResult#compareTo(InvertedIndex.SearchResult)},
+     * without creating the results
+     *
+     * @param a         the id of the first document
+     * @param b         the id of the second document
+     * @param documents the document table
+     * @return a negative number if the first document ranks better
+     */
+    private int compare(int a, int b, DocumentTable documents) {
+        double scoreA = (double) counts[a] / documents.getLength(a);
+        double scoreB = (double) counts[b] / documents.getLength(b);
+        if (Double.compare(scoreA, scoreB) != 0) {
+            return Double.compare(scoreB, scoreA);
+        }
+        if (counts[a] != counts[b]) {
+            return Integer.compare(counts[b], counts[a]);
+        }
+        return documents.getLocation(a).compareToIgnoreCase(documents.getLocation(b));
+    }
+}
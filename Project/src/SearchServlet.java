@@ -3,8 +3,11 @@ import java.io.PrintWriter;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.concurrent.TimeUnit;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -35,8 +38,8 @@ public class SearchServlet extends HttpServlet {
     /** The logger to use for this servlet. */
     private static Logger log = Log.getRootLogger();
 
-    /** The thread-safe Query Handler to do the searching. */
-    private final ThreadedQueryHandler handler;
+    /** The Query Handler to do the searching. */
+    private final QueryHandlerInterface handler;
 
     /**
      * Initializes this message board. Each message board has its own collection of
@@ -46,7 +49,7 @@ public class SearchServlet extends HttpServlet {
      * 
      * @throws IOException if unable to read template
      */
-    public SearchServlet(ThreadedQueryHandler handler) throws IOException {
+    public SearchServlet(QueryHandlerInterface handler) throws IOException {
         super();
 
         this.handler = handler;
@@ -59,19 +62,56 @@ public class SearchServlet extends HttpServlet {
         log.info("SearchServlet ID " + this.hashCode() + " handling POST request.");
 
         String queries = request.getParameter("queries");
-        String exact = request.getParameter("exact");
-        System.out.println(exact);
-        boolean partial = exact != null ? true : false;
+        boolean exact = request.getParameter("exact") != null;
         // avoid xss attacks using apache commons text
         // comment out if you don't have this library installed
-        queries = StringEscapeUtils.escapeHtml4(queries);
-        System.out.println(partial);
-        handler.handleQueries(queries, partial);
-        try {
-            TimeUnit.SECONDS.sleep(1);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+        String escaped = queries == null ? "" : StringEscapeUtils.escapeHtml4(queries);
+        CompletableFuture<List<InvertedIndex.SearchResult>> search = handler.search(escaped, exact);
+
+        if (!request.isAsyncSupported()) {
+            try {
+                writeResults(response, escaped, search.join());
+            } catch (CompletionException e) {
+                log.warn("Unable to search for: " + escaped, e);
+                response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            }
+            return;
         }
+
+        // release the request thread while the search runs on the work queue
+        AsyncContext async = request.startAsync();
+        search.whenComplete((results, error) -> {
+            try {
+                HttpServletResponse asyncResponse = (HttpServletResponse) async.getResponse();
+                if (error != null) {
+                    log.warn("Unable to search for: " + escaped, error);
+                    asyncResponse.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                } else {
+                    writeResults(asyncResponse, escaped, results);
+                }
+            } catch (IOException | IllegalStateException e) {
+                // the client went away or the request timed out
+                log.warn("Unable to send the results for: " + escaped, e);
+            } finally {
+                try {
+                    async.complete();
+                } catch (IllegalStateException e) {
+                    // already completed by a timeout
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes the page listing the results of a search
+     * 
+     * @param response the response to write to
+     * @param queries  the escaped queries that were searched for
+     * @param results  the results of the search
+     * @throws IOException if unable to write the response
+     */
+    private static void writeResults(HttpServletResponse response, String queries,
+            List<InvertedIndex.SearchResult> results) throws IOException {
         PrintWriter out = response.getWriter();
         out.printf("<html>%n");
         out.printf("<head>");
@@ -90,12 +130,11 @@ public class SearchServlet extends HttpServlet {
         out.printf("<h3>Found: </h3%n");
         out.printf("<ul>%n");
 
-        if (handler.getResults(queries).isEmpty()) {
+        if (results.isEmpty()) {
             out.printf("<p> No Results found</p>");
         } else {
 
-            for (InvertedIndex.SearchResult query : handler.getResults(queries)) {
-                System.out.println(query);
+            for (InvertedIndex.SearchResult query : results) {
                 out.printf("<li><a href=%s>%s</a></li>", query.getWhere(), query.getWhere());
             }
         }
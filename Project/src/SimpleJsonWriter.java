@@ -6,6 +6,7 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -167,8 +168,8 @@ public class SimpleJsonWriter {
      * @param level  the level of indentation
      * @throws IOException throws IOException
      */
-    public static void writeIndexToJson(Map.Entry<String, TreeMap<String, TreeSet<Integer>>> entry, Writer writer,
-            int level) throws IOException {
+    public static void writeIndexToJson(Map.Entry<String, ? extends Map<String, ? extends Collection<Integer>>> entry,
+            Writer writer, int level) throws IOException {
         quote(entry.getKey(), writer, level);
         writer.write(": {\n");
         asNestedArray(entry.getValue(), writer, level);
@@ -212,8 +213,25 @@ public class SimpleJsonWriter {
      */
     public static String indexToJson(Map<String, TreeMap<String, TreeSet<Integer>>> index, Writer writer, int level)
             throws IOException {
+        return indexToJson(index.entrySet().iterator(), writer, level);
+    }
+
+    /**
+     * Writes the entries as a pretty JSON object with a nested array, one word at
+     * a time, so the whole index never has to exist as nested maps at once.
+     *
+     * @param entries the words of the index in sorted order
+     * @param writer  the writer to use
+     * @param level   the initial indent level
+     * 
+     * @return String the index converted to JSON formatted string
+     * @throws IOException if an IO error occurs
+     */
+    public static String indexToJson(
+            Iterator<? extends Map.Entry<String, ? extends Map<String, ? extends Collection<Integer>>>> entries,
+            Writer writer, int level) throws IOException {
         writer.write("{");
-        var locationIter = index.entrySet().iterator();
+        var locationIter = entries;
         level++;
         if (locationIter.hasNext()) {
             writer.write("\n");
@@ -237,8 +255,21 @@ public class SimpleJsonWriter {
      */
     public static void indexToJsonFile(TreeMap<String, TreeMap<String, TreeSet<Integer>>> index, Path path)
             throws IOException {
+        indexToJsonFile(index.entrySet().iterator(), path);
+    }
+
+    /**
+     * Outputs the given entries of an index in Json form to the given Path
+     * 
+     * @param entries the words of the index in sorted order
+     * @param path    the Path to output the Json to
+     * @throws IOException throws IOException
+     */
+    public static void indexToJsonFile(
+            Iterator<? extends Map.Entry<String, ? extends Map<String, ? extends Collection<Integer>>>> entries,
+            Path path) throws IOException {
         try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
-            indexToJson(index, writer, 0);
+            indexToJson(entries, writer, 0);
         }
     }
 
@@ -1,4 +1,8 @@
+import java.lang.invoke.VarHandle;
 import java.util.ConcurrentModificationException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Maintains a pair of associated locks, one for read-only operations and one
@@ -7,23 +11,55 @@ import java.util.ConcurrentModificationException;
  * also tracks which thread holds the lock. If unlock is called by any other
  * thread, a {@link ConcurrentModificationException} is thrown.
  *
+ * New readers wait while a writer is waiting, so a steady stream of readers
+ * cannot starve writers. In fair mode (the default), the readers that were
+ * already waiting when a writer releases the lock are let in as one batch
+ * before the next writer, so neither side can starve the other. Both locks are
+ * reentrant, and the thread holding the write lock may also take the read
+ * lock. Readers and writers wait on separate conditions, so an unlock only
+ * wakes the threads that can actually proceed.
+ *
+ * Short lookups may skip the lock entirely with an optimistic read; see
+ * {@link #tryOptimisticRead()} and {@link #validate(long)}.
+ *
  * @see SimpleLock
  * @see SimpleReadWriteLock
  */
 public class SimpleReadWriteLock {
 
     /** The lock used for reading. */
-    private final SimpleLock readerLock;
+    private final ReadLock readerLock;
 
     /** The lock used for writing. */
-    private final SimpleLock writerLock;
+    private final WriteLock writerLock;
 
-    /** The number of active readers. */
+    /** The number of active readers, counting reentrant holds. */
     private int readers;
 
     /** The number of active writers; */
     private int writers;
 
+    /** The number of threads waiting for the read lock. */
+    private int waitingReaders;
+
+    /** The number of threads waiting for the write lock. */
+    private int waitingWriters;
+
+    /** The number of waiting readers still allowed in ahead of waiting writers. */
+    private int readerBatch;
+
+    /** Whether waiting readers get a turn between writers. */
+    private final boolean fair;
+
+    /** The number of read holds of each thread, used for reentrancy. */
+    private final ThreadLocal<int[]> readHolds;
+
+    /**
+     * Incremented whenever the write lock is acquired or released, so it is odd
+     * exactly while a writer holds the lock.
+     */
+    private volatile long version;
+
     /**
      * The lock object used for synchronized access of readers and writers. For
      * security reasons, a separate private final lock object is used.
@@ -32,19 +68,73 @@ public class SimpleReadWriteLock {
      *      "https://wiki.sei.cmu.edu/confluence/display/java/LCK00-J.+Use+private+final+lock+objects+to+synchronize+classes+that+may+interact+with+untrusted+code">
      *      SEI CERT Oracle Coding Standard for Java</a>
      */
-    private final Object lock;
+    private final ReentrantLock lock;
+
+    /** Signalled when readers may be able to proceed. */
+    private final Condition readable;
+
+    /** Signalled when a writer may be able to proceed. */
+    private final Condition writable;
+
+    /** The number of read lock acquisitions. */
+    private long readAcquisitions;
+
+    /** The number of read lock acquisitions that had to wait. */
+    private long readContentions;
+
+    /** The total time spent waiting for the read lock, in nanoseconds. */
+    private long readWaitNanos;
+
+    /** The number of write lock acquisitions. */
+    private long writeAcquisitions;
+
+    /** The number of write lock acquisitions that had to wait. */
+    private long writeContentions;
+
+    /** The total time spent waiting for the write lock, in nanoseconds. */
+    private long writeWaitNanos;
+
+    /** The number of optimistic reads attempted. */
+    private final LongAdder optimisticReads;
+
+    /** The number of optimistic reads invalidated by a writer. */
+    private final LongAdder optimisticFailures;
+
+    /**
+     * Initializes a new fair simple read/write lock.
+     *
+     * @see #SimpleReadWriteLock(boolean)
+     */
+    public SimpleReadWriteLock() {
+        this(true);
+    }
 
     /**
      * Initializes a new simple read/write lock.
+     *
+     * @param fair if {@code true}, readers waiting when a writer releases the lock
+     *             go before the next writer; otherwise waiting writers always go
+     *             first
      */
-    public SimpleReadWriteLock() {
+    public SimpleReadWriteLock(boolean fair) {
         readerLock = new ReadLock();
         writerLock = new WriteLock();
 
-        lock = new Object();
+        lock = new ReentrantLock();
+        readable = lock.newCondition();
+        writable = lock.newCondition();
+
+        this.fair = fair;
+        readHolds = ThreadLocal.withInitial(() -> new int[1]);
+        optimisticReads = new LongAdder();
+        optimisticFailures = new LongAdder();
 
         readers = 0;
         writers = 0;
+        waitingReaders = 0;
+        waitingWriters = 0;
+        readerBatch = 0;
+        version = 2;
     }
 
     /**
@@ -53,7 +143,6 @@ public class SimpleReadWriteLock {
      * @return the reader lock
      */
     public SimpleLock readLock() {
-        // NOTE: DO NOT MODIFY THIS METHOD
         return readerLock;
     }
 
@@ -63,32 +152,73 @@ public class SimpleReadWriteLock {
      * @return the writer lock
      */
     public SimpleLock writeLock() {
-        // NOTE: DO NOT MODIFY THIS METHOD
         return writerLock;
     }
 
     /**
      * Returns the number of active readers.
-     * 
+     *
      * @return the number of active readers
      */
     public int readers() {
-        // NOTE: DO NOT MODIFY THIS METHOD
-        synchronized (lock) {
+        lock.lock();
+        try {
             return readers;
+        } finally {
+            lock.unlock();
         }
     }
 
     /**
      * Returns the number of active writers.
-     * 
+     *
      * @return the number of active writers
      */
     public int writers() {
-        // NOTE: DO NOT MODIFY THIS METHOD
-        synchronized (lock) {
+        lock.lock();
+        try {
             return writers;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a stamp for an optimistic read without acquiring any lock, or 0 if
+     * a writer currently holds the lock. The data read afterwards may be
+     * inconsistent, so it must only be used if {@link #validate(long)} returns
+     * {@code true}, and any exception thrown while reading should be treated as a
+     * failed validation.
+     *
+     * @return a stamp for {@link #validate(long)}, or 0 if a writer is active
+     */
+    public long tryOptimisticRead() {
+        optimisticReads.increment();
+        long stamp = version;
+        if ((stamp & 1) != 0) {
+            optimisticFailures.increment();
+            return 0;
+        }
+        return stamp;
+    }
+
+    /**
+     * Returns whether no writer has acquired the lock since the stamp was issued
+     * by {@link #tryOptimisticRead()}.
+     *
+     * @param stamp the stamp to check
+     * @return {@code true} if the values read since the stamp was issued are
+     *         consistent
+     */
+    public boolean validate(long stamp) {
+        VarHandle.acquireFence();
+        if (stamp != 0 && version == stamp) {
+            return true;
+        }
+        if (stamp != 0) {
+            optimisticFailures.increment();
         }
+        return false;
     }
 
     /**
@@ -107,43 +237,182 @@ public class SimpleReadWriteLock {
         return other != null && other.getId() == Thread.currentThread().getId();
     }
 
+    /**
+     * Returns the number of read lock acquisitions, including reentrant ones.
+     *
+     * @return the number of read lock acquisitions
+     */
+    public long readAcquisitions() {
+        lock.lock();
+        try {
+            return readAcquisitions;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of read lock acquisitions that had to wait.
+     *
+     * @return the number of contended read lock acquisitions
+     */
+    public long readContentions() {
+        lock.lock();
+        try {
+            return readContentions;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the total time readers spent waiting for the lock.
+     *
+     * @return the total wait time in nanoseconds
+     */
+    public long readWaitNanos() {
+        lock.lock();
+        try {
+            return readWaitNanos;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of write lock acquisitions, including reentrant ones.
+     *
+     * @return the number of write lock acquisitions
+     */
+    public long writeAcquisitions() {
+        lock.lock();
+        try {
+            return writeAcquisitions;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of write lock acquisitions that had to wait.
+     *
+     * @return the number of contended write lock acquisitions
+     */
+    public long writeContentions() {
+        lock.lock();
+        try {
+            return writeContentions;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the total time writers spent waiting for the lock.
+     *
+     * @return the total wait time in nanoseconds
+     */
+    public long writeWaitNanos() {
+        lock.lock();
+        try {
+            return writeWaitNanos;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of optimistic reads attempted.
+     *
+     * @return the number of calls to {@link #tryOptimisticRead()}
+     */
+    public long optimisticReads() {
+        return optimisticReads.sum();
+    }
+
+    /**
+     * Returns the number of optimistic reads that failed because a writer was
+     * active or acquired the lock before validation.
+     *
+     * @return the number of failed optimistic reads
+     */
+    public long optimisticFailures() {
+        return optimisticFailures.sum();
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return String.format(
+                    "reads: %d (%d waited %.3f ms), writes: %d (%d waited %.3f ms), optimistic: %d (%d failed)",
+                    readAcquisitions, readContentions, readWaitNanos / 1e6, writeAcquisitions, writeContentions,
+                    writeWaitNanos / 1e6, optimisticReads.sum(), optimisticFailures.sum());
+        } finally {
+            lock.unlock();
+        }
+    }
+
     /**
      * Used to maintain simultaneous read operations.
      */
     private class ReadLock implements SimpleLock {
 
         /**
-         * Will wait until there are no active writers in the system, and then will
-         * increase the number of active readers.
+         * Will wait until there are no active or waiting writers in the system, and
+         * then will increase the number of active readers. Threads that already hold
+         * the read or write lock never wait.
          */
         @Override
         public void lock() {
-            // NOTE: DO NOT MODIFY THIS METHOD
-            synchronized (lock) {
-                while (writers > 0) {
-                    try {
-                        lock.wait();
-                    } catch (InterruptedException ex) {
-                        Thread.currentThread().interrupt();
+            int[] held = readHolds.get();
+            lock.lock();
+            try {
+                if (held[0] == 0 && !sameThread(writerLock.writeThread)
+                        && (writers > 0 || waitingWriters > 0)) {
+                    long start = System.nanoTime();
+                    readContentions++;
+                    waitingReaders++;
+                    while (writers > 0 || (waitingWriters > 0 && readerBatch == 0)) {
+                        readable.awaitUninterruptibly();
+                    }
+                    waitingReaders--;
+                    if (readerBatch > 0) {
+                        readerBatch--;
                     }
+                    readWaitNanos += System.nanoTime() - start;
                 }
 
-                assert writers == 0;
                 readers++;
+                held[0]++;
+                readAcquisitions++;
+            } finally {
+                lock.unlock();
             }
         }
 
         /**
-         * Will decrease the number of active readers, and notify any waiting threads if
-         * necessary.
+         * Will decrease the number of active readers, and wake one waiting writer if
+         * this was the last reader.
+         *
+         * @throws ConcurrentModificationException if unlock is called by a thread
+         *                                         that does not hold the read lock
          */
         @Override
-        public void unlock() {
-            synchronized (lock) {
+        public void unlock() throws ConcurrentModificationException {
+            int[] held = readHolds.get();
+            lock.lock();
+            try {
+                if (held[0] == 0) {
+                    throw new ConcurrentModificationException();
+                }
+                held[0]--;
                 readers--;
-                if (readers == 0) {
-                    lock.notifyAll();
+                if (readers == 0 && waitingWriters > 0) {
+                    writable.signal();
                 }
+            } finally {
+                lock.unlock();
             }
         }
 
@@ -159,37 +428,60 @@ public class SimpleReadWriteLock {
          */
         private Thread writeThread;
 
+        /**
+         * The number of times the writing thread holds the lock
+         */
+        private int holds;
+
         /**
          * Constructor for WriteLock
          */
         public WriteLock() {
             this.writeThread = null;
+            this.holds = 0;
         }
 
         /**
          * Will wait until there are no active readers or writers in the system, and
          * then will increase the number of active writers and update which thread holds
-         * the write lock.
+         * the write lock. If the current thread already holds the write lock, only
+         * the number of holds is increased.
          */
         @Override
         public void lock() {
-            synchronized (lock) {
-                while (readers > 0 || writers > 0) {
-                    try {
-                        lock.wait();
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
+            lock.lock();
+            try {
+                writeAcquisitions++;
+                if (sameThread(writeThread)) {
+                    holds++;
+                    return;
+                }
+
+                if (readers > 0 || writers > 0 || readerBatch > 0) {
+                    long start = System.nanoTime();
+                    writeContentions++;
+                    waitingWriters++;
+                    while (readers > 0 || writers > 0 || readerBatch > 0) {
+                        writable.awaitUninterruptibly();
                     }
+                    waitingWriters--;
+                    writeWaitNanos += System.nanoTime() - start;
                 }
+
                 writers++;
+                holds = 1;
                 writeThread = Thread.currentThread();
+                version++;
+            } finally {
+                lock.unlock();
             }
         }
 
         /**
-         * Will decrease the number of active writers, and notify any waiting threads if
-         * necessary. If unlock is called by a thread that does not hold the lock, then
-         * a {@link ConcurrentModificationException} is thrown.
+         * Will decrease the number of active writers once every hold is released,
+         * and wake either the next writer or the waiting readers. If unlock is called
+         * by a thread that does not hold the lock, then a
+         * {@link ConcurrentModificationException} is thrown.
          *
          * @see #sameThread(Thread)
          *
@@ -200,13 +492,27 @@ public class SimpleReadWriteLock {
          */
         @Override
         public void unlock() throws ConcurrentModificationException {
-            synchronized (lock) {
+            lock.lock();
+            try {
                 if (writeThread == null || !sameThread(writeThread) || writers == 0) {
                     throw new ConcurrentModificationException();
                 }
+                if (--holds > 0) {
+                    return;
+                }
+
+                version++;
                 writers--;
-                lock.notifyAll();
                 writeThread = null;
+
+                if (waitingReaders > 0 && (fair || waitingWriters == 0)) {
+                    readerBatch = waitingReaders;
+                    readable.signalAll();
+                } else if (waitingWriters > 0) {
+                    writable.signal();
+                }
+            } finally {
+                lock.unlock();
             }
         }
     }
@@ -0,0 +1,357 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+import opennlp.tools.stemmer.Stemmer;
+import opennlp.tools.stemmer.snowball.SnowballStemmer;
+
+/**
+ * A bounded, thread-safe cache of word to stem in front of a
+ * {@link SnowballStemmer}. Text is dominated by a small number of very common
+ * words, so most words have been stemmed before.
+ *
+ * Each thread has its own small direct-mapped cache, checked without any
+ * locking and without creating a string for the word. Words it misses are
+ * looked up in a larger cache shared by every thread, split into segments that
+ * each evict their least recently used words. Only words missed by both are
+ * stemmed, by a stemmer owned by the calling thread.
+ *
+ * Virtual threads skip the cache of their own, since every task of a
+ * {@link WorkQueue#virtual(int)} queue runs on a new thread and would build a
+ * new cache and stemmer only to use it for one file or page. They look up every
+ * word in the shared cache instead, and stem the words it misses with a stemmer
+ * borrowed from a pool shared by the virtual threads.
+ *
+ * @author stewartpowell
+ */
+public class StemCache implements Stemmer {
+
+    /** The default number of words kept by the shared cache */
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    /** The number of bits addressing the cache of each thread */
+    private static final int LOCAL_BITS = 10;
+
+    /** The number of segments of the shared cache, each with its own lock */
+    private static final int SEGMENTS = 16;
+
+    /** The number of idle stemmers kept for virtual threads */
+    private static final int POOLED_STEMMERS = 64;
+
+    /** The cache used for every English stem in the project */
+    public static final StemCache SHARED = new StemCache(SnowballStemmer.ALGORITHM.ENGLISH, DEFAULT_CAPACITY);
+
+    /** The stemming algorithm */
+    private final SnowballStemmer.ALGORITHM algorithm;
+
+    /** The number of words kept by the shared cache */
+    private final int capacity;
+
+    /** The segments of the shared cache */
+    private final Segment[] segments;
+
+    /** The cache and stemmer of each platform thread */
+    private final ThreadLocal<Local> locals;
+
+    /** The idle stemmers lent to virtual threads */
+    private final ArrayBlockingQueue<SnowballStemmer> stemmers;
+
+    /** The number of words found in the cache of the calling thread */
+    private final LongAdder localHits;
+
+    /** The number of words found in the shared cache */
+    private final LongAdder sharedHits;
+
+    /** The number of words that had to be stemmed */
+    private final LongAdder misses;
+
+    /** The number of words evicted from the shared cache */
+    private final LongAdder evictions;
+
+    /**
+     * Instantiates a cache for the stemming algorithm
+     *
+     * @param algorithm the stemming algorithm
+     * @param capacity  the number of words kept by the shared cache
+     */
+    public StemCache(SnowballStemmer.ALGORITHM algorithm, int capacity) {
+        this.algorithm = algorithm;
+        this.capacity = Math.max(capacity, SEGMENTS);
+        this.segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(this.capacity / SEGMENTS);
+        }
+        this.locals = ThreadLocal.withInitial(Local::new);
+        this.stemmers = new ArrayBlockingQueue<>(POOLED_STEMMERS);
+        this.localHits = new LongAdder();
+        this.sharedHits = new LongAdder();
+        this.misses = new LongAdder();
+        this.evictions = new LongAdder();
+    }
+
+    /**
+     * Returns the stem of the word held in the buffer, such as a word handed out
+     * by a {@link TextTokenizer}. No string is created if the word is in the
+     * cache of the calling thread.
+     *
+     * @param word   the buffer holding the word, starting at index 0
+     * @param length the number of characters in the word
+     * @return the stem
+     */
+    public String stem(char[] word, int length) {
+        if (WorkQueue.onVirtualThread()) {
+            return lookup(new String(word, 0, length));
+        }
+
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + word[i];
+        }
+
+        Local local = locals.get();
+        int slot = slot(hash);
+        String key = local.words[slot];
+        if (key != null && key.length() == length) {
+            int i = 0;
+            while (i < length && key.charAt(i) == word[i]) {
+                i++;
+            }
+            if (i == length) {
+                localHits.increment();
+                return local.stems[slot];
+            }
+        }
+        return lookup(local, slot, hash, new String(word, 0, length));
+    }
+
+    /**
+     * Returns the stem of the word
+     *
+     * @param word the word to stem
+     * @return the stem, as a {@link String}
+     */
+    @Override
+    public String stem(CharSequence word) {
+        String text = word.toString();
+        if (WorkQueue.onVirtualThread()) {
+            return lookup(text);
+        }
+
+        int hash = text.hashCode();
+
+        Local local = locals.get();
+        int slot = slot(hash);
+        if (text.equals(local.words[slot])) {
+            localHits.increment();
+            return local.stems[slot];
+        }
+        return lookup(local, slot, hash, text);
+    }
+
+    /**
+     * Looks up a word missed by the cache of the calling thread in the shared
+     * cache, stemming it if it is not there either
+     *
+     * @param local the cache of the calling thread
+     * @param slot  the slot of the word in the cache of the calling thread
+     * @param hash  the hash code of the word
+     * @param word  the word
+     * @return the stem
+     */
+    private String lookup(Local local, int slot, int hash, String word) {
+        Segment segment = segments[hash & (SEGMENTS - 1)];
+        String stem;
+        synchronized (segment) {
+            stem = segment.get(word);
+        }
+
+        if (stem != null) {
+            sharedHits.increment();
+        } else {
+            // stemming is the slow part, so do it outside of the lock
+            misses.increment();
+            stem = local.stemmer.stem(word).toString();
+            synchronized (segment) {
+                segment.put(word, stem);
+            }
+        }
+
+        local.words[slot] = word;
+        local.stems[slot] = stem;
+        return stem;
+    }
+
+    /**
+     * Looks up a word in the shared cache for a virtual thread, stemming it with
+     * a pooled stemmer if it is not there
+     *
+     * @param word the word
+     * @return the stem
+     */
+    private String lookup(String word) {
+        Segment segment = segments[word.hashCode() & (SEGMENTS - 1)];
+        String stem;
+        synchronized (segment) {
+            stem = segment.get(word);
+        }
+
+        if (stem != null) {
+            sharedHits.increment();
+            return stem;
+        }
+
+        misses.increment();
+        SnowballStemmer stemmer = stemmers.poll();
+        if (stemmer == null) {
+            stemmer = new SnowballStemmer(algorithm);
+        }
+        try {
+            stem = stemmer.stem(word).toString();
+        } finally {
+            stemmers.offer(stemmer);
+        }
+        synchronized (segment) {
+            segment.put(word, stem);
+        }
+        return stem;
+    }
+
+    /**
+     * Returns the slot of a word in the cache of each thread
+     *
+     * @param hash the hash code of the word
+     * @return the slot
+     */
+    private static int slot(int hash) {
+        return (hash * 0x9E3779B9) >>> (32 - LOCAL_BITS);
+    }
+
+    /**
+     * Returns the number of words found in the cache of the calling thread
+     *
+     * @return the number of hits
+     */
+    public long localHits() {
+        return localHits.sum();
+    }
+
+    /**
+     * Returns the number of words found in the shared cache
+     *
+     * @return the number of hits
+     */
+    public long sharedHits() {
+        return sharedHits.sum();
+    }
+
+    /**
+     * Returns the number of words that were not cached and had to be stemmed
+     *
+     * @return the number of misses
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of words evicted from the shared cache to stay within
+     * its capacity. Many evictions compared to misses mean the capacity is too
+     * small for the text being stemmed.
+     *
+     * @return the number of evictions
+     */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns the fraction of words that did not have to be stemmed
+     *
+     * @return the hit rate, between 0 and 1
+     */
+    public double hitRate() {
+        long hits = localHits() + sharedHits();
+        long total = hits + misses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Returns the number of words in the shared cache
+     *
+     * @return the number of words
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Stem cache: %d local hits, %d shared hits, %d misses, %.2f%% hit rate, "
+                + "%d of %d words, %d evictions", localHits(), sharedHits(), misses(), hitRate() * 100, size(),
+                capacity, evictions());
+    }
+
+    /**
+     * The cache and stemmer of one thread. Each slot holds the last word whose
+     * hash mapped to it.
+     */
+    private class Local {
+
+        /** The stemmer of this thread, since stemmers are not thread-safe */
+        private final SnowballStemmer stemmer;
+
+        /** The word held in each slot */
+        private final String[] words;
+
+        /** The stem of the word held in each slot */
+        private final String[] stems;
+
+        /**
+         * Creates an empty cache
+         */
+        private Local() {
+            this.stemmer = new SnowballStemmer(algorithm);
+            this.words = new String[1 << LOCAL_BITS];
+            this.stems = new String[1 << LOCAL_BITS];
+        }
+    }
+
+    /**
+     * One segment of the shared cache, kept in access order so the least recently
+     * used word is evicted first. Access must be synchronized on the segment.
+     */
+    private class Segment extends LinkedHashMap<String, String> {
+
+        /** Unused */
+        private static final long serialVersionUID = 1L;
+
+        /** The number of words kept by this segment */
+        private final int limit;
+
+        /**
+         * Creates an empty segment
+         *
+         * @param limit the number of words kept by this segment
+         */
+        private Segment(int limit) {
+            super(16, 0.75f, true);
+            this.limit = limit;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            if (size() > limit) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+}
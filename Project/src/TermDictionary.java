@@ -0,0 +1,465 @@
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable, compact dictionary of sorted words. Each word is identified by
+ * its rank in sorted order, its term id. Instead of one {@link String} object
+ * per word, every word is stored in one shared array of characters with front
+ * coding: each word only stores the number of leading characters it shares with
+ * the previous word, followed by the characters that differ. Sorted words share
+ * long prefixes, so this takes a fraction of the memory of the strings.
+ *
+ * Words are split into blocks of {@link #BLOCK} words. The first word of each
+ * block is stored in full, so a word is found by a binary search over the
+ * blocks followed by a short scan of one block.
+ *
+ * Since the words are sorted, the words starting with a prefix have
+ * consecutive term ids. After the first of them is found, each following word
+ * still starts with the prefix exactly when it shares at least as many leading
+ * characters with the previous word as the prefix has, so the end of the range
+ * is found without comparing any characters.
+ *
+ * Lengths in the array of characters are stored as one character if less than
+ * 2^15, or otherwise as two characters holding 15 bits each with the high bit
+ * of the first character set.
+ *
+ * @author stewartpowell
+ */
+public class TermDictionary {
+
+    /** The number of words in each block */
+    public static final int BLOCK = 16;
+
+    /** The number of words */
+    private final int size;
+
+    /** The front-coded words */
+    private final char[] data;
+
+    /** The position in the data of the first word of each block */
+    private final int[] blocks;
+
+    /** The length of the longest word */
+    private final int longest;
+
+    /**
+     * Creates a dictionary from front-coded words, such as those written to an
+     * index segment
+     *
+     * @param size the number of words
+     * @param data the front-coded words, as returned by {@link #getData()}
+     * @throws IllegalArgumentException if the data does not hold that many words
+     */
+    TermDictionary(int size, char[] data) {
+        this.size = size;
+        this.data = data;
+        this.blocks = new int[(size + BLOCK - 1) / BLOCK];
+
+        int position = 0;
+        int longest = 0;
+        int length = 0;
+        try {
+            for (int id = 0; id < size; id++) {
+                if (id % BLOCK == 0) {
+                    blocks[id / BLOCK] = position;
+                }
+                int shared = readLength(position);
+                position += width(shared);
+                int suffix = readLength(position);
+                position += width(suffix) + suffix;
+                if (shared > length || (id % BLOCK == 0 && shared != 0)) {
+                    throw new IllegalArgumentException("Corrupt term dictionary");
+                }
+                length = shared + suffix;
+                longest = Math.max(longest, length);
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated term dictionary", e);
+        }
+        if (position != data.length) {
+            throw new IllegalArgumentException("Corrupt term dictionary");
+        }
+        this.longest = longest;
+    }
+
+    /**
+     * Creates a dictionary of the words
+     *
+     * @param words the words, in strictly increasing order
+     * @return the dictionary
+     * @throws IllegalArgumentException if the words are not in strictly
+     *                                  increasing order
+     */
+    public static TermDictionary of(Iterator<String> words) {
+        char[] data = new char[1024];
+        int position = 0;
+        int size = 0;
+        String previous = null;
+        while (words.hasNext()) {
+            String word = words.next();
+            if (previous != null && previous.compareTo(word) >= 0) {
+                throw new IllegalArgumentException("Words are not in increasing order: " + previous + ", " + word);
+            }
+            int shared = 0;
+            if (size % BLOCK != 0) {
+                int limit = Math.min(previous.length(), word.length());
+                while (shared < limit && previous.charAt(shared) == word.charAt(shared)) {
+                    shared++;
+                }
+            }
+            int suffix = word.length() - shared;
+            if (position + 4 + suffix > data.length) {
+                data = Arrays.copyOf(data, Math.max(position + 4 + suffix, data.length * 2));
+            }
+            position = writeLength(data, position, shared);
+            position = writeLength(data, position, suffix);
+            word.getChars(shared, word.length(), data, position);
+            position += suffix;
+            previous = word;
+            size++;
+        }
+        return new TermDictionary(size, Arrays.copyOf(data, position));
+    }
+
+    /**
+     * Returns the number of words
+     *
+     * @return the number of words
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the front-coded words, used to persist the dictionary. The array
+     * must not be modified.
+     *
+     * @return the front-coded words
+     */
+    char[] getData() {
+        return data;
+    }
+
+    /**
+     * Returns the term id of the word
+     *
+     * @param word the word to look up
+     * @return the term id, or -1 if the word is not found
+     */
+    public int find(String word) {
+        int id = seek(word);
+        return id >= 0 ? id : -1;
+    }
+
+    /**
+     * Returns the term id of the first word greater than or equal to the given
+     * word
+     *
+     * @param word the word to look up
+     * @return the term id, or {@link #size()} if every word is less than the
+     *         given word
+     */
+    public int ceiling(String word) {
+        int id = seek(word);
+        return id >= 0 ? id : -id - 1;
+    }
+
+    /**
+     * Returns the term id after the last word starting with the prefix, given the
+     * term id of the first one. Only the shared lengths of the words are read.
+     *
+     * @param prefix the prefix
+     * @param start  the term id of the first word starting with the prefix, as
+     *               returned by {@link #ceiling(String)}
+     * @return the term id after the last word starting with the prefix, equal to
+     *         the start if no word starts with it
+     */
+    public int prefixEnd(String prefix, int start) {
+        if (start >= size) {
+            return start;
+        }
+
+        // decode just enough of the first word to check it
+        char[] head = new char[prefix.length()];
+        int position = blocks[start / BLOCK];
+        int length = 0;
+        for (int id = start - start % BLOCK; id <= start; id++) {
+            int shared = readLength(position);
+            position += width(shared);
+            int suffix = readLength(position);
+            position += width(suffix);
+            if (shared < head.length) {
+                System.arraycopy(data, position, head, shared, Math.min(suffix, head.length - shared));
+            }
+            position += suffix;
+            length = shared + suffix;
+        }
+        if (length < prefix.length() || compare(prefix, head, 0, head.length) != 0) {
+            return start;
+        }
+
+        for (int id = start + 1; id < size; id++) {
+            // the first word of a block is stored in full, so compare it
+            boolean matches = id % BLOCK == 0 ? startsWith(prefix, position)
+                    : readLength(position) >= prefix.length();
+            if (!matches) {
+                return id;
+            }
+            position = skip(position, 1);
+        }
+        return size;
+    }
+
+    /**
+     * Checks if the word at the position, which must be the first word of a
+     * block, starts with the prefix
+     *
+     * @param prefix   the prefix
+     * @param position the position of the word in the data
+     * @return boolean
+     */
+    private boolean startsWith(String prefix, int position) {
+        position += width(readLength(position));
+        int length = readLength(position);
+        position += width(length);
+        return length >= prefix.length() && compare(prefix, data, position, prefix.length()) == 0;
+    }
+
+    /**
+     * Finds a word without decoding any other word. While the block holding the
+     * word is scanned, only the number of leading characters the word shares
+     * with the current word is tracked: a word sharing fewer characters with its
+     * previous word than that must be greater than the word being looked for,
+     * and a word sharing more must still be less.
+     *
+     * @param word the word to look up
+     * @return the term id of the word if found, otherwise (-(insertion point) -
+     *         1) like {@link Arrays#binarySearch(Object[], Object)}
+     */
+    private int seek(String word) {
+        // find the last block whose first word is not greater than the word
+        int low = 0;
+        int high = blocks.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int position = blocks[middle] + 1;
+            int length = readLength(position);
+            position += width(length);
+            if (compare(word, data, position, length) < 0) {
+                high = middle - 1;
+            } else {
+                low = middle + 1;
+            }
+        }
+        if (high < 0) {
+            return -1;
+        }
+
+        int matched = 0;
+        int position = blocks[high];
+        int end = Math.min(size, (high + 1) * BLOCK);
+        for (int id = high * BLOCK; id < end; id++) {
+            int shared = readLength(position);
+            position += width(shared);
+            int suffix = readLength(position);
+            position += width(suffix);
+            if (shared < matched) {
+                // differs from the previous word where that matched the word
+                return -id - 1;
+            }
+            if (shared == matched) {
+                int i = 0;
+                while (i < suffix && matched < word.length() && data[position + i] == word.charAt(matched)) {
+                    i++;
+                    matched++;
+                }
+                if (i == suffix && matched == word.length()) {
+                    return id;
+                }
+                if (i < suffix && (matched == word.length() || data[position + i] > word.charAt(matched))) {
+                    return -id - 1;
+                }
+            }
+            position += suffix;
+        }
+        return -end - 1;
+    }
+
+    /**
+     * Returns the word with the term id
+     *
+     * @param id the term id
+     * @return the word
+     * @throws IndexOutOfBoundsException if the term id is out of range
+     */
+    public String get(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("Term id " + id + " out of range for " + size + " words");
+        }
+        char[] term = new char[longest];
+        int length = 0;
+        int position = blocks[id / BLOCK];
+        for (int i = id - id % BLOCK; i <= id; i++) {
+            int shared = readLength(position);
+            position += width(shared);
+            int suffix = readLength(position);
+            position += width(suffix);
+            System.arraycopy(data, position, term, shared, suffix);
+            position += suffix;
+            length = shared + suffix;
+        }
+        return new String(term, 0, length);
+    }
+
+    /**
+     * Returns an unmodifiable list view of the words, in sorted order. Iterating
+     * over the list decodes each word once.
+     *
+     * @return the list of words
+     */
+    public List<String> asList() {
+        return new AbstractList<String>() {
+            @Override
+            public String get(int id) {
+                return TermDictionary.this.get(id);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public Iterator<String> iterator() {
+                return TermDictionary.this.iterator();
+            }
+        };
+    }
+
+    /**
+     * Returns an iterator over the words in sorted order
+     *
+     * @return the iterator
+     */
+    public Iterator<String> iterator() {
+        return new Iterator<String>() {
+            /** The word decoded last */
+            private final char[] term = new char[longest];
+
+            /** The term id of the next word */
+            private int id = 0;
+
+            /** The position in the data of the next word */
+            private int position = 0;
+
+            @Override
+            public boolean hasNext() {
+                return id < size;
+            }
+
+            @Override
+            public String next() {
+                if (id >= size) {
+                    throw new NoSuchElementException();
+                }
+                int shared = readLength(position);
+                position += width(shared);
+                int suffix = readLength(position);
+                position += width(suffix);
+                System.arraycopy(data, position, term, shared, suffix);
+                position += suffix;
+                id++;
+                return new String(term, 0, shared + suffix);
+            }
+        };
+    }
+
+    /**
+     * Returns the approximate number of bytes used by this dictionary
+     *
+     * @return the number of bytes
+     */
+    public long memoryUsage() {
+        return 2L * data.length + 4L * blocks.length + 64;
+    }
+
+    /**
+     * Skips over words
+     *
+     * @param position the position in the data of the first word to skip
+     * @param count    the number of words to skip
+     * @return the position of the word after the last word skipped
+     */
+    private int skip(int position, int count) {
+        for (int i = 0; i < count; i++) {
+            position += width(readLength(position));
+            int suffix = readLength(position);
+            position += width(suffix) + suffix;
+        }
+        return position;
+    }
+
+    /**
+     * Compares a word to characters of an array, in the order of
+     * {@link String#compareTo(String)}
+     *
+     * @param word   the word
+     * @param chars  the array
+     * @param offset the position of the first character in the array
+     * @param length the number of characters
+     * @return a negative number, zero, or a positive number if the word is less
+     *         than, equal to, or greater than the characters
+     */
+    private static int compare(String word, char[] chars, int offset, int length) {
+        int limit = Math.min(word.length(), length);
+        for (int i = 0; i < limit; i++) {
+            char c = chars[offset + i];
+            if (word.charAt(i) != c) {
+                return word.charAt(i) - c;
+            }
+        }
+        return word.length() - length;
+    }
+
+    /**
+     * Reads a length
+     *
+     * @param position the position of the length in the data
+     * @return the length
+     */
+    private int readLength(int position) {
+        char first = data[position];
+        return first < 0x8000 ? first : ((first & 0x7FFF) << 15) | data[position + 1];
+    }
+
+    /**
+     * Returns the number of characters a length takes up
+     *
+     * @param length the length
+     * @return 1 or 2
+     */
+    private static int width(int length) {
+        return length < 0x8000 ? 1 : 2;
+    }
+
+    /**
+     * Writes a length
+     *
+     * @param data     the array to write to
+     * @param position the position to write at
+     * @param length   the length
+     * @return the position after the length
+     */
+    private static int writeLength(char[] data, int position, int length) {
+        if (length < 0x8000) {
+            data[position++] = (char) length;
+        } else {
+            data[position++] = (char) (0x8000 | (length >>> 15));
+            data[position++] = (char) (length & 0x7FFF);
+        }
+        return position;
+    }
+}
@@ -60,13 +60,11 @@ public class TextFileStemmer {
      * @param line the line of words to clean, split, and stem
      * @return a list of cleaned and stemmed words
      *
-     * @see SnowballStemmer
-     * @see #DEFAULT
+     * @see StemCache#SHARED
      * @see #listStems(String, Stemmer)
      */
     public static ArrayList<String> listStems(String line) {
-        // THIS IS PROVIDED FOR YOU; NO NEED TO MODIFY
-        return listStems(line, new SnowballStemmer(DEFAULT));
+        return listStems(line, StemCache.SHARED);
     }
 
     /**
@@ -93,13 +91,11 @@ public class TextFileStemmer {
      * @param line the line of words to clean, split, and stem
      * @return a sorted set of unique cleaned and stemmed words
      *
-     * @see SnowballStemmer
-     * @see #DEFAULT
+     * @see StemCache#SHARED
      * @see #uniqueStems(String, Stemmer)
      */
     public static TreeSet<String> uniqueStems(String line) {
-        // THIS IS PROVIDED FOR YOU; NO NEED TO MODIFY
-        return uniqueStems(line, new SnowballStemmer(DEFAULT));
+        return uniqueStems(line, StemCache.SHARED);
     }
 
     /**
@@ -115,7 +111,7 @@ public class TextFileStemmer {
      */
     public static TreeSet<String> uniqueStems(Path inputFile) throws IOException {
         TreeSet<String> fileSet = new TreeSet<>();
-        Stemmer stemmer = new SnowballStemmer(DEFAULT);
+        Stemmer stemmer = StemCache.SHARED;
         try (BufferedReader reader = Files.newBufferedReader(inputFile)) {
             String line = null;
             while ((line = reader.readLine()) != null) {
@@ -138,7 +134,7 @@ public class TextFileStemmer {
      */
     public static ArrayList<String> listStems(Path inputFile) throws IOException {
         ArrayList<String> fileArray = new ArrayList<>();
-        Stemmer stemmer = new SnowballStemmer(DEFAULT);
+        Stemmer stemmer = StemCache.SHARED;
         try (BufferedReader reader = Files.newBufferedReader(inputFile)) {
             String line = null;
             while ((line = reader.readLine()) != null) {
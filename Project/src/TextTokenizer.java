@@ -0,0 +1,209 @@
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splits text into the same cleaned, lowercase words as
+ * {@link TextParser#parse(String)}, but in a single pass over the characters.
+ * Instead of normalizing, cleaning, lowercasing and splitting copies of the
+ * whole text, each word is built directly in a reusable buffer and handed to a
+ * {@link TokenConsumer}. Text that is entirely ASCII is never copied at all;
+ * other text is decomposed with {@link Normalizer} first, exactly like
+ * {@link TextParser#clean(String)}.
+ *
+ * Warning: This class is not thread-safe. Each thread should use its own
+ * tokenizer.
+ *
+ * @author stewartpowell
+ */
+public class TextTokenizer {
+
+    /**
+     * Receives each word found by a {@link TextTokenizer}
+     */
+    @FunctionalInterface
+    public interface TokenConsumer {
+        /**
+         * Accepts the next word. The buffer is reused for the next word, so it must
+         * not be kept after this method returns.
+         *
+         * @param buffer the buffer holding the word, starting at index 0
+         * @param length the number of characters in the word
+         */
+        void accept(char[] buffer, int length);
+    }
+
+    /** The only letter whose lowercase form depends on the letters around it */
+    private static final char CAPITAL_SIGMA = '\u03A3';
+
+    /** The characters of the current word */
+    private char[] buffer;
+
+    /** Whether the default locale lowercases ASCII letters to ASCII letters */
+    private final boolean asciiLowerCase;
+
+    /**
+     * Instantiates a tokenizer for the current default locale
+     */
+    public TextTokenizer() {
+        this.buffer = new char[32];
+        this.asciiLowerCase = "ABCDEFGHIJKLMNOPQRSTUVWXYZ".toLowerCase().equals("abcdefghijklmnopqrstuvwxyz");
+    }
+
+    /**
+     * Splits the text into cleaned, lowercase words, in the same order and with
+     * the same quirks as {@link TextParser#parse(String)}
+     *
+     * @param text     the text to split, which is only copied if it is not all
+     *                 ASCII
+     * @param consumer receives each word
+     * @return the number of words found
+     */
+    public int tokenize(CharSequence text, TokenConsumer consumer) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) {
+                String normalized = Normalizer.normalize(text, Normalizer.Form.NFD);
+                if (normalized.indexOf(CAPITAL_SIGMA) >= 0) {
+                    return tokenizeSlowly(normalized, consumer);
+                }
+                text = normalized;
+                break;
+            }
+        }
+
+        int words = 0;
+        int length = 0;
+        boolean ascii = true;
+        // TextParser strips the cleaned text with String.strip, which does not
+        // remove every whitespace character its split pattern splits on. Cleaned
+        // text starting with one of those yields an empty first word.
+        boolean stripped = false;
+        boolean leadingEmpty = false;
+
+        for (int i = 0; i < text.length();) {
+            int c = Character.codePointAt(text, i);
+            i += Character.charCount(c);
+
+            if (c < 0x80 ? isAsciiLetter(c) : Character.isAlphabetic(c)) {
+                if (length + 2 > buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                length += Character.toChars(c, buffer, length);
+                ascii &= c < 0x80;
+                stripped = true;
+            } else if (isSpace(c)) {
+                if (length > 0) {
+                    if (leadingEmpty) {
+                        consumer.accept(buffer, 0);
+                        words++;
+                        leadingEmpty = false;
+                    }
+                    emit(length, ascii, consumer);
+                    words++;
+                    length = 0;
+                    ascii = true;
+                } else if (!stripped && !Character.isWhitespace(c)) {
+                    leadingEmpty = true;
+                    stripped = true;
+                }
+            }
+            // anything else is removed, just like TextParser.CLEAN_REGEX
+        }
+
+        if (length > 0) {
+            if (leadingEmpty) {
+                consumer.accept(buffer, 0);
+                words++;
+            }
+            emit(length, ascii, consumer);
+            words++;
+        }
+        return words;
+    }
+
+    /**
+     * Splits the text with {@link TextParser#parse(String)} itself. Whether a
+     * capital sigma lowercases to a final sigma depends on the word boundaries
+     * of the whole cleaned text, not just of its own word, so text containing
+     * one cannot be lowercased a word at a time.
+     *
+     * @param text     the text to split
+     * @param consumer receives each word
+     * @return the number of words found
+     */
+    private int tokenizeSlowly(String text, TokenConsumer consumer) {
+        String[] words = TextParser.parse(text);
+        for (String word : words) {
+            if (word.length() > buffer.length) {
+                buffer = new char[word.length() * 2];
+            }
+            word.getChars(0, word.length(), buffer, 0);
+            consumer.accept(buffer, word.length());
+        }
+        return words.length;
+    }
+
+    /**
+     * Returns the cleaned, lowercase words of the text
+     *
+     * @param text the text to split
+     * @return the words, equal to {@link TextParser#parse(String)}
+     */
+    public String[] parse(String text) {
+        List<String> words = new ArrayList<>();
+        tokenize(text, (chars, length) -> words.add(new String(chars, 0, length)));
+        return words.toArray(new String[0]);
+    }
+
+    /**
+     * Lowercases the word in the buffer and hands it to the consumer
+     *
+     * @param length   the number of characters in the word
+     * @param ascii    whether every character of the word is ASCII
+     * @param consumer receives the word
+     */
+    private void emit(int length, boolean ascii, TokenConsumer consumer) {
+        if (ascii && asciiLowerCase) {
+            for (int i = 0; i < length; i++) {
+                buffer[i] |= 0x20;
+            }
+            consumer.accept(buffer, length);
+            return;
+        }
+
+        // lowercasing is locale and context sensitive, so leave it to String
+        String lower = new String(buffer, 0, length).toLowerCase();
+        if (lower.length() > buffer.length) {
+            buffer = new char[lower.length() * 2];
+        }
+        lower.getChars(0, lower.length(), buffer, 0);
+        consumer.accept(buffer, lower.length());
+    }
+
+    /**
+     * Checks if the ASCII character is a letter
+     *
+     * @param c the character
+     * @return boolean
+     */
+    private static boolean isAsciiLetter(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    /**
+     * Checks if the character is whitespace as matched by {@code \p{Space}} in
+     * {@link TextParser}, which is the Unicode White_Space property
+     *
+     * @param c the character
+     * @return boolean
+     */
+    private static boolean isSpace(int c) {
+        if (c < 0x80) {
+            return c == ' ' || (c >= 0x09 && c <= 0x0D);
+        }
+        int type = Character.getType(c);
+        return c == 0x85 || type == Character.SPACE_SEPARATOR || type == Character.LINE_SEPARATOR
+                || type == Character.PARAGRAPH_SEPARATOR;
+    }
+}
@@ -0,0 +1,44 @@
+import java.util.Collections;
+
+/**
+ * The base of every InvertedIndex that may be used by several threads at once,
+ * such as by the work queue of a {@link ThreadedIndexHandler} or the servlets
+ * of the search engine. Each subclass chooses its own locking: one lock for the
+ * whole index, a lock for each shard of the words, or none at all for an index
+ * that never changes.
+ *
+ * Subclasses that keep their words somewhere else, in shards or in a mapped
+ * file, use {@link #ThreadSafeInvertedIndex(DocumentTable)} so they do not carry
+ * an unused map of words. They must override every method that reads or
+ * changes the words.
+ *
+ * @author stewartpowell
+ */
+public abstract class ThreadSafeInvertedIndex extends InvertedIndex {
+
+    /**
+     * Instantiates an index that keeps its own words and documents
+     */
+    protected ThreadSafeInvertedIndex() {
+        super();
+    }
+
+    /**
+     * Instantiates an index that keeps its words somewhere else, and its
+     * documents in the given table. The inherited map of words is the immutable
+     * empty map, so a method that was not overridden finds no words and fails if
+     * it tries to add one.
+     *
+     * @param documents the table of documents to use
+     */
+    ThreadSafeInvertedIndex(DocumentTable documents) {
+        super(documents, Collections.emptyNavigableMap());
+    }
+
+    /**
+     * Returns the contention statistics of the locks protecting this index
+     *
+     * @return a summary of lock acquisitions and wait times per lock mode
+     */
+    public abstract String getLockStatistics();
+}
@@ -1,5 +1,12 @@
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.stream.Stream;
 
 import opennlp.tools.stemmer.snowball.SnowballStemmer;
 
@@ -12,11 +19,15 @@ import opennlp.tools.stemmer.snowball.SnowballStemmer;
 public class ThreadedIndexHandler extends IndexHandler {
 
     /** The Thread-safe invertedindex */
-    private final ThreadedInvertedIndex index;
+    private final ThreadSafeInvertedIndex index;
     /** The WorkQueue used for this class */
     private final WorkQueue queue;
     /** The default stemmer algorithm used by this class. */
     public static final SnowballStemmer.ALGORITHM DEFAULT = SnowballStemmer.ALGORITHM.ENGLISH;
+    /** The number of files collected into one batch before it is added to the index */
+    public static final int BATCH = 32;
+    /** The number of files allowed in flight per worker thread */
+    private static final int FILES_PER_THREAD = 4;
 
     /**
      * Constructor for FileHandler Class
@@ -24,22 +35,73 @@ public class ThreadedIndexHandler extends IndexHandler {
      * @param index the InvertedIndex associated with the FileHandler
      * @param queue the work queue used to delegate tasks
      */
-    public ThreadedIndexHandler(ThreadedInvertedIndex index, WorkQueue queue) {
+    public ThreadedIndexHandler(ThreadSafeInvertedIndex index, WorkQueue queue) {
         super(index);
         this.index = index;
         this.queue = queue;
     }
 
     /**
-     * Searches through files starting at the given Path
+     * Searches through files starting at the given Path, and waits only for the
+     * files found here to be indexed. Indexing is a pipeline of three stages:
+     * 
+     * <ol>
+     * <li>this thread streams the files as they are found, without listing the
+     * whole directory first</li>
+     * <li>the work queue reads, parses and stems each file into its own local
+     * index</li>
+     * <li>this thread collects the local indexes into batches, and adds each full
+     * batch to the shared index at once with
+     * {@link InvertedIndex#addAll(java.util.Collection)}</li>
+     * </ol>
+     * 
+     * At most a fixed number of files are in flight between the first and last
+     * stage. When that limit is reached, no more files are found until a built
+     * index has been merged, so no stage can run unboundedly ahead of the others.
      * 
      * @param path the path of the file to handle
      * @throws IOException throws if there is an issue opening the file
      */
     @Override
     public void handleFiles(Path path) throws IOException {
-        super.handleFiles(path);
-        queue.finish();
+        int capacity = FILES_PER_THREAD * queue.size();
+        BlockingQueue<InvertedIndex> built = new ArrayBlockingQueue<>(capacity);
+        WorkQueue.TaskGroup group = queue.newGroup();
+        Batch batch = new Batch();
+        int inFlight = 0;
+
+        try {
+            try (Stream<Path> files = TextFileFinder.find(path)) {
+                Iterator<Path> iterator = files.iterator();
+                while (iterator.hasNext()) {
+                    // wait for a file to be built before finding any more
+                    if (inFlight == capacity) {
+                        batch.merge(built.take());
+                        inFlight--;
+                    }
+                    group.execute(new IndexBuilder(iterator.next(), built));
+                    inFlight++;
+
+                    // merge whatever is already built without waiting
+                    InvertedIndex ready;
+                    while ((ready = built.poll()) != null) {
+                        batch.merge(ready);
+                        inFlight--;
+                    }
+                }
+            }
+
+            while (inFlight > 0) {
+                batch.merge(built.take());
+                inFlight--;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while indexing " + path);
+        } finally {
+            batch.flush();
+        }
+        group.finish();
     }
 
     /**
@@ -62,6 +124,8 @@ public class ThreadedIndexHandler extends IndexHandler {
     private class IndexBuilder implements Runnable {
         /** The path used for building */
         private final Path path;
+        /** Where to hand the built index, or {@code null} to add it to the index */
+        private final BlockingQueue<InvertedIndex> built;
 
         /**
          * Constructer for IndexBuilder
@@ -69,7 +133,19 @@ public class ThreadedIndexHandler extends IndexHandler {
          * @param path the path used for building
          */
         public IndexBuilder(Path path) {
+            this(path, null);
+        }
+
+        /**
+         * Constructer for an IndexBuilder that hands the built index to the merge
+         * stage of {@link #handleFiles(Path)}
+         * 
+         * @param path  the path used for building
+         * @param built the queue of built indexes waiting to be merged
+         */
+        public IndexBuilder(Path path, BlockingQueue<InvertedIndex> built) {
             this.path = path;
+            this.built = built;
         }
 
         @Override
@@ -79,8 +155,50 @@ public class ThreadedIndexHandler extends IndexHandler {
                 handleIndex(path, local);
             } catch (IOException e) {
                 System.out.println("Unable to Handle this Index");
+            } finally {
+                // always hand something over, since the merge stage counts every file
+                if (built != null) {
+                    built.add(local);
+                }
+            }
+            if (built == null) {
+                index.addAll(local);
+            }
+        }
+    }
+
+    /**
+     * Collects built local indexes, and adds them to the shared index together
+     * once {@link #BATCH} files have been collected, so the index is locked once
+     * per batch instead of once per file
+     * 
+     * @author stewartpowell
+     *
+     */
+    private class Batch {
+        /** The local indexes collected so far */
+        private final List<InvertedIndex> locals = new ArrayList<>(BATCH);
+
+        /**
+         * Adds a built index to the batch
+         * 
+         * @param local the built index
+         */
+        private void merge(InvertedIndex local) {
+            locals.add(local);
+            if (locals.size() == BATCH) {
+                flush();
+            }
+        }
+
+        /**
+         * Adds the batch to the shared index and starts a new batch
+         */
+        private void flush() {
+            if (!locals.isEmpty()) {
+                index.addAll(locals);
+                locals.clear();
             }
-            index.addAll(local);
         }
     }
 }
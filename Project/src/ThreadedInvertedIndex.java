@@ -7,11 +7,11 @@ import java.util.Set;
 
 /**
  * This is the Thread Safe InvertedIndex data structure used for USF CS212
- * Project 3
+ * Project 3. One read/write lock protects the whole index.
  *
  * @author stewartpowell
  */
-public class ThreadedInvertedIndex extends InvertedIndex {
+public class ThreadedInvertedIndex extends ThreadSafeInvertedIndex {
     /** The lock used to protect concurrent access to the underlying set. */
     private final SimpleReadWriteLock lock;
 
@@ -24,7 +24,9 @@ public class ThreadedInvertedIndex extends InvertedIndex {
     }
 
     /**
-     * Adds the word, path, and position to the index
+     * Adds the word, path, and position to the index. The write lock is taken
+     * separately by {@link #addDocument(String)} and
+     * {@link #add(String, int, int)} rather than held across both.
      * 
      * @param word     the word to be added
      * @param path     the path being added
@@ -34,9 +36,40 @@ public class ThreadedInvertedIndex extends InvertedIndex {
      */
     @Override
     public boolean add(String word, String path, int position) {
+        return add(word, addDocument(path), position);
+    }
+
+    /**
+     * Returns the document id of the location, adding the location to the index's
+     * document table if necessary
+     * 
+     * @param location the location to add
+     * @return the document id of the location
+     */
+    @Override
+    public int addDocument(String location) {
         lock.writeLock().lock();
         try {
-            return super.add(word, path, position);
+            return super.addDocument(location);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the word, document, and position to the index
+     * 
+     * @param word     the word to be added
+     * @param document the document id returned by {@link #addDocument(String)}
+     * @param position the position in the file the word was found in
+     * 
+     * @return boolean if the Index was changed
+     */
+    @Override
+    public boolean add(String word, int document, int position) {
+        lock.writeLock().lock();
+        try {
+            return super.add(word, document, position);
         } finally {
             lock.writeLock().unlock();
         }
@@ -52,6 +85,22 @@ public class ThreadedInvertedIndex extends InvertedIndex {
         }
     }
 
+    /**
+     * Adds every word of each of the other indexes, taking the write lock once for
+     * all of them
+     * 
+     * @param otherIndexes the indexes we are adding
+     */
+    @Override
+    public void addAll(Collection<? extends InvertedIndex> otherIndexes) {
+        lock.writeLock().lock();
+        try {
+            super.addAll(otherIndexes);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
     /**
      * returns an unmodifiable collection of the keys of the Index
      * 
@@ -110,6 +159,18 @@ public class ThreadedInvertedIndex extends InvertedIndex {
      */
     @Override
     public boolean containsWord(String word) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                boolean found = super.containsWord(word);
+                if (lock.validate(stamp)) {
+                    return found;
+                }
+            } catch (RuntimeException e) {
+                // a concurrent write was in progress; retry under the read lock
+            }
+        }
+
         lock.readLock().lock();
         try {
             return super.containsWord(word);
@@ -176,6 +237,18 @@ public class ThreadedInvertedIndex extends InvertedIndex {
      */
     @Override
     public int numLocations(String word) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                int locations = super.numLocations(word);
+                if (lock.validate(stamp)) {
+                    return locations;
+                }
+            } catch (RuntimeException e) {
+                // a concurrent write was in progress; retry under the read lock
+            }
+        }
+
         lock.readLock().lock();
         try {
             return super.numLocations(word);
@@ -202,56 +275,81 @@ public class ThreadedInvertedIndex extends InvertedIndex {
     }
 
     /**
-     * Gets the pretty Json format of the Index
+     * Writes the next batch of words for the Json format of the Index. The read
+     * lock is only held while a batch is written to the buffer, not while it is
+     * written to the file, so a large output does not block writers for its whole
+     * duration.
      * 
-     * @param path the path to output the Json Index
-     * @throws IOException throws IOException
+     * @param json  the Json writer
+     * @param after the last word already written, or {@code null} to start with
+     *              the first word
+     * @return the last word written, or {@code null} if no words were left
      */
     @Override
-    public void getIndex(Path path) throws IOException {
+    String writeIndex(JsonStreamWriter json, String after) {
         lock.readLock().lock();
         try {
-            super.getIndex(path);
+            return super.writeIndex(json, after);
         } finally {
             lock.readLock().unlock();
         }
     }
 
     /**
-     * returns the counter
+     * Saves the Index to a binary segment file
      * 
-     * @return the counter
+     * @param path the path to save the segment to
+     * @throws IOException throws IOException
      */
     @Override
-    public Map<String, Integer> getCounter() {
+    public void save(Path path) throws IOException {
         lock.readLock().lock();
         try {
-            return super.getCounter();
+            super.save(path);
         } finally {
             lock.readLock().unlock();
         }
     }
 
+    /**
+     * returns the counter
+     * 
+     * @return the counter
+     */
     @Override
-    public List<SearchResult> exactSearch(Collection<String> queries) {
+    public Map<String, Integer> getCounter() {
         lock.readLock().lock();
         try {
-            return super.exactSearch(queries);
+            return super.getCounter();
         } finally {
             lock.readLock().unlock();
         }
     }
 
+    /**
+     * Finds and scores the matching locations under the read lock. The results
+     * are sorted after the lock is released.
+     */
     @Override
-    public List<SearchResult> partialSearch(Collection<String> queries) {
+    List<SearchResult> collect(Collection<String> queries, boolean exact, int k) {
         lock.readLock().lock();
         try {
-            return super.partialSearch(queries);
+            return super.collect(queries, exact, k);
         } finally {
             lock.readLock().unlock();
         }
     }
 
+    /**
+     * Returns the contention statistics of the lock protecting this index
+     * 
+     * @return a summary of lock acquisitions and wait times per lock mode
+     */
+    @Override
+    public String getLockStatistics() {
+        return lock.toString();
+    }
+
     @Override
     public String toString() {
         lock.readLock().lock();
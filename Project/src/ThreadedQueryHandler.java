@@ -1,9 +1,11 @@
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collections;
 import java.util.List;
-import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Handles the Queries used for Search
@@ -16,11 +18,11 @@ public class ThreadedQueryHandler implements QueryHandlerInterface {
     /**
      * the thread safe inverted index
      */
-    private final ThreadedInvertedIndex index;
+    private final ThreadSafeInvertedIndex index;
     /**
-     * the map of all the search results and search queries
+     * the cache of search results, shared by every thread searching
      */
-    private final TreeMap<String, List<InvertedIndex.SearchResult>> allResults;
+    private final ResultCache cache;
     /**
      * the work queue used to delegate tasks to each thread
      */
@@ -32,14 +34,26 @@ public class ThreadedQueryHandler implements QueryHandlerInterface {
      * @param index the inverted Index
      * @param queue the workqueue used to delegate tasks
      */
-    public ThreadedQueryHandler(ThreadedInvertedIndex index, WorkQueue queue) {
+    public ThreadedQueryHandler(ThreadSafeInvertedIndex index, WorkQueue queue) {
+        this(index, queue, ResultCache.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * constructor for QueryHandler
+     * 
+     * @param index    the inverted Index
+     * @param queue    the workqueue used to delegate tasks
+     * @param capacity the number of search results kept by the cache
+     */
+    public ThreadedQueryHandler(ThreadSafeInvertedIndex index, WorkQueue queue, int capacity) {
         this.index = index;
-        this.allResults = new TreeMap<>();
+        this.cache = new ResultCache(index, capacity);
         this.queue = queue;
     }
 
     /**
-     * Reads a file of queries and adds them to a work queue
+     * Reads a file of queries and adds them to a work queue, and waits only for
+     * the queries of this file to be searched
      * 
      * @param path  the path of the Query file
      * @param exact flag for partial or exact search
@@ -47,8 +61,15 @@ public class ThreadedQueryHandler implements QueryHandlerInterface {
      */
     @Override
     public void handleQueries(Path path, boolean exact) throws IOException {
-        QueryHandlerInterface.super.handleQueries(path, exact);
-        queue.finish();
+        WorkQueue.TaskGroup group = queue.newGroup();
+        try (BufferedReader reader = Files.newBufferedReader(path)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                group.execute(new IndexSearcher(line, exact));
+            }
+        } finally {
+            group.finish();
+        }
     }
 
     /**
@@ -69,14 +90,13 @@ public class ThreadedQueryHandler implements QueryHandlerInterface {
      */
     @Override
     public void outputResults(Path output) throws IOException {
-        synchronized (allResults) {
-            this.index.getIndex(output);
-            // SimpleJsonWriter.writeSearchResultsToFile(allResults, output);
-        }
+        this.index.getIndex(output);
+        // SimpleJsonWriter.writeSearchResultsToFile(allResults, output);
     }
 
     /**
-     * Returns the results from the given query
+     * Returns the cached results from the given query, preferring the results of
+     * a partial search if both were searched. The index is not searched.
      * 
      * @param query the query to get results form
      * @return an unmodifiable list of the results
@@ -87,15 +107,57 @@ public class ThreadedQueryHandler implements QueryHandlerInterface {
         if (stemmed.isEmpty()) {
             return Collections.emptyList();
         }
-        query = String.join(" ", stemmed);
-        synchronized (allResults) {
-            if (allResults.containsKey(query)) {
-                return Collections.unmodifiableList(this.allResults.get(query));
-            }
+        List<InvertedIndex.SearchResult> results = cache.get(stemmed, false);
+        if (results == null) {
+            results = cache.get(stemmed, true);
+        }
+        return results != null ? results : Collections.emptyList();
+    }
+
+    /**
+     * Returns the results from the given query, searching the index only if they
+     * are not cached or words were added to the index since
+     * 
+     * @param query the query to get results form
+     * @param exact whether exact or partial search will be performed
+     * @return an unmodifiable list of the results
+     */
+    public List<InvertedIndex.SearchResult> getResults(String query, boolean exact) {
+        TreeSet<String> stemmed = TextFileStemmer.uniqueStems(query);
+        if (stemmed.isEmpty()) {
             return Collections.emptyList();
+        }
+        return cache.search(stemmed, exact);
+    }
 
+    /**
+     * Searches for the query on the work queue. If the results are cached, the
+     * returned future is already complete and no task is queued.
+     * 
+     * @param query the line of queries to search for
+     * @param exact flag for exact or partial search
+     * @return the future unmodifiable list of the results
+     */
+    @Override
+    public CompletableFuture<List<InvertedIndex.SearchResult>> search(String query, boolean exact) {
+        TreeSet<String> stemmed = TextFileStemmer.uniqueStems(query);
+        if (stemmed.isEmpty()) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
         }
+        List<InvertedIndex.SearchResult> cached = cache.get(stemmed, exact);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return queue.submit(() -> cache.search(stemmed, exact));
+    }
 
+    /**
+     * Returns the cache of search results, for its statistics
+     * 
+     * @return the cache
+     */
+    public ResultCache getCache() {
+        return cache;
     }
 
     /**
@@ -126,19 +188,9 @@ public class ThreadedQueryHandler implements QueryHandlerInterface {
         @Override
         public void run() {
             TreeSet<String> cleaned = TextFileStemmer.uniqueStems(line);
-            String joined = String.join(" ", cleaned);
-            synchronized (allResults) {
-                if (cleaned.isEmpty() || allResults.containsKey(joined)) {
-                    return;
-                }
+            if (!cleaned.isEmpty()) {
+                cache.search(cleaned, exact);
             }
-
-            List<InvertedIndex.SearchResult> results = index.search(cleaned, exact);
-
-            synchronized (allResults) {
-                allResults.putIfAbsent(joined, results);
-            }
-
         }
 
     }
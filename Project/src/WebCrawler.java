@@ -1,8 +1,13 @@
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import opennlp.tools.stemmer.snowball.SnowballStemmer;
 
@@ -12,17 +17,32 @@ import opennlp.tools.stemmer.snowball.SnowballStemmer;
  */
 public class WebCrawler {
     /** the thread safe inverted index */
-    private ThreadedInvertedIndex index;
-
-    /** the workqueue used to designate URLS */
-    private final WorkQueue queue;
-
-    /** The set of links used for webcrawling */
-    private final Set<URL> links;
+    private ThreadSafeInvertedIndex index;
 
     /** The number of links allowed to parse */
     private int limit;
 
+    /** The links waiting to be crawled, scheduled per host */
+    private final CrawlFrontier frontier;
+
+    /**
+     * The crawls started by this crawler that are running or recently finished,
+     * by id
+     */
+    private final ConcurrentNavigableMap<Integer, CrawlJob> jobs;
+
+    /** The id of the next crawl */
+    private final AtomicInteger nextId;
+
+    /** the number of redirects allowed */
+    private static final int REDIRECTS = 3;
+
+    /** The number of finished crawls kept for reporting */
+    private static final int FINISHED_JOBS = 100;
+
+    /** The time a finished crawl is kept for reporting, in nanoseconds */
+    private static final long FINISHED_TTL = TimeUnit.HOURS.toNanos(1);
+
     /** The default stemmer algorithm used by this class. */
     public static final SnowballStemmer.ALGORITHM DEFAULT = SnowballStemmer.ALGORITHM.ENGLISH;
 
@@ -33,30 +53,108 @@ public class WebCrawler {
      * @param queue the work queue used to designate tasks
      * @param limit the number of links allowed to parse
      */
-    public WebCrawler(ThreadedInvertedIndex index, WorkQueue queue, int limit) {
+    public WebCrawler(ThreadSafeInvertedIndex index, WorkQueue queue, int limit) {
+        this(index, queue, limit, CrawlFrontier.DEFAULT_CONNECTIONS, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Constructor for WebCrawler
+     * 
+     * @param index       the ThreadSafe inverted index
+     * @param queue       the work queue used to designate tasks
+     * @param limit       the number of links allowed to parse
+     * @param connections the number of requests sent to one host at once
+     * @param delay       the time between the starts of two requests to one host,
+     *                    in milliseconds
+     * @param depth       the greatest number of links followed from the seed
+     * @see CrawlFrontier
+     */
+    public WebCrawler(ThreadSafeInvertedIndex index, WorkQueue queue, int limit, int connections, long delay,
+            int depth) {
         this.index = index;
-        this.queue = queue;
         this.limit = limit;
-        this.links = new HashSet<>();
+        this.frontier = new CrawlFrontier(queue, this::crawl, connections, delay, depth,
+                CrawlFrontier.DEFAULT_MEMORY);
+        this.jobs = new ConcurrentSkipListMap<>();
+        this.nextId = new AtomicInteger(1);
     }
 
     /**
-     * Builds an inverted index from the seed URL
+     * Builds an inverted index from the seed URL. Each crawl tracks its own links
+     * and waits only for its own pages, so several crawls can share the work
+     * queue.
      * 
      * @param url the base URL to start the web crawl
+     * @see #submit(String)
      */
     public void crawlWeb(String url) {
+        CrawlJob job = submit(url);
+        if (job != null) {
+            job.await();
+        }
+    }
+
+    /**
+     * Starts crawling from the seed URL in the background and returns without
+     * waiting. Each page is added to the index as soon as it is fetched.
+     * 
+     * @param url the base URL to start the web crawl
+     * @return the job tracking the crawl, or {@code null} if the URL is invalid
+     */
+    public CrawlJob submit(String url) {
         try {
-            URL link = new URL(url);
-            links.add(link);
-            queue.execute(new UrlBuilder(link));
-            queue.finish();
-            links.clear();
+            URL link = LinkParser.canonicalize(new URL(url));
+            CrawlJob job = new CrawlJob(nextId.getAndIncrement(), link, limit);
+            expire();
+            jobs.put(job.getId(), job);
+            job.getFuture().thenRun(this::expire);
+            frontier.offer(job, link, 0);
+            job.finished();
+            return job;
         } catch (MalformedURLException e) {
             System.out.println("Unble to convert string to URL.");
+            return null;
         }
     }
 
+    /**
+     * Forgets the crawls that finished more than {@link #FINISHED_TTL} ago, and
+     * the oldest finished crawls beyond the newest {@link #FINISHED_JOBS}, so a
+     * long-running server does not keep every crawl it ever started
+     */
+    private void expire() {
+        long cutoff = System.nanoTime() - FINISHED_TTL;
+        int finished = 0;
+        for (CrawlJob job : jobs.descendingMap().values()) {
+            if (job.isDone() && (++finished > FINISHED_JOBS || job.finishedBefore(cutoff))) {
+                jobs.remove(job.getId());
+            }
+        }
+    }
+
+    /**
+     * Returns the crawl with the id, if it is running or finished recently
+     * 
+     * @param id the id of the crawl
+     * @return the crawl, or {@code null} if there is no crawl with the id or it
+     *         has expired
+     */
+    public CrawlJob getJob(int id) {
+        expire();
+        return jobs.get(id);
+    }
+
+    /**
+     * Returns an unmodifiable view of every crawl started by this crawler that is
+     * running or finished recently, in the order they were started
+     * 
+     * @return the crawls
+     */
+    public Collection<CrawlJob> getJobs() {
+        expire();
+        return Collections.unmodifiableCollection(jobs.values());
+    }
+
     /**
      * Adds a string of html to an InvertedIndex
      * 
@@ -64,63 +162,60 @@ public class WebCrawler {
      * @param link  the link of the html
      * @param html  the string of html from the webpage
      */
-    public static void htmlToIndex(InvertedIndex index, URL link, String html) {
-        SnowballStemmer stemmer = new SnowballStemmer(DEFAULT);
-        String[] allStems = TextParser.parse(html);
-        int linePosition = 0;
-        for (String word : allStems) {
-            linePosition++;
-            String stemmedWord = stemmer.stem(word).toString();
-            index.add(stemmedWord, link.toString(), linePosition);
-        }
+    public static void htmlToIndex(InvertedIndex index, URL link, CharSequence html) {
+        int document = index.addDocument(link.toString());
+        int[] linePosition = { 0 };
+        new TextTokenizer().tokenize(html, (word, length) -> {
+            String stemmedWord = StemCache.SHARED.stem(word, length);
+            index.add(stemmedWord, document, ++linePosition[0]);
+        });
     }
 
     /**
-     * @author stewartpowell
-     *
+     * Adds a page of html to an InvertedIndex and returns its links. The html is
+     * walked once by {@link HtmlLexer}, which removes its comments, block elements,
+     * tags and entities while collecting the href of each anchor tag, and the text
+     * left is stemmed into the index straight from the lexer's buffer.
+     * 
+     * @param index the invertedIndex being added to
+     * @param link  the link of the html
+     * @param html  the html from the webpage
+     * @return the links of the page, made absolute, in the order they were found
      */
-    private class UrlBuilder implements Runnable {
-
-        /**
-         * the link used for webcrawl
-         */
-        private final URL link;
-
-        /**
-         * the number of redirects allowed
-         */
-        private final int redirects = 3;
-
-        /**
-         * @param link the link used for webcrawl
-         */
-        private UrlBuilder(URL link) {
-            this.link = link;
+    public static ArrayList<URL> pageToIndex(InvertedIndex index, URL link, CharSequence html) {
+        List<String> hrefs = new ArrayList<>();
+        htmlToIndex(index, link, HtmlLexer.extract(html, hrefs));
+
+        ArrayList<URL> links = new ArrayList<>(hrefs.size());
+        for (String href : hrefs) {
+            URL url = LinkParser.resolve(link, href);
+            if (url != null) {
+                links.add(url);
+            }
         }
+        return links;
+    }
 
-        @Override
-        public void run() {
+    /**
+     * Fetches a page, adds it to the index and offers its links to the frontier
+     * 
+     * @param job   the crawl the page belongs to
+     * @param link  the link of the page
+     * @param depth the number of links followed from the seed
+     */
+    private void crawl(CrawlJob job, URL link, int depth) {
+        FetchedPage page = HtmlFetcher.fetchPage(link, REDIRECTS);
+        if (page == null) {
+            job.failed();
+            return;
+        }
+        InvertedIndex local = new InvertedIndex();
+        ArrayList<URL> listLinks = pageToIndex(local, link, page.getContent());
+        index.addAll(local);
+        job.fetched(page.getLength());
 
-            String html = HtmlFetcher.fetch(link, redirects);
-            if (html == null) {
-                return;
-            }
-            html = HtmlCleaner.stripBlockElements(html);
-            ArrayList<URL> listLinks = LinkParser.listLinks(link, html);
-            html = HtmlCleaner.stripTags(html);
-            html = HtmlCleaner.stripEntities(html);
-            InvertedIndex local = new InvertedIndex();
-            htmlToIndex(local, link, html);
-            index.addAll(local);
-
-            synchronized (links) {
-                for (URL url : listLinks) {
-                    if (links.size() < limit && !links.contains(url)) {
-                        links.add(url);
-                        queue.execute(new UrlBuilder(url));
-                    }
-                }
-            }
+        for (URL url : listLinks) {
+            frontier.offer(job, url, depth + 1);
         }
     }
 }
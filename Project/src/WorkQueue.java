@@ -1,9 +1,29 @@
-import java.util.LinkedList;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * A simple work queue implementation based on the IBM Developer article by
- * Brian Goetz. It is up to the user of this class to keep track of whether
- * there is any pending work remaining.
+ * A work stealing work queue based on the IBM Developer article by Brian Goetz.
+ * Every worker thread has its own queue of pending work. Work submitted by a
+ * worker is added to that worker's queue, other work is spread across the
+ * queues, and a worker that runs out of work steals from the others. Work is
+ * always taken from the head of a queue, so work is still started roughly in
+ * the order it was submitted.
+ *
+ * Work can be waited on globally with {@link #finish()}, individually through
+ * the future returned by {@link #submit(Callable)}, or as part of a
+ * {@link TaskGroup} that is awaited independently of all other work.
+ *
+ * A queue created by {@link #virtual(int)} has no worker threads at all.
+ * Instead every task is started on its own virtual thread, and a semaphore
+ * bounds how many tasks run at once. This suits tasks that spend most of their
+ * time blocked on I/O, such as fetching web pages.
  *
  * @see <a href=
  *      "https://www.ibm.com/developerworks/library/j-jtp0730/index.html"> Java
@@ -17,17 +37,48 @@ public class WorkQueue {
      */
     private final PoolWorker[] workers;
 
-    /** Queue of pending work requests. */
-    private final LinkedList<Runnable> queue;
-
     /** Used to signal the queue should be shutdown. */
     private volatile boolean shutdown;
 
     /** The default number of threads to use when not specified. */
     public static final int DEFAULT = 5;
 
+    /** The default number of tasks a virtual thread queue runs at once. */
+    public static final int VIRTUAL_DEFAULT = 1000;
+
+    /**
+     * Starts a virtual thread, or {@code null} if this JVM does not support
+     * virtual threads. Looked up reflectively so the project still builds and
+     * runs on releases without them.
+     */
+    private static final MethodHandle START_VIRTUAL = findStartVirtual();
+
+    /**
+     * Tells whether a thread is virtual, or {@code null} if this JVM does not
+     * support virtual threads
+     */
+    private static final MethodHandle IS_VIRTUAL = START_VIRTUAL == null ? null : findIsVirtual();
+
+    /** Bounds the number of running tasks, or {@code null} for a thread pool */
+    private final Semaphore permits;
+
+    /** The maximum number of running tasks of a virtual thread queue */
+    private final int limit;
+
     /** The number of pending tasks in the queue */
-    private int pending;
+    private final AtomicInteger pending;
+
+    /** The number of workers waiting for work */
+    private final AtomicInteger idle;
+
+    /** Used to spread work submitted from outside the pool across the workers */
+    private final AtomicInteger next;
+
+    /** The lock idle workers wait on */
+    private final Object sleepLock;
+
+    /** The lock threads waiting in {@link #finish()} wait on */
+    private final Object finishLock;
 
     /**
      * Starts a work queue with the default number of threads.
@@ -44,18 +95,64 @@ public class WorkQueue {
      * @param threads number of worker threads; should be greater than 1
      */
     public WorkQueue(int threads) {
-        this.queue = new LinkedList<Runnable>();
-        this.workers = new PoolWorker[threads];
-        this.pending = 0;
+        this(threads, null);
+    }
+
+    /**
+     * Starts a work queue with the specified number of worker threads, or with no
+     * worker threads if tasks are run on virtual threads instead.
+     *
+     * @param threads number of worker threads
+     * @param permits bounds the running virtual threads, or {@code null} to use
+     *                worker threads
+     */
+    private WorkQueue(int threads, Semaphore permits) {
+        this.permits = permits;
+        this.limit = threads;
+        this.workers = new PoolWorker[permits == null ? threads : 0];
+        this.pending = new AtomicInteger();
+        this.idle = new AtomicInteger();
+        this.next = new AtomicInteger();
+        this.sleepLock = new Object();
+        this.finishLock = new Object();
         this.shutdown = false;
 
+        // create every worker before starting any, since workers steal from each other
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new PoolWorker(i);
+        }
+
         // start the threads so they are waiting in the background
-        for (int i = 0; i < threads; i++) {
-            workers[i] = new PoolWorker();
+        for (int i = 0; i < workers.length; i++) {
             workers[i].start();
         }
     }
 
+    /**
+     * Starts a work queue that runs every task on its own virtual thread, with at
+     * most the given number of tasks running at once.
+     *
+     * @param limit the maximum number of running tasks; should be at least 1
+     * @return the work queue
+     * @throws UnsupportedOperationException if this JVM has no virtual threads
+     * @see #supportsVirtualThreads()
+     */
+    public static WorkQueue virtual(int limit) {
+        if (START_VIRTUAL == null) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this JVM.");
+        }
+        return new WorkQueue(limit, new Semaphore(limit));
+    }
+
+    /**
+     * Returns whether this JVM can run a queue created by {@link #virtual(int)}
+     *
+     * @return {@code true} if virtual threads are supported
+     */
+    public static boolean supportsVirtualThreads() {
+        return START_VIRTUAL != null;
+    }
+
     /**
      * Adds a work request to the queue. A thread will process this request when
      * available.
@@ -63,25 +160,79 @@ public class WorkQueue {
      * @param r work request (in the form of a {@link Runnable} object)
      */
     public void execute(Runnable r) {
-        incrementPending();
-        synchronized (queue) {
-            queue.addLast(r);
-            queue.notifyAll();
-        }
+        pending.incrementAndGet();
+        push(() -> {
+            try {
+                r.run();
+            } catch (RuntimeException ex) {
+                // catch runtime exceptions to avoid leaking threads
+                System.err.println("Warning: Work queue encountered an exception while running.");
+            } finally {
+                decrementPending();
+            }
+        });
     }
 
     /**
-     * Waits for all pending work to be finished.
+     * Adds a work request to the queue and returns a future completed with its
+     * result, or completed exceptionally if it throws.
      *
+     * @param <T>  the type of the result
+     * @param task work request (in the form of a {@link Callable} object)
+     * @return the future result of the work
      */
-    public synchronized void finish() {
-        while (pending > 0) {
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        pending.incrementAndGet();
+        push(() -> {
             try {
-                this.wait();
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+                future.complete(task.call());
+            } catch (Exception ex) {
+                future.completeExceptionally(ex);
+            } finally {
+                decrementPending();
             }
+        });
+        return future;
+    }
+
+    /**
+     * Adds a work request to the queue and returns a future completed when it has
+     * run.
+     *
+     * @param task work request (in the form of a {@link Runnable} object)
+     * @return a future completed when the work has run
+     */
+    public CompletableFuture<Void> submit(Runnable task) {
+        return submit(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * Creates a new group of tasks that can be waited on without waiting for any
+     * other work in this queue.
+     *
+     * @return a new, empty task group
+     */
+    public TaskGroup newGroup() {
+        return new TaskGroup();
+    }
 
+    /**
+     * Waits for all pending work to be finished.
+     *
+     */
+    public void finish() {
+        synchronized (finishLock) {
+            while (pending.get() > 0) {
+                try {
+                    finishLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
         }
     }
 
@@ -93,78 +244,335 @@ public class WorkQueue {
         // safe to do unsynchronized due to volatile keyword
         shutdown = true;
 
-        synchronized (queue) {
-            queue.notifyAll();
+        synchronized (sleepLock) {
+            sleepLock.notifyAll();
         }
     }
 
     /**
-     * Returns the number of worker threads being used by the work queue.
+     * Returns the number of worker threads being used by the work queue, or the
+     * maximum number of running tasks if tasks are run on virtual threads.
      *
      * @return number of worker threads
      */
     public int size() {
-        return workers.length;
+        return permits == null ? workers.length : limit;
+    }
+
+    /**
+     * Returns whether tasks of this queue are run on virtual threads
+     *
+     * @return {@code true} if this queue was created by {@link #virtual(int)}
+     */
+    public boolean isVirtual() {
+        return permits != null;
+    }
+
+    /**
+     * Adds the wrapped work to the current worker's queue, or to the next worker's
+     * queue if called from outside the pool, and wakes an idle worker if needed.
+     *
+     * @param r the wrapped work request
+     */
+    private void push(Runnable r) {
+        if (permits != null) {
+            startVirtual(() -> {
+                // blocking here only parks the virtual thread, not an OS thread
+                permits.acquireUninterruptibly();
+                try {
+                    if (!shutdown) {
+                        r.run();
+                    }
+                } finally {
+                    permits.release();
+                }
+            });
+            return;
+        }
+
+        Thread current = Thread.currentThread();
+        if (current instanceof PoolWorker && ((PoolWorker) current).owner() == this) {
+            ((PoolWorker) current).tasks.offer(r);
+        } else {
+            workers[Math.floorMod(next.getAndIncrement(), workers.length)].tasks.offer(r);
+        }
+
+        // idle is incremented before a worker checks for work, so either the worker
+        // sees this work or this thread sees the idle worker
+        if (idle.get() > 0) {
+            synchronized (sleepLock) {
+                sleepLock.notify();
+            }
+        }
+    }
+
+    /**
+     * Starts the wrapped work on a new virtual thread
+     *
+     * @param r the wrapped work request
+     */
+    private static void startVirtual(Runnable r) {
+        try {
+            START_VIRTUAL.invoke(r);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Looks up {@code Thread.startVirtualThread} and checks that it can be called,
+     * since it is a disabled preview feature on some releases
+     *
+     * @return the method handle, or {@code null} if virtual threads are not
+     *         available
+     */
+    private static MethodHandle findStartVirtual() {
+        try {
+            MethodHandle start = MethodHandles.publicLookup().findStatic(Thread.class, "startVirtualThread",
+                    MethodType.methodType(Thread.class, Runnable.class));
+            // not joined, since the probe cannot run until this class is initialized
+            start.invoke((Runnable) () -> {
+            });
+            return start;
+        } catch (Throwable e) {
+            return null;
+        }
     }
 
     /**
-     * Increments the number of Pending tasks
+     * Looks up {@code Thread.isVirtual}
+     *
+     * @return the method handle, or {@code null} if virtual threads are not
+     *         available
+     */
+    private static MethodHandle findIsVirtual() {
+        try {
+            return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual",
+                    MethodType.methodType(boolean.class));
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns whether the calling thread is a virtual thread, such as a task of
+     * a queue created by {@link #virtual(int)}. Each task of such a queue runs on
+     * a new thread, so anything kept per thread is created again for every task.
+     *
+     * @return {@code true} if the calling thread is virtual
      */
-    private synchronized void incrementPending() {
-        pending++;
+    public static boolean onVirtualThread() {
+        if (IS_VIRTUAL == null) {
+            return false;
+        }
+        try {
+            return (boolean) IS_VIRTUAL.invokeExact(Thread.currentThread());
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
     }
 
     /**
      * Decrement the number of pending tasks
      */
-    private synchronized void decrementPending() {
-        pending--;
-        if (pending == 0) {
-            this.notifyAll();
+    private void decrementPending() {
+        if (pending.decrementAndGet() == 0) {
+            synchronized (finishLock) {
+                finishLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Returns whether every worker's queue is empty
+     *
+     * @return {@code true} if there is no work waiting to be run
+     */
+    private boolean isEmpty() {
+        for (PoolWorker worker : workers) {
+            if (!worker.tasks.isEmpty()) {
+                return false;
+            }
         }
+        return true;
     }
 
     /**
-     * Waits until work is available in the work queue. When work is found, will
-     * remove the work from the queue and run it. If a shutdown is detected, will
-     * exit instead of grabbing new work from the queue. These threads will continue
-     * running in the background until a shutdown is requested.
+     * A group of tasks run by this queue that can be waited on independently.
+     * Tasks added to the group may add more tasks to the same group, and
+     * {@link #finish()} waits for those as well.
+     */
+    public class TaskGroup {
+
+        /** The number of pending tasks in this group */
+        private final AtomicInteger groupPending;
+
+        /**
+         * Creates an empty task group
+         */
+        private TaskGroup() {
+            this.groupPending = new AtomicInteger();
+        }
+
+        /**
+         * Adds a work request to the queue as part of this group.
+         *
+         * @param r work request (in the form of a {@link Runnable} object)
+         */
+        public void execute(Runnable r) {
+            groupPending.incrementAndGet();
+            WorkQueue.this.execute(() -> {
+                try {
+                    r.run();
+                } finally {
+                    decrementGroup();
+                }
+            });
+        }
+
+        /**
+         * Adds a work request to the queue as part of this group and returns a
+         * future completed with its result.
+         *
+         * @param <T>  the type of the result
+         * @param task work request (in the form of a {@link Callable} object)
+         * @return the future result of the work
+         */
+        public <T> CompletableFuture<T> submit(Callable<T> task) {
+            groupPending.incrementAndGet();
+            return WorkQueue.this.submit(() -> {
+                try {
+                    return task.call();
+                } finally {
+                    decrementGroup();
+                }
+            });
+        }
+
+        /**
+         * Waits for all pending work in this group to be finished.
+         */
+        public void finish() {
+            synchronized (this) {
+                while (groupPending.get() > 0) {
+                    try {
+                        this.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns the number of tasks in this group that have not finished
+         *
+         * @return the number of pending tasks
+         */
+        public int pending() {
+            return groupPending.get();
+        }
+
+        /**
+         * Decrement the number of pending tasks in this group
+         */
+        private void decrementGroup() {
+            if (groupPending.decrementAndGet() == 0) {
+                synchronized (this) {
+                    this.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes work from its own queue, or steals work from the other workers' queues
+     * when its own is empty. If there is no work anywhere, waits until work is
+     * added. If a shutdown is detected, will exit instead of grabbing new work.
+     * These threads will continue running in the background until a shutdown is
+     * requested.
      */
     private class PoolWorker extends Thread {
 
+        /** The pending work of this worker */
+        private final ConcurrentLinkedQueue<Runnable> tasks;
+
+        /** The position of this worker in the pool */
+        private final int id;
+
+        /**
+         * Creates a worker
+         *
+         * @param id the position of this worker in the pool
+         */
+        private PoolWorker(int id) {
+            this.tasks = new ConcurrentLinkedQueue<>();
+            this.id = id;
+        }
+
+        /**
+         * Returns the work queue this worker belongs to
+         *
+         * @return the work queue
+         */
+        private WorkQueue owner() {
+            return WorkQueue.this;
+        }
+
+        /**
+         * Returns the next work from this worker's queue, or work stolen from
+         * another worker
+         *
+         * @return the work to run, or {@code null} if there is none
+         */
+        private Runnable take() {
+            Runnable r = tasks.poll();
+            if (r != null) {
+                return r;
+            }
+
+            // start stealing at a random worker so thieves spread out
+            int start = ThreadLocalRandom.current().nextInt(workers.length);
+            for (int i = 0; i < workers.length; i++) {
+                PoolWorker victim = workers[(start + i) % workers.length];
+                if (victim != this && (r = victim.tasks.poll()) != null) {
+                    return r;
+                }
+            }
+            return null;
+        }
+
         @Override
         public void run() {
-            Runnable r = null;
+            while (!shutdown) {
+                Runnable r = take();
+                if (r != null) {
+                    r.run();
+                    continue;
+                }
 
-            while (true) {
-                synchronized (queue) {
-                    while (queue.isEmpty() && !shutdown) {
+                synchronized (sleepLock) {
+                    idle.incrementAndGet();
+                    while (isEmpty() && !shutdown) {
                         try {
-                            queue.wait();
+                            sleepLock.wait();
                         } catch (InterruptedException ex) {
                             System.err.println("Warning: Work queue interrupted.");
                             Thread.currentThread().interrupt();
                         }
                     }
-
-                    // exit while for one of two reasons:
-                    // (a) queue has work, or (b) shutdown has been called
-
-                    if (shutdown) {
-                        break;
-                    } else {
-                        r = queue.removeFirst();
-                    }
-                }
-
-                try {
-                    r.run();
-                } catch (RuntimeException ex) {
-                    // catch runtime exceptions to avoid leaking threads
-                    System.err.println("Warning: Work queue encountered an exception while running.");
+                    idle.decrementAndGet();
                 }
-                decrementPending();
             }
         }
+
+        @Override
+        public String toString() {
+            return "PoolWorker " + id;
+        }
     }
 }
@@ -0,0 +1,603 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+
+import benchmarks.Workloads;
+
+/**
+ * The hot paths of the search engine, as workloads timed by the JMH benchmarks
+ * of the {@code benchmarks} package. This class is in the unnamed package with
+ * the search engine so it can call it directly, and is created reflectively by
+ * {@link Workloads#open(Map)}.
+ *
+ * The workloads run on a synthetic corpus with a Zipfian word distribution,
+ * generated the same way on every run, unless the options give a real corpus,
+ * query file, html page or server.
+ *
+ * @author stewartpowell
+ */
+public class BenchmarkWorkloads implements Workloads {
+
+    /** The number of distinct words in the synthetic corpus */
+    private static final int VOCABULARY = 20000;
+
+    /** The number of files in the synthetic corpus */
+    private static final int FILES = 200;
+
+    /** The number of words in each synthetic file */
+    private static final int WORDS_PER_FILE = 5000;
+
+    /** The number of words on each synthetic line */
+    private static final int WORDS_PER_LINE = 12;
+
+    /** The number of query lines */
+    private static final int QUERIES = 500;
+
+    /** The number of links offered by each run of the dedup workloads */
+    private static final int DEDUP_LINKS = 200000;
+
+    /** The number of pages fetched by each run of the fetch workloads */
+    private static final int FETCHES = 200;
+
+    /** The directory of the synthetic files, deleted when closed */
+    private final Path directory;
+
+    /** The directory of text files to index */
+    private final Path corpus;
+
+    /** The file of query lines */
+    private final Path queries;
+
+    /** The html page and its url */
+    private final Map.Entry<URL, String> html;
+
+    /** The url of the page to fetch, or {@code null} to serve the html locally */
+    private final String server;
+
+    /** The work queues, pools and servers to stop when closed */
+    private final List<AutoCloseable> closing;
+
+    /**
+     * Creates the workloads, generating the synthetic corpus, queries and html
+     *
+     * @param options the real "path", "query", "html" or "server" to use instead
+     *                of the synthetic ones, if not empty
+     * @throws IOException if unable to write or read the files
+     */
+    public BenchmarkWorkloads(Map<String, String> options) throws IOException {
+        this.directory = Files.createTempDirectory("benchmark");
+        this.closing = new ArrayList<>();
+        Map.Entry<URL, String> page = generate(directory);
+
+        String path = options.getOrDefault("path", "");
+        String query = options.getOrDefault("query", "");
+        String file = options.getOrDefault("html", "");
+        String url = options.getOrDefault("server", "");
+
+        this.corpus = path.isEmpty() ? directory.resolve("corpus") : Path.of(path);
+        this.queries = query.isEmpty() ? directory.resolve("queries.txt") : Path.of(query);
+        if (!file.isEmpty()) {
+            Path real = Path.of(file);
+            page = Map.entry(real.toUri().toURL(), Files.readString(real, StandardCharsets.UTF_8));
+        }
+        this.html = page;
+        this.server = url.isEmpty() ? null : url;
+    }
+
+    @Override
+    public Task task(String name, int threads) throws Exception {
+        // the single pass parsers are only timed on html they clean like the regexes
+        if (name.startsWith("Html") || name.startsWith("LinkParser") || name.startsWith("crawl")) {
+            ParityCheck.checkHtml(html.getKey().toString(), html.getValue());
+        } else if (name.startsWith("adversarial")) {
+            ParityCheck.checkHtml("adversarial html", ParityCheck.adversarialHtml());
+        }
+
+        switch (name) {
+            case "HtmlCleaner.regexPasses":
+                return () -> ParityCheck.stripHtmlByRegex(html.getValue()).length();
+            case "HtmlLexer.stripHtml":
+                return () -> HtmlLexer.stripHtml(html.getValue()).length();
+            case "LinkParser.listLinks":
+                return () -> LinkParser.listLinks(html.getKey(), html.getValue()).size();
+            case "crawlPageByPasses":
+                return () -> {
+                    InvertedIndex local = new InvertedIndex();
+                    String page = HtmlCleaner.stripBlockElements(html.getValue());
+                    List<URL> links = LinkParser.listLinks(html.getKey(), page);
+                    page = HtmlCleaner.stripEntities(HtmlCleaner.stripTags(page));
+                    WebCrawler.htmlToIndex(local, html.getKey(), page);
+                    return local.numWords() + links.size();
+                };
+            case "crawlPageFused":
+                return () -> {
+                    InvertedIndex local = new InvertedIndex();
+                    List<URL> links = WebCrawler.pageToIndex(local, html.getKey(), html.getValue());
+                    return local.numWords() + links.size();
+                };
+            case "adversarialRegexPasses": {
+                String adversarial = ParityCheck.adversarialHtml();
+                return () -> ParityCheck.stripHtmlByRegex(adversarial).length();
+            }
+            case "adversarialLexer": {
+                String adversarial = ParityCheck.adversarialHtml();
+                return () -> HtmlLexer.stripHtml(adversarial).length();
+            }
+            case "dedupHashSet": {
+                // a HashSet<URL> is not timed since its hashCode may resolve hosts
+                List<URL> offered = links();
+                return () -> {
+                    HashSet<String> seen = new HashSet<>();
+                    for (URL link : offered) {
+                        seen.add(link.toString());
+                    }
+                    return seen.size();
+                };
+            }
+            case "dedupFingerprintSet": {
+                List<URL> offered = links();
+                return () -> {
+                    FingerprintSet seen = new FingerprintSet();
+                    for (URL link : offered) {
+                        seen.add(FingerprintSet.fingerprint(link.toString()));
+                    }
+                    return seen.size();
+                };
+            }
+            case "fetchLinesNewConnections": {
+                URL url = page();
+                WorkQueue queue = queue(threads);
+                return () -> fetch(queue, () -> String.join("\n", HttpsFetcher.fetchURL(url).get("Content")).length());
+            }
+            case "fetchNewConnections":
+            case "fetchKeepAlive": {
+                URL url = page();
+                WorkQueue queue = queue(threads);
+                ConnectionPool pool = new ConnectionPool(name.equals("fetchKeepAlive") ? threads : 0,
+                        ConnectionPool.DEFAULT_TIMEOUT);
+                closing.add(pool);
+                return () -> fetch(queue,
+                        () -> HttpsFetcher.fetchPage(url, pool, ResponseReader.DEFAULT_MAX).getContent().length());
+            }
+            default:
+                return corpusTask(name, threads);
+        }
+    }
+
+    /**
+     * Prepares a workload that builds or searches an index of the corpus
+     *
+     * @param name    the name of the workload
+     * @param threads the number of worker threads
+     * @return the work to time
+     * @throws IOException if unable to read the corpus or queries
+     */
+    private Task corpusTask(String name, int threads) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> found = TextFileFinder.find(corpus)) {
+            found.forEach(files::add);
+        }
+        List<String> lines = Files.readAllLines(queries, StandardCharsets.UTF_8);
+        List<TreeSet<String>> exact = new ArrayList<>();
+        List<TreeSet<String>> partial = new ArrayList<>();
+        for (String line : lines) {
+            TreeSet<String> stems = TextFileStemmer.uniqueStems(line);
+            exact.add(stems);
+            TreeSet<String> prefixes = new TreeSet<>();
+            for (String stem : stems) {
+                prefixes.add(stem.substring(0, Math.min(3, stem.length())));
+            }
+            partial.add(prefixes);
+        }
+
+        InvertedIndex built = new InvertedIndex();
+        List<InvertedIndex> locals = new ArrayList<>();
+        for (Path file : files) {
+            InvertedIndex local = new InvertedIndex();
+            IndexHandler.handleIndex(file, local);
+            locals.add(local);
+            built.addAll(local);
+        }
+
+        switch (name) {
+            case "IndexHandler.handleIndex":
+                return () -> {
+                    InvertedIndex index = new InvertedIndex();
+                    for (Path file : files) {
+                        IndexHandler.handleIndex(file, index);
+                    }
+                    return index.numWords();
+                };
+            case "InvertedIndex.add": {
+                List<String[]> words = new ArrayList<>();
+                for (Path file : files) {
+                    words.add(TextFileStemmer.listStems(file).toArray(new String[0]));
+                }
+                return () -> {
+                    InvertedIndex index = new InvertedIndex();
+                    for (int i = 0; i < words.size(); i++) {
+                        int document = index.addDocument(files.get(i).toString());
+                        String[] stems = words.get(i);
+                        for (int j = 0; j < stems.length; j++) {
+                            index.add(stems[j], document, j + 1);
+                        }
+                    }
+                    return index.numWords();
+                };
+            }
+            case "InvertedIndex.addAll":
+                return () -> {
+                    InvertedIndex index = new InvertedIndex();
+                    for (InvertedIndex local : locals) {
+                        index.addAll(local);
+                    }
+                    return index.numWords();
+                };
+            case "InvertedIndex.exactSearch":
+                return () -> {
+                    long found = 0;
+                    for (TreeSet<String> query : exact) {
+                        found += built.exactSearch(query).size();
+                    }
+                    return found;
+                };
+            case "InvertedIndex.partialSearch":
+                return () -> {
+                    long found = 0;
+                    for (TreeSet<String> query : partial) {
+                        found += built.partialSearch(query).size();
+                    }
+                    return found;
+                };
+            case "InvertedIndex.searchTop10":
+                return () -> {
+                    long found = 0;
+                    for (TreeSet<String> query : partial) {
+                        found += built.search(query, false, 10).size();
+                    }
+                    return found;
+                };
+            case "TextFileStemmer.uniqueStems":
+                return () -> {
+                    long found = 0;
+                    for (String line : lines) {
+                        found += TextFileStemmer.uniqueStems(line).size();
+                    }
+                    return found;
+                };
+            case "SimpleJsonWriter.indexToJsonFile": {
+                TreeMap<String, TreeMap<String, TreeSet<Integer>>> decoded = new TreeMap<>();
+                for (String word : built.getWords()) {
+                    decoded.put(word, built.decode(word));
+                }
+                Path json = directory.resolve("index.json");
+                return () -> {
+                    SimpleJsonWriter.indexToJsonFile(decoded, json);
+                    return Files.size(json);
+                };
+            }
+            case "InvertedIndex.getIndex": {
+                Path json = directory.resolve("index.json");
+                return () -> {
+                    built.getIndex(json);
+                    return Files.size(json);
+                };
+            }
+            case "ThreadedIndexHandler": {
+                WorkQueue queue = queue(threads);
+                return () -> {
+                    ThreadedInvertedIndex index = new ThreadedInvertedIndex();
+                    new ThreadedIndexHandler(index, queue).handleFiles(corpus);
+                    return index.numWords();
+                };
+            }
+            case "ThreadedInvertedIndex.exactSearch":
+            case "ThreadedInvertedIndex.partialSearch":
+            case "ConcurrentInvertedIndex.exactSearch":
+            case "ConcurrentInvertedIndex.partialSearch": {
+                // ThreadedQueryHandler skips queries it already has results for
+                WorkQueue queue = queue(threads);
+                ThreadSafeInvertedIndex index = name.startsWith("Concurrent") ? new ConcurrentInvertedIndex()
+                        : new ThreadedInvertedIndex();
+                index.addAll(built);
+                boolean isExact = name.endsWith("exactSearch");
+                List<TreeSet<String>> searched = isExact ? exact : partial;
+                return () -> search(index, queue, searched, isExact);
+            }
+            case "ThreadedInvertedIndex.mixed": {
+                WorkQueue queue = queue(threads);
+                return () -> mixed(new ThreadedInvertedIndex(), queue, locals, exact, partial);
+            }
+            case "ConcurrentInvertedIndex.mixed": {
+                WorkQueue queue = queue(threads);
+                return () -> mixed(new ConcurrentInvertedIndex(), queue, locals, exact, partial);
+            }
+            default:
+                throw new IllegalArgumentException("No workload named " + name);
+        }
+    }
+
+    /**
+     * Starts a work queue that is shut down when the workloads are closed
+     *
+     * @param threads the number of worker threads
+     * @return the work queue
+     */
+    private WorkQueue queue(int threads) {
+        WorkQueue queue = new WorkQueue(threads);
+        closing.add(queue::shutdown);
+        return queue;
+    }
+
+    /**
+     * Returns the url of the page to fetch, starting a local Jetty server that
+     * serves the html at every path if no server was given
+     *
+     * @return the url of the page
+     * @throws Exception if unable to start the server
+     */
+    private URL page() throws Exception {
+        if (server != null) {
+            return new URL(server);
+        }
+        Server jetty = new Server();
+        ServerConnector connector = new ServerConnector(jetty);
+        connector.setHost("localhost");
+        connector.setPort(0);
+        jetty.addConnector(connector);
+        ServletContextHandler servletContext = new ServletContextHandler();
+        servletContext.setContextPath("/");
+        servletContext.addServlet(new ServletHolder(new PageServlet(html.getValue())), "/*");
+        jetty.setHandler(servletContext);
+        jetty.start();
+        closing.add(jetty::stop);
+        return new URL("http://localhost:" + connector.getLocalPort() + "/page.html");
+    }
+
+    /**
+     * Returns the links offered by the dedup workloads. Half of the links are
+     * repeats, as when most pages link back to the same pages.
+     *
+     * @return the links
+     * @throws IOException if a link is malformed
+     */
+    private static List<URL> links() throws IOException {
+        List<URL> offered = new ArrayList<>(DEDUP_LINKS);
+        for (int i = 0; i < DEDUP_LINKS; i++) {
+            int page = i % (DEDUP_LINKS / 2);
+            offered.add(new URL("https://host" + page % 50 + ".example.com/page/" + page + ".html"));
+        }
+        return offered;
+    }
+
+    /**
+     * Fetches a page {@link #FETCHES} times, each as its own task of the work
+     * queue
+     *
+     * @param queue the work queue
+     * @param fetch fetches the page once
+     * @return the total number of characters fetched
+     */
+    private static long fetch(WorkQueue queue, Task fetch) {
+        AtomicLong characters = new AtomicLong();
+        WorkQueue.TaskGroup group = queue.newGroup();
+        for (int i = 0; i < FETCHES; i++) {
+            group.execute(() -> {
+                try {
+                    characters.addAndGet(fetch.run());
+                } catch (Exception e) {
+                    System.out.println("Unable to fetch: " + e);
+                }
+            });
+        }
+        group.finish();
+        return characters.get();
+    }
+
+    /**
+     * Serves one page at every path, so the fetch workloads do not depend on the
+     * network
+     */
+    private static class PageServlet extends HttpServlet {
+
+        /** ID used for serialization, which we are not using. */
+        private static final long serialVersionUID = 1L;
+
+        /** The page to serve */
+        private final String page;
+
+        /**
+         * Creates a servlet serving the page
+         *
+         * @param page the html of the page
+         */
+        public PageServlet(String page) {
+            this.page = page;
+        }
+
+        @Override
+        protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            response.setContentType("text/html");
+            response.setStatus(HttpServletResponse.SC_OK);
+            PrintWriter out = response.getWriter();
+            out.print(page);
+            out.flush();
+        }
+    }
+
+    /**
+     * Searches each query as its own task of the work queue
+     *
+     * @param index   the index to search
+     * @param queue   the work queue
+     * @param queries the stemmed queries
+     * @param exact   whether to do an exact or partial search
+     * @return the total number of results
+     */
+    private static long search(ThreadSafeInvertedIndex index, WorkQueue queue, List<TreeSet<String>> queries,
+            boolean exact) {
+        AtomicLong found = new AtomicLong();
+        WorkQueue.TaskGroup group = queue.newGroup();
+        for (TreeSet<String> query : queries) {
+            group.execute(() -> found.addAndGet(index.search(query, exact).size()));
+        }
+        group.finish();
+        return found.get();
+    }
+
+    /**
+     * Merges the index of each file into an empty index while the exact and
+     * partial queries are searched, each merge and search as its own task of the
+     * work queue. The tasks are interleaved in the same order on every run, so
+     * searches compete with merges for the whole run, as when a server answers
+     * searches while it crawls.
+     *
+     * @param index   the empty index to merge into and search
+     * @param queue   the work queue
+     * @param locals  the index of each file
+     * @param exact   the stemmed queries to search exactly
+     * @param partial the prefixes to search partially
+     * @return the number of words plus the total number of results
+     */
+    private static long mixed(ThreadSafeInvertedIndex index, WorkQueue queue, List<InvertedIndex> locals,
+            List<TreeSet<String>> exact, List<TreeSet<String>> partial) {
+        AtomicLong found = new AtomicLong();
+        WorkQueue.TaskGroup group = queue.newGroup();
+        int tasks = Math.max(locals.size(), Math.max(exact.size(), partial.size()));
+        for (int i = 0; i < tasks; i++) {
+            if (i < locals.size()) {
+                InvertedIndex local = locals.get(i);
+                group.execute(() -> index.addAll(local));
+            }
+            if (i < exact.size()) {
+                TreeSet<String> query = exact.get(i);
+                group.execute(() -> found.addAndGet(index.search(query, true).size()));
+            }
+            if (i < partial.size()) {
+                TreeSet<String> query = partial.get(i);
+                group.execute(() -> found.addAndGet(index.search(query, false).size()));
+            }
+        }
+        group.finish();
+        return index.numWords() + found.get();
+    }
+
+    /**
+     * Generates a synthetic corpus whose word frequencies follow Zipf's law, like
+     * natural language
+     *
+     * @param directory the directory to write the corpus directory and queries to
+     * @return the html page generated from the same words, and its url
+     * @throws IOException if unable to write the files
+     */
+    private static Map.Entry<URL, String> generate(Path directory) throws IOException {
+        Random random = new Random(212);
+        String[] syllables = { "ba", "ce", "di", "fo", "gu", "ha", "je", "ki", "lo", "mu", "na", "pe", "qui", "ro",
+                "su", "ta", "ve", "wi", "xo", "yu", "ze", "ing", "ed", "s", "tion" };
+        String[] vocabulary = new String[VOCABULARY];
+        for (int i = 0; i < VOCABULARY; i++) {
+            StringBuilder word = new StringBuilder();
+            for (int n = 1 + random.nextInt(4); n > 0; n--) {
+                word.append(syllables[random.nextInt(syllables.length)]);
+            }
+            // capitals and punctuation exercise the text cleaning
+            if (random.nextInt(10) == 0) {
+                word.setCharAt(0, Character.toUpperCase(word.charAt(0)));
+            }
+            vocabulary[i] = random.nextInt(20) == 0 ? word + "," : word.toString();
+        }
+
+        double[] cumulative = new double[VOCABULARY];
+        double total = 0;
+        for (int i = 0; i < VOCABULARY; i++) {
+            total += 1.0 / (i + 1);
+            cumulative[i] = total;
+        }
+
+        Path corpus = Files.createDirectory(directory.resolve("corpus"));
+        for (int file = 0; file < FILES; file++) {
+            Path path = corpus.resolve(String.format("file%03d.txt", file));
+            try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+                for (int i = 1; i <= WORDS_PER_FILE; i++) {
+                    writer.write(zipf(vocabulary, cumulative, random));
+                    writer.write(i % WORDS_PER_LINE == 0 ? "\n" : " ");
+                }
+            }
+        }
+
+        try (BufferedWriter writer = Files.newBufferedWriter(directory.resolve("queries.txt"),
+                StandardCharsets.UTF_8)) {
+            for (int i = 0; i < QUERIES; i++) {
+                for (int n = 1 + random.nextInt(3); n > 0; n--) {
+                    writer.write(zipf(vocabulary, cumulative, random));
+                    writer.write(n > 1 ? " " : "\n");
+                }
+            }
+        }
+
+        StringBuilder html = new StringBuilder("<!DOCTYPE html>\n<html>\n<head>\n<title>Benchmark</title>\n");
+        html.append("<style>p { margin: 0; }</style>\n<script>var x = \"<a href=\\\"no.html\\\">\";</script>\n");
+        html.append("</head>\n<body>\n");
+        for (int i = 0; i < 500; i++) {
+            html.append("<p class=\"text\">");
+            for (int j = 0; j < 40; j++) {
+                html.append(zipf(vocabulary, cumulative, random)).append(j % 10 == 9 ? " &amp; " : " ");
+            }
+            html.append("<a href=\"page").append(i).append(".html#top\">link</a></p>\n");
+            if (i % 50 == 0) {
+                html.append("<!-- <a href=\"comment.html\">hidden</a> -->\n");
+            }
+        }
+        html.append("</body>\n</html>\n");
+        return Map.entry(new URL("https://www.example.com/benchmark/index.html"), html.toString());
+    }
+
+    /**
+     * Picks a random word with probability inversely proportional to its rank
+     *
+     * @param vocabulary the words, by rank
+     * @param cumulative the cumulative weight of each rank
+     * @param random     the source of randomness
+     * @return the word
+     */
+    private static String zipf(String[] vocabulary, double[] cumulative, Random random) {
+        int rank = Arrays.binarySearch(cumulative, random.nextDouble() * cumulative[cumulative.length - 1]);
+        return vocabulary[Math.min(rank >= 0 ? rank : -rank - 1, vocabulary.length - 1)];
+    }
+
+    @Override
+    public void close() throws Exception {
+        for (AutoCloseable resource : closing) {
+            resource.close();
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
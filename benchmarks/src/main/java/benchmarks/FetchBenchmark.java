@@ -0,0 +1,43 @@
+package benchmarks;
+
+import java.util.Map;
+
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * Times fetching a page many times through a work queue: as a list of lines over
+ * new connections, and into reusable buffers over new and over pooled keep-alive
+ * connections. The page is the synthetic html served by a local Jetty server,
+ * unless {@code -p server=url} gives a page to fetch instead.
+ *
+ * @author stewartpowell
+ */
+public class FetchBenchmark extends WorkloadBenchmark {
+
+    /** The workload to time */
+    @Param({ "fetchLinesNewConnections", "fetchNewConnections", "fetchKeepAlive" })
+    public String workload;
+
+    /** The number of worker threads */
+    @Param({ "1", "2", "4", "8" })
+    public int threads;
+
+    /** The url of the page to fetch, or empty for the local server */
+    @Param("")
+    public String server;
+
+    @Override
+    protected String workload() {
+        return workload;
+    }
+
+    @Override
+    protected int threads() {
+        return threads;
+    }
+
+    @Override
+    protected void options(Map<String, String> options) {
+        options.put("server", server);
+    }
+}
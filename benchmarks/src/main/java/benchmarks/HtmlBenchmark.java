@@ -0,0 +1,40 @@
+package benchmarks;
+
+import java.util.Map;
+
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * Times cleaning html, finding its links, adding a crawled page to an index and
+ * deduplicating crawled links. The page is synthetic unless a real one is given
+ * with {@code -p html=file}. The adversarial workloads clean a page of unclosed
+ * elements that makes the lazy regular expressions of {@code HtmlCleaner}
+ * backtrack over the rest of the page.
+ *
+ * Before anything is timed, the page is checked to be cleaned by
+ * {@code HtmlLexer} exactly like the regular expressions, as by
+ * {@code ParityCheck}.
+ *
+ * @author stewartpowell
+ */
+public class HtmlBenchmark extends WorkloadBenchmark {
+
+    /** The workload to time */
+    @Param({ "HtmlCleaner.regexPasses", "HtmlLexer.stripHtml", "LinkParser.listLinks", "crawlPageByPasses",
+            "crawlPageFused", "adversarialRegexPasses", "adversarialLexer", "dedupHashSet", "dedupFingerprintSet" })
+    public String workload;
+
+    /** The html file to clean, or empty for the synthetic page */
+    @Param("")
+    public String html;
+
+    @Override
+    protected String workload() {
+        return workload;
+    }
+
+    @Override
+    protected void options(Map<String, String> options) {
+        options.put("html", html);
+    }
+}
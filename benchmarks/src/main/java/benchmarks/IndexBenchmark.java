@@ -0,0 +1,44 @@
+package benchmarks;
+
+import java.util.Map;
+
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * Times building, searching and writing an index on one thread. The corpus and
+ * queries are synthetic, with a Zipfian word distribution generated the same way
+ * on every run, unless real ones are given:
+ *
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar IndexBenchmark -p path=dir -p query=file
+ * </pre>
+ *
+ * @author stewartpowell
+ */
+public class IndexBenchmark extends WorkloadBenchmark {
+
+    /** The workload to time */
+    @Param({ "IndexHandler.handleIndex", "InvertedIndex.add", "InvertedIndex.addAll", "InvertedIndex.exactSearch",
+            "InvertedIndex.partialSearch", "InvertedIndex.searchTop10", "TextFileStemmer.uniqueStems",
+            "SimpleJsonWriter.indexToJsonFile", "InvertedIndex.getIndex" })
+    public String workload;
+
+    /** The directory of text files to index, or empty for the synthetic corpus */
+    @Param("")
+    public String path;
+
+    /** The file of query lines, or empty for the synthetic queries */
+    @Param("")
+    public String query;
+
+    @Override
+    protected String workload() {
+        return workload;
+    }
+
+    @Override
+    protected void options(Map<String, String> options) {
+        options.put("path", path);
+        options.put("query", query);
+    }
+}
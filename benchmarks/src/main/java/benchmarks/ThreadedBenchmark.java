@@ -0,0 +1,54 @@
+package benchmarks;
+
+import java.util.Map;
+
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * Times building and searching a {@code ThreadedInvertedIndex} or a sharded
+ * {@code ConcurrentInvertedIndex} through a work queue with different numbers of
+ * worker threads. The queries search for the same words as
+ * {@link IndexBenchmark}.
+ *
+ * The mixed workloads merge the index of each file while exact and partial
+ * searches run, comparing the single lock of {@code ThreadedInvertedIndex} with
+ * the sharded locks of {@code ConcurrentInvertedIndex} under the same load.
+ *
+ * @author stewartpowell
+ */
+public class ThreadedBenchmark extends WorkloadBenchmark {
+
+    /** The workload to time */
+    @Param({ "ThreadedIndexHandler", "ThreadedInvertedIndex.exactSearch", "ThreadedInvertedIndex.partialSearch",
+            "ConcurrentInvertedIndex.exactSearch", "ConcurrentInvertedIndex.partialSearch", "ThreadedInvertedIndex.mixed",
+            "ConcurrentInvertedIndex.mixed" })
+    public String workload;
+
+    /** The number of worker threads */
+    @Param({ "1", "2", "4", "8" })
+    public int threads;
+
+    /** The directory of text files to index, or empty for the synthetic corpus */
+    @Param("")
+    public String path;
+
+    /** The file of query lines, or empty for the synthetic queries */
+    @Param("")
+    public String query;
+
+    @Override
+    protected String workload() {
+        return workload;
+    }
+
+    @Override
+    protected int threads() {
+        return threads;
+    }
+
+    @Override
+    protected void options(Map<String, String> options) {
+        options.put("path", path);
+        options.put("query", query);
+    }
+}
@@ -0,0 +1,100 @@
+package benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times one of the {@link Workloads}, chosen by the parameters of a subclass.
+ * Each workload is run in its own forked JVMs, warmed up so the JIT compiler has
+ * optimized it, and reported by JMH as the average time of one run with its
+ * error.
+ *
+ * @author stewartpowell
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public abstract class WorkloadBenchmark {
+
+    /** The workloads of the trial */
+    private Workloads workloads;
+
+    /** The work being timed */
+    private Workloads.Task running;
+
+    /**
+     * Returns the name of the workload to time
+     *
+     * @return the name
+     */
+    protected abstract String workload();
+
+    /**
+     * Returns the number of worker threads the workload uses
+     *
+     * @return the number of threads
+     */
+    protected int threads() {
+        return 1;
+    }
+
+    /**
+     * Adds the real corpus, queries, html or server given by the parameters of
+     * the benchmark
+     *
+     * @param options the options passed to {@link Workloads#open(Map)}
+     */
+    protected void options(Map<String, String> options) {
+    }
+
+    /**
+     * Creates the workloads and prepares the one being timed
+     *
+     * @throws Exception if the workload cannot be prepared
+     */
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Map<String, String> options = new HashMap<>();
+        options(options);
+        workloads = Workloads.open(options);
+        running = workloads.task(workload(), threads());
+    }
+
+    /**
+     * Stops any work queue or server of the workloads and deletes their files
+     *
+     * @throws Exception if the workloads cannot be closed
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        workloads.close();
+    }
+
+    /**
+     * Runs the workload once
+     *
+     * @return a value derived from the result, consumed by JMH
+     * @throws Exception if the work fails
+     */
+    @Benchmark
+    public long run() throws Exception {
+        return running.run();
+    }
+}
@@ -0,0 +1,61 @@
+package benchmarks;
+
+import java.util.Map;
+
+/**
+ * The workloads timed by the benchmarks of this module, each run by name.
+ *
+ * The search engine is in the unnamed package, which JMH does not allow
+ * benchmarks to be in and which no named package can import. So the workloads
+ * are implemented by the class {@code BenchmarkWorkloads} in the unnamed
+ * package, and created reflectively by {@link #open(Map)} once per trial. The
+ * timed calls go through the {@link Task} interface and never use reflection.
+ *
+ * @author stewartpowell
+ */
+public interface Workloads extends AutoCloseable {
+
+    /** The class implementing the workloads, in the unnamed package */
+    String IMPLEMENTATION = "BenchmarkWorkloads";
+
+    /**
+     * A piece of work to time
+     */
+    @FunctionalInterface
+    interface Task {
+        /**
+         * Runs the work once
+         *
+         * @return any value derived from the result of the work, consumed by JMH so
+         *         the work cannot be removed by the JIT compiler
+         * @throws Exception if the work fails
+         */
+        long run() throws Exception;
+    }
+
+    /**
+     * Prepares the workload with the given name, creating any index, work queue
+     * or server it needs
+     *
+     * @param name    the name of the workload
+     * @param threads the number of worker threads, for the workloads that use a
+     *                work queue
+     * @return the work to time
+     * @throws Exception if the workload cannot be prepared
+     * @throws IllegalArgumentException if there is no workload with the name
+     */
+    Task task(String name, int threads) throws Exception;
+
+    /**
+     * Creates the workloads, generating the synthetic corpus, queries and html
+     * page they run on
+     *
+     * @param options the real "path", "query", "html" or "server" to use instead
+     *                of the synthetic ones, if not empty
+     * @return the workloads
+     * @throws Exception if the workloads cannot be created
+     */
+    static Workloads open(Map<String, String> options) throws Exception {
+        return (Workloads) Class.forName(IMPLEMENTATION).getConstructor(Map.class).newInstance(options);
+    }
+}